@@ -0,0 +1,58 @@
+package benchmarks;
+
+import common.BankResponse;
+import org.openjdk.jmh.annotations.*;
+import server.BankService;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Поиск счета по номеру (индекс счетов BankService) среди accounts счетов:
+// баланс случайного счета с проверкой владельца и список счетов пользователя.
+// Промах (чужой или несуществующий счет) проверяется отдельно - это путь ошибки.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AccountLookupBenchmark {
+    private static final int ACCOUNTS_PER_USER = 2;
+    
+    @Param({"1000", "100000", "1000000"})
+    public int accounts;
+    
+    private BankService bank;
+    private int users;
+    
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+        users = accounts / ACCOUNTS_PER_USER;
+        BenchmarkData.seed(users, ACCOUNTS_PER_USER, 0);
+        bank = BenchmarkData.startService();
+    }
+    
+    @TearDown(Level.Trial)
+    public void stop() throws IOException {
+        BenchmarkData.stopService(bank);
+    }
+    
+    @Benchmark
+    public BankResponse getBalance() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int user = random.nextInt(users);
+        return bank.getBalance(BenchmarkData.login(user), BenchmarkData.account(user, random.nextInt(ACCOUNTS_PER_USER)));
+    }
+    
+    @Benchmark
+    public BankResponse getBalanceOfOtherUser() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int user = random.nextInt(users);
+        return bank.getBalance(BenchmarkData.login(user), BenchmarkData.account((user + 1) % users, 0));
+    }
+    
+    @Benchmark
+    public BankResponse getAccounts() {
+        return bank.getAccounts(BenchmarkData.login(ThreadLocalRandom.current().nextInt(users)));
+    }
+}
@@ -0,0 +1,68 @@
+package benchmarks;
+
+import loadtest.DataSeeder;
+import server.BankService;
+import utils.Logger;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+// Временный каталог данных для форка JMH, заполняемый loadtest.DataSeeder: BankService
+// импортирует файлы старого формата при запуске потоково и без журнала, поэтому
+// миллионы записей загружаются за секунды, а не отдельными операциями. Каталог
+// задается через bank.data.dir до первого обращения к Config, поэтому в одной JVM
+// (одном форке JMH) используется один каталог.
+final class BenchmarkData {
+    private static final Path DIRECTORY = createDirectory();
+    
+    private BenchmarkData() {
+    }
+    
+    private static Path createDirectory() {
+        try {
+            Path directory = Files.createTempDirectory("bank-bench-");
+            System.setProperty("bank.data.dir", directory.toString());
+            // Журналирование каждой операции искажает измерения; уровень можно задать явно
+            if (System.getProperty("bank.log.level") == null) {
+                System.setProperty("bank.log.level", "WARN");
+            }
+            return directory;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    static String login(int user) {
+        return DataSeeder.login(user);
+    }
+    
+    static String account(int user, int index) {
+        return DataSeeder.account(user, index);
+    }
+    
+    // Идентификатор index-й записи истории первого счета первого пользователя
+    static String transactionId(long index) {
+        return DataSeeder.transactionId(0, 0, index);
+    }
+    
+    // users пользователей по accountsPerUser счетов; на первом счете каждого
+    // пользователя - история из historyPerUser пополнений
+    static void seed(int users, int accountsPerUser, long historyPerUser) throws IOException {
+        DataSeeder.seed(DIRECTORY, users, accountsPerUser, historyPerUser);
+    }
+    
+    static BankService startService() {
+        return new BankService(new Logger("Benchmark", DIRECTORY.resolve("benchmark.log").toString()));
+    }
+    
+    // Остановка сервиса и удаление каталога данных
+    static void stopService(BankService service) throws IOException {
+        service.shutdown();
+        try (Stream<Path> files = Files.walk(DIRECTORY)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+}
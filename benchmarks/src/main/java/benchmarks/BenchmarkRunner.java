@@ -0,0 +1,45 @@
+package benchmarks;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.List;
+
+// Точка входа benchmarks.jar: параметры командной строки JMH плюс значения по умолчанию
+// для архива результатов - профилировщик gc (скорость и объем выделения памяти на
+// операцию, число и время сборок) и результат в JSON в каталоге results/ с меткой
+// времени в имени. Файлы из архива сравниваются CompareResults.
+public class BenchmarkRunner {
+    private static final List<String> INFO_OPTIONS = Arrays.asList("-h", "-l", "-lp", "-lprof", "-lrf");
+    
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && INFO_OPTIONS.contains(args[0])) {
+            Main.main(args);
+            return;
+        }
+        CommandLineOptions command = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(command);
+        if (command.getProfilers().isEmpty()) {
+            options.addProfiler(GCProfiler.class);
+        }
+        if (!command.getResult().hasValue()) {
+            Path directory = Paths.get(System.getProperty("bench.results", "results"));
+            Files.createDirectories(directory);
+            String label = System.getProperty("bench.label");
+            String name = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"))
+                + (label != null ? "-" + label : "") + ".json";
+            options.resultFormat(ResultFormatType.JSON).result(directory.resolve(name).toString());
+        }
+        new Runner(options.build()).run();
+    }
+}
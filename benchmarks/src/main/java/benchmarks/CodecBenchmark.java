@@ -0,0 +1,184 @@
+package benchmarks;
+
+import common.*;
+import org.openjdk.jmh.annotations.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Кодирование и разбор сообщений обоими протоколами (WireCodec) в памяти, без сокетов:
+// запрос перевода и ответы со списком счетов и страницей истории. Разбор читает
+// бесконечный поток из одного и того же сообщения, поэтому состояние потока
+// (таблица ссылок ObjectInputStream, буферы BinaryCodec) такое же, как в соединении.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+    
+    @State(Scope.Thread)
+    public static class Protocol {
+        @Param({"binary", "object"})
+        public String protocol;
+        
+        WireCodec create(InputStream in, ByteArrayOutputStream out) throws IOException {
+            return protocol.equals("binary") ? new BinaryCodec(in, out) : new ObjectStreamCodec(out, in);
+        }
+        
+        // Кодек, пишущий в out; заголовок потока ObjectOutputStream (если есть) - в начале out
+        WireCodec encoder(ByteArrayOutputStream out) throws IOException {
+            return create(new ByteArrayInputStream(streamHeader()), out);
+        }
+        
+        // Конструктор ObjectStreamCodec читает заголовок потока собеседника
+        private byte[] streamHeader() throws IOException {
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            if (protocol.equals("object")) {
+                new ObjectOutputStream(header).flush();
+            }
+            return header.toByteArray();
+        }
+    }
+    
+    @State(Scope.Thread)
+    public static class RequestMessage {
+        final Object[] payload = {"ACC1700000000001", "ACC1700000000002", 150_000L};
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WireCodec encoder;
+        WireCodec decoder;
+        
+        @Setup(Level.Trial)
+        public void prepare(Protocol protocol) throws IOException {
+            encoder = protocol.encoder(out);
+            decoder = protocol.create(repeat(codec -> codec.writeRequest(1, BankOperation.TRANSFER, payload), protocol),
+                new ByteArrayOutputStream());
+            out.reset();
+        }
+    }
+    
+    @State(Scope.Thread)
+    public static class ResponseMessage {
+        @Param({"accounts", "page"})
+        public String response;
+        
+        BankResponse message;
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WireCodec encoder;
+        WireCodec decoder;
+        
+        @Setup(Level.Trial)
+        public void prepare(Protocol protocol) throws IOException {
+            message = response.equals("accounts") ? accountsResponse() : pageResponse();
+            encoder = protocol.encoder(out);
+            decoder = protocol.create(repeat(codec -> codec.writeResponse(1, message), protocol),
+                new ByteArrayOutputStream());
+            out.reset();
+        }
+    }
+    
+    private interface Write {
+        void to(WireCodec codec) throws IOException;
+    }
+    
+    // Поток: заголовок (как у кодека-источника), затем одно и то же сообщение без конца
+    private static InputStream repeat(Write write, Protocol protocol) throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        WireCodec codec = protocol.encoder(stream);
+        int headerLength = stream.size();
+        write.to(codec);
+        byte[] bytes = stream.toByteArray();
+        return new RepeatingInputStream(Arrays.copyOf(bytes, headerLength),
+            Arrays.copyOfRange(bytes, headerLength, bytes.length));
+    }
+    
+    private static BankResponse accountsResponse() {
+        List<Account> accounts = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            accounts.add(new Account("ACC170000000000" + i, "user0", 1_000_000L * i, i % 2 == 0 ? "RUB" : "USD"));
+        }
+        BankResponse response = new BankResponse(true, "Счета получены");
+        response.setAccounts(accounts);
+        response.setVersion(1_700_000_000_000_000L);
+        return response;
+    }
+    
+    private static BankResponse pageResponse() {
+        List<Transaction> transactions = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Transaction transaction = new Transaction();
+            transaction.setId("TXN" + (1_700_000_000_000_000L + i));
+            transaction.setAccountNumber("ACC1700000000001");
+            transaction.setType(i % 2 == 0 ? "TRANSFER_OUT" : "DEPOSIT");
+            transaction.setAmount(10_000L + i);
+            transaction.setCurrency("RUB");
+            transaction.setTimestamp("2024-01-01T12:00:" + (10 + i) + ".123456");
+            transaction.setDescription(i % 2 == 0 ? "Перевод на счет ACC1700000000002" : "Пополнение счета");
+            transactions.add(transaction);
+        }
+        BankResponse response = new BankResponse(true, "История получена");
+        response.setTransactions(transactions);
+        response.setHasMore(true);
+        return response;
+    }
+    
+    @Benchmark
+    public int encodeRequest(RequestMessage request) throws IOException {
+        request.out.reset();
+        request.encoder.writeRequest(1, BankOperation.TRANSFER, request.payload);
+        return request.out.size();
+    }
+    
+    @Benchmark
+    public WireRequest decodeRequest(RequestMessage request) throws IOException {
+        return request.decoder.readRequest();
+    }
+    
+    @Benchmark
+    public int encodeResponse(ResponseMessage response) throws IOException {
+        response.out.reset();
+        response.encoder.writeResponse(1, response.message);
+        return response.out.size();
+    }
+    
+    @Benchmark
+    public BankResponse decodeResponse(ResponseMessage response) throws IOException {
+        return response.decoder.readResponse();
+    }
+    
+    private static class RepeatingInputStream extends InputStream {
+        private final byte[] message;
+        private byte[] current;
+        private int position;
+        
+        RepeatingInputStream(byte[] header, byte[] message) {
+            this.message = message;
+            this.current = header.length > 0 ? header : message;
+        }
+        
+        @Override
+        public int read() {
+            byte[] one = new byte[1];
+            read(one, 0, 1);
+            return one[0] & 0xFF;
+        }
+        
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (position == current.length) {
+                current = message;
+                position = 0;
+            }
+            int count = Math.min(length, current.length - position);
+            System.arraycopy(current, position, buffer, offset, count);
+            position += count;
+            return count;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package benchmarks;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Сравнение двух файлов результатов JMH (JSON): для каждого бенчмарка с одинаковыми
+// параметрами - результат до и после, изменение в процентах и выделение памяти на
+// операцию (gc.alloc.rate.norm). Изменение помечается, если оно больше суммы
+// погрешностей обоих измерений.
+// Запуск: java -cp target/benchmarks.jar benchmarks.CompareResults старый.json новый.json
+public class CompareResults {
+    private static final String ALLOCATION = "gc.alloc.rate.norm";
+    
+    private static class Score {
+        final String mode;
+        final double value;
+        final double error;
+        final String unit;
+        final Double allocated;
+        
+        Score(String mode, double value, double error, String unit, Double allocated) {
+            this.mode = mode;
+            this.value = value;
+            this.error = error;
+            this.unit = unit;
+            this.allocated = allocated;
+        }
+    }
+    
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("Использование: CompareResults <базовый.json> <новый.json>");
+            return;
+        }
+        Map<String, Score> base = read(args[0]);
+        Map<String, Score> current = read(args[1]);
+        
+        System.out.printf("%-70s %14s %14s %9s %12s %12s  %s%n",
+            "Бенчмарк", "Было", "Стало", "Изм.", "Б/оп было", "Б/оп стало", "Ед.");
+        for (Map.Entry<String, Score> entry : new TreeMap<>(current).entrySet()) {
+            Score after = entry.getValue();
+            Score before = base.get(entry.getKey());
+            if (before == null) {
+                System.out.printf("%-70s %14s %14.3f %9s %12s %12s  %s%n", entry.getKey(), "-", after.value, "новый",
+                    "-", allocation(after), after.unit);
+                continue;
+            }
+            double change = (after.value - before.value) / before.value * 100;
+            System.out.printf("%-70s %14.3f %14.3f %+8.1f%% %12s %12s  %s%s%n", entry.getKey(), before.value, after.value,
+                change, allocation(before), allocation(after), after.unit, verdict(before, after));
+        }
+    }
+    
+    // Для пропускной способности (thrpt) больше - лучше, для времени - наоборот
+    private static String verdict(Score before, Score after) {
+        double difference = after.value - before.value;
+        if (Math.abs(difference) <= before.error + after.error) {
+            return "";
+        }
+        boolean better = after.mode.equals("thrpt") ? difference > 0 : difference < 0;
+        return better ? "  лучше" : "  ХУЖЕ";
+    }
+    
+    private static String allocation(Score score) {
+        return score.allocated != null ? String.format("%.1f", score.allocated) : "-";
+    }
+    
+    private static Map<String, Score> read(String file) throws IOException {
+        Map<String, Score> scores = new LinkedHashMap<>();
+        try (Reader reader = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            JsonArray results = JsonParser.parseReader(reader).getAsJsonArray();
+            for (JsonElement element : results) {
+                JsonObject result = element.getAsJsonObject();
+                JsonObject primary = result.getAsJsonObject("primaryMetric");
+                JsonObject secondary = result.getAsJsonObject("secondaryMetrics");
+                Double allocated = secondary != null && secondary.has(ALLOCATION)
+                    ? secondary.getAsJsonObject(ALLOCATION).get("score").getAsDouble() : null;
+                scores.put(key(result), new Score(result.get("mode").getAsString(),
+                    primary.get("score").getAsDouble(), errorOf(primary), primary.get("scoreUnit").getAsString(),
+                    allocated));
+            }
+        }
+        return scores;
+    }
+    
+    // Имя бенчмарка без пакета, параметры и число потоков
+    private static String key(JsonObject result) {
+        String name = result.get("benchmark").getAsString();
+        StringBuilder key = new StringBuilder(name.substring(name.indexOf('.') + 1));
+        JsonObject params = result.getAsJsonObject("params");
+        if (params != null) {
+            for (Map.Entry<String, JsonElement> param : params.entrySet()) {
+                key.append(' ').append(param.getKey()).append('=').append(param.getValue().getAsString());
+            }
+        }
+        return key.append(" t=").append(result.get("threads").getAsInt()).toString();
+    }
+    
+    // При одной итерации JMH записывает погрешность как NaN
+    private static double errorOf(JsonObject primary) {
+        JsonElement error = primary.get("scoreError");
+        try {
+            double value = error.getAsDouble();
+            return Double.isNaN(value) ? 0 : value;
+        } catch (NumberFormatException | UnsupportedOperationException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package benchmarks;
+
+import common.BankResponse;
+import org.openjdk.jmh.annotations.*;
+import server.BankService;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Страницы истории счета с size записями: последние записи и страницы от курсора
+// в случайном месте истории (поиск курсора двоичный, время не должно расти с size).
+// Полная история (getTransactions без страницы) не измеряется: на 10^7 записей она
+// упирается в размер кучи, а клиент запрашивает историю страницами.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HistoryBenchmark {
+    private static final int PAGE_SIZE = 20;
+    
+    @Param({"1000", "100000", "10000000"})
+    public long size;
+    
+    private BankService bank;
+    private String login;
+    private String account;
+    
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+        BenchmarkData.seed(1, 1, size);
+        bank = BenchmarkData.startService();
+        login = BenchmarkData.login(0);
+        account = BenchmarkData.account(0, 0);
+    }
+    
+    @TearDown(Level.Trial)
+    public void stop() throws IOException {
+        BenchmarkData.stopService(bank);
+    }
+    
+    @Benchmark
+    public BankResponse latestPage() {
+        return bank.getTransactions(login, account, PAGE_SIZE, null, null);
+    }
+    
+    @Benchmark
+    public BankResponse pageBeforeCursor() {
+        long cursor = ThreadLocalRandom.current().nextLong(PAGE_SIZE, size);
+        return bank.getTransactions(login, account, PAGE_SIZE, BenchmarkData.transactionId(cursor), null);
+    }
+    
+    @Benchmark
+    public BankResponse pageAfterCursor() {
+        long cursor = ThreadLocalRandom.current().nextLong(size - PAGE_SIZE);
+        return bank.getTransactions(login, account, PAGE_SIZE, null, BenchmarkData.transactionId(cursor));
+    }
+}
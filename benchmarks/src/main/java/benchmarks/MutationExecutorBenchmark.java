@@ -0,0 +1,53 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import server.LedgerRing;
+import server.MutationExecutor;
+import server.ShardExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Передача команды в поток, изменяющий данные, и ожидание результата без самой
+// операции (без журнала): очередь шарда (ShardExecutor) против кольцевого буфера
+// команд (LedgerRing). Команда - инкремент счетчика, принадлежащего потоку исполнителя.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MutationExecutorBenchmark {
+    
+    @Param({"shards", "ring"})
+    public String engine;
+    
+    private MutationExecutor executor;
+    private long counter;
+    
+    @Setup(Level.Trial)
+    public void start() {
+        executor = "ring".equals(engine)
+            ? new LedgerRing(4096, "Benchmark-ledger")
+            : new ShardExecutor(1, "Benchmark-shard");
+    }
+    
+    @TearDown(Level.Trial)
+    public void stop() {
+        executor.shutdown();
+    }
+    
+    private Long increment() {
+        return ++counter;
+    }
+    
+    @Benchmark
+    @Threads(1)
+    public Long callSingleThread() {
+        return executor.call(0, this::increment);
+    }
+    
+    @Benchmark
+    @Threads(4)
+    public Long callFourThreads() {
+        return executor.call(0, this::increment);
+    }
+}
@@ -0,0 +1,91 @@
+package benchmarks;
+
+import common.BankResponse;
+import org.openjdk.jmh.annotations.*;
+import server.BankService;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Переводы и пополнения через BankService, включая запись в журнал и его сброс на
+// диск (group commit). Однопоточный вариант показывает задержку одной операции,
+// многопоточные - пропускную способность при конкуренции за одни и те же счета
+// (contended) и на непересекающихся парах счетов (disjoint).
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TransferBenchmark {
+    private static final int USERS = 1024;
+    private static final int CONTENDED_ACCOUNTS = 8;
+    
+    @State(Scope.Benchmark)
+    public static class Service {
+        BankService bank;
+        final AtomicInteger nextPair = new AtomicInteger();
+        
+        @Setup(Level.Trial)
+        public void start() throws IOException {
+            BenchmarkData.seed(USERS, 2, 0);
+            bank = BenchmarkData.startService();
+        }
+        
+        @TearDown(Level.Trial)
+        public void stop() throws IOException {
+            BenchmarkData.stopService(bank);
+        }
+    }
+    
+    // Собственный пользователь потока: переводы между двумя его счетами
+    @State(Scope.Thread)
+    public static class OwnAccounts {
+        String login;
+        String from;
+        String to;
+        
+        @Setup(Level.Trial)
+        public void assign(Service service) {
+            int user = service.nextPair.getAndIncrement() % USERS;
+            login = BenchmarkData.login(user);
+            from = BenchmarkData.account(user, 0);
+            to = BenchmarkData.account(user, 1);
+        }
+    }
+    
+    @Benchmark
+    @Threads(1)
+    public BankResponse transferSingleThread(Service service, OwnAccounts accounts) {
+        return service.bank.transfer(accounts.login, accounts.from, accounts.to, 1);
+    }
+    
+    @Benchmark
+    @Threads(8)
+    public BankResponse transferDisjoint(Service service, OwnAccounts accounts) {
+        return service.bank.transfer(accounts.login, accounts.from, accounts.to, 1);
+    }
+    
+    // Все потоки переводят между первыми CONTENDED_ACCOUNTS пользователями
+    @Benchmark
+    @Threads(8)
+    public BankResponse transferContended(Service service) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int from = random.nextInt(CONTENDED_ACCOUNTS);
+        int to = random.nextInt(CONTENDED_ACCOUNTS);
+        return service.bank.transfer(BenchmarkData.login(from), BenchmarkData.account(from, 0),
+            BenchmarkData.account(to, 0), 1);
+    }
+    
+    @Benchmark
+    @Threads(1)
+    public BankResponse depositSingleThread(Service service, OwnAccounts accounts) {
+        return service.bank.deposit(accounts.login, accounts.from, 1);
+    }
+    
+    @Benchmark
+    @Threads(8)
+    public BankResponse depositDisjoint(Service service, OwnAccounts accounts) {
+        return service.bank.deposit(accounts.login, accounts.from, 1);
+    }
+}
@@ -6,49 +6,218 @@ import utils.Logger;
 import java.io.*;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+// Сетевой клиент. Запросы отправляются конвейером: по одному соединению может идти
+// много запросов одновременно, ответы читает отдельный поток и сопоставляет их
+// с запросами по идентификатору. Синхронные методы - обертки над асинхронными
+// с таймаутом и повторными попытками.
+//
+// С репликами (-Dbank.replicas) чтения (баланс, счета, история) идут на реплику, если она
+// уже применила изменения этого клиента (номер записи журнала в ответе не меньше номера
+// последнего изменения) и отстает не больше REPLICA_MAX_LAG; иначе - на основной сервер.
 public class BankClient {
-    private Socket socket;
-    private ObjectOutputStream output;
-    private ObjectInputStream input;
     private Logger logger;
     private String currentUser;
+    // Токен сеанса из ответа на LOGIN: новое соединение привязывается к сеансу операцией
+    // RESUME, поэтому после переподключения вход с паролем не нужен
+    private volatile String sessionToken;
     private String host;
     private int port;
-    private boolean connected;
+    private volatile Connection connection;
+    private final AtomicInteger nextRequestId = new AtomicInteger();
+    // Ключи идемпотентности изменяющих запросов: случайная часть на клиента и счетчик,
+    // без обращения к SecureRandom на каждый запрос
+    private final long idempotencyPrefix = new SecureRandom().nextLong();
+    private final AtomicLong nextIdempotencyKey = new AtomicLong();
+    // Ограничение числа запросов без ответа (общее для всех соединений клиента)
+    private final Semaphore inFlight = new Semaphore(Config.MAX_IN_FLIGHT_REQUESTS);
+    // Последний полученный список счетов и его версия на сервере. Сбрасывается при
+    // изменениях через этот клиент; изменения из других сеансов видны по версии.
+    private final Object cacheLock = new Object();
+    private List<Account> cachedAccounts;
+    private Long cachedVersion;
+    private long cachedAt;
+    private long cacheGeneration;
+    // Реплика для чтения: соединение, адрес и токен ее сеанса (у реплики свои сеансы)
+    private final List<String> replicaAddresses = new ArrayList<>();
+    private final Object replicaLock = new Object();
+    private volatile Connection replica;
+    private volatile String replicaAddress;
+    private volatile String replicaToken;
+    private volatile long replicaRetryAt;
+    // Номер записи журнала основного сервера после последнего изменения через этот клиент
+    private final AtomicLong lastWriteSeq = new AtomicLong();
     
     public BankClient(String host, int port) throws IOException {
         this.host = host;
         this.port = port;
         this.logger = new Logger("BankClient", Config.CLIENT_LOG_FILE);
+        for (String address : Config.REPLICA_ADDRESSES.split(",")) {
+            if (!address.trim().isEmpty()) {
+                replicaAddresses.add(address.trim());
+            }
+        }
         connect();
     }
     
-    private void connect() throws IOException {
-        try {
+    // Одно TCP-соединение с сервером и ожидающие ответа запросы
+    private class Connection {
+        private final Socket socket;
+        private final WireCodec codec;
+        private final Object writeLock = new Object();
+        private final Map<Integer, CompletableFuture<BankResponse>> pending = new ConcurrentHashMap<>();
+        private volatile boolean open = true;
+        
+        Connection(String host, int port) throws IOException {
             socket = new Socket(host, port);
-            socket.setSoTimeout(Config.OPERATION_TIMEOUT);
-            output = new ObjectOutputStream(socket.getOutputStream());
-            input = new ObjectInputStream(socket.getInputStream());
-            connected = true;
-            logger.info("Подключение к серверу установлено");
-        } catch (IOException e) {
-            connected = false;
-            throw e;
+            try {
+                socket.setSoTimeout(Config.OPERATION_TIMEOUT);
+                if (Config.WIRE_PROTOCOL.equals("binary")) {
+                    BinaryCodec.clientHandshake(socket.getInputStream(), socket.getOutputStream());
+                    codec = new BinaryCodec(socket.getInputStream(), socket.getOutputStream());
+                } else {
+                    codec = new ObjectStreamCodec(socket.getOutputStream(), socket.getInputStream());
+                }
+                // Таймауты операций отслеживаются по ожидающим запросам, а не чтением сокета
+                socket.setSoTimeout(0);
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+            Thread reader = new Thread(this::readResponses, "BankClient-reader");
+            reader.setDaemon(true);
+            reader.start();
         }
-    }
-    
-    private boolean ensureConnected() {
-        if (!connected || socket == null || socket.isClosed()) {
+        
+        CompletableFuture<BankResponse> send(BankOperation operation, Object data, UUID idempotencyKey) {
+            CompletableFuture<BankResponse> future = new CompletableFuture<>();
+            inFlight.acquireUninterruptibly();
+            future.whenComplete((response, error) -> inFlight.release());
+            if (operation.isMutating()) {
+                future.whenComplete((response, error) -> {
+                    invalidateAccounts();
+                    if (response != null && response.getJournalSeq() != null) {
+                        lastWriteSeq.accumulateAndGet(response.getJournalSeq(), Math::max);
+                    }
+                });
+            }
+            
+            int requestId = nextRequestId.incrementAndGet();
+            pending.put(requestId, future);
+            if (!open) {
+                pending.remove(requestId);
+                future.completeExceptionally(new IOException("Соединение закрыто"));
+                return future;
+            }
             try {
-                connect();
-                return true;
+                synchronized (writeLock) {
+                    codec.writeRequest(requestId, operation, data, idempotencyKey);
+                }
             } catch (IOException e) {
-                logger.error("Не удалось переподключиться: " + e.getMessage());
-                return false;
+                close(e);
+            }
+            return future;
+        }
+        
+        private void readResponses() {
+            try {
+                while (open) {
+                    BankResponse response = codec.readResponse();
+                    CompletableFuture<BankResponse> future = pending.remove(response.getRequestId());
+                    if (future != null) {
+                        future.complete(response);
+                    }
+                }
+            } catch (EOFException e) {
+                // Сервер закрыл соединение (после LOGOUT или при остановке): ошибка, только если ждали ответов
+                if (open && !pending.isEmpty()) {
+                    logger.error("Соединение закрыто сервером, ответы не получены: " + pending.size());
+                } else if (open) {
+                    logger.info("Соединение закрыто сервером");
+                }
+                close(e);
+            } catch (IOException e) {
+                if (open) {
+                    logger.error("Ошибка чтения ответа: " + e.getMessage());
+                }
+                close(e);
+            }
+        }
+        
+        // Закрывает соединение; все запросы без ответа завершаются ошибкой
+        void close(IOException cause) {
+            open = false;
+            try {
+                socket.close();
+            } catch (IOException e) {
+                logger.error("Ошибка отключения: " + e.getMessage());
+            }
+            for (Integer requestId : pending.keySet()) {
+                CompletableFuture<BankResponse> future = pending.remove(requestId);
+                if (future != null) {
+                    future.completeExceptionally(cause);
+                }
+            }
+        }
+        
+        boolean isOpen() {
+            return open && !socket.isClosed();
+        }
+    }
+    
+    private synchronized Connection connect() throws IOException {
+        Connection current = connection;
+        if (current != null && current.isOpen()) {
+            return current;
+        }
+        current = new Connection(host, port);
+        connection = current;
+        logger.info("Подключение к серверу установлено (протокол: " + Config.WIRE_PROTOCOL + ")");
+        String token = sessionToken;
+        if (token != null) {
+            resumeSession(current, token);
+        }
+        return current;
+    }
+    
+    // Сервер выполняет запросы одного соединения по порядку, поэтому ответа на RESUME
+    // можно не ждать: запросы, отправленные следом, выполнятся уже в восстановленном сеансе
+    private void resumeSession(Connection current, String token) {
+        current.send(BankOperation.RESUME, token, null).whenComplete((response, error) -> {
+            if (response == null) {
+                return; // соединение разорвано - RESUME повторится при следующем подключении
+            }
+            if (response.isSuccess()) {
+                logger.info("Сеанс восстановлен после переподключения");
+            } else {
+                logger.warn("Сеанс не восстановлен: " + response.getMessage());
+                clearSessionToken(token);
             }
+        });
+    }
+    
+    private synchronized void clearSessionToken(String token) {
+        if (token.equals(sessionToken)) {
+            sessionToken = null;
+        }
+    }
+    
+    private boolean ensureConnected() {
+        try {
+            connect();
+            return true;
+        } catch (IOException e) {
+            logger.error("Не удалось переподключиться: " + e.getMessage());
+            return false;
         }
-        return true;
     }
     
     public BankResponse register(String login, String password) {
@@ -56,10 +225,13 @@ public class BankClient {
     }
     
     public BankResponse login(String login, String password) {
+        clearAccountsCache();
         BankResponse response = executeOperation(BankOperation.LOGIN, new User(login, password), false);
         if (response.isSuccess()) {
             currentUser = login;
+            sessionToken = response.getSessionToken();
             logger.info("Успешный вход пользователя: " + login);
+            loginToReplica(login, password);
         } else {
             logger.warn("Неудачный вход пользователя: " + login);
         }
@@ -75,22 +247,22 @@ public class BankClient {
     }
     
     public BankResponse getBalance(String accountNumber) {
-        return executeOperation(BankOperation.GET_BALANCE, accountNumber, true);
+        return executeRead(BankOperation.GET_BALANCE, accountNumber);
     }
     
-    public BankResponse deposit(String accountNumber, double amount) {
+    public BankResponse deposit(String accountNumber, long amount) {
         return executeOperation(BankOperation.DEPOSIT, new Object[]{accountNumber, amount}, true);
     }
     
-    public BankResponse withdraw(String accountNumber, double amount) {
+    public BankResponse withdraw(String accountNumber, long amount) {
         return executeOperation(BankOperation.WITHDRAW, new Object[]{accountNumber, amount}, true);
     }
     
-    public BankResponse transfer(String fromAccount, String toAccount, double amount) {
+    public BankResponse transfer(String fromAccount, String toAccount, long amount) {
         return executeOperation(BankOperation.TRANSFER, new Object[]{fromAccount, toAccount, amount}, true);
     }
     
-    public BankResponse transfer(String fromAccount, String toAccount, double amount, 
+    public BankResponse transfer(String fromAccount, String toAccount, long amount, 
                                  String fromCurrency, String toCurrency) {
         return executeOperation(BankOperation.TRANSFER, 
             new Object[]{fromAccount, toAccount, amount, fromCurrency, toCurrency}, true);
@@ -99,62 +271,342 @@ public class BankClient {
     public BankResponse getAccountInfo(String accountNumber) {
         // Получаем информацию о счете (для определения валюты)
         // Используем getBalance, но нам нужна валюта, поэтому получаем все счета
-        return executeOperation(BankOperation.GET_ACCOUNTS, null, true);
+        return getAccounts();
     }
     
+    // Счета с балансами. В течение ACCOUNTS_CACHE_TTL после получения список отдается из
+    // кэша без обращения к серверу, затем сервер спрашивается с известной версией и
+    // передает список заново, только если счета изменились.
     public BankResponse getAccounts() {
-        return executeOperation(BankOperation.GET_ACCOUNTS, null, true);
+        Long knownVersion;
+        long generation;
+        synchronized (cacheLock) {
+            if (cachedAccounts != null && System.currentTimeMillis() - cachedAt < Config.ACCOUNTS_CACHE_TTL) {
+                return cachedAccountsResponse();
+            }
+            knownVersion = cachedAccounts != null ? cachedVersion : null;
+            generation = cacheGeneration;
+        }
+        
+        // Запрос выполняется без блокировки кэша: поток чтения ответов сбрасывает кэш.
+        // Версии счетов у реплики свои, поэтому с реплики список запрашивается целиком
+        // и ее версия не запоминается.
+        BankResponse response = readFromReplica(BankOperation.GET_ACCOUNTS, null);
+        boolean fromReplica = response != null;
+        if (!fromReplica) {
+            response = executeOperation(BankOperation.GET_ACCOUNTS, knownVersion, true);
+        }
+        if (!response.isSuccess()) {
+            return response;
+        }
+        synchronized (cacheLock) {
+            // Если за время запроса завершилась мутация, ответ мог ее не учесть
+            long fetchedAt = generation == cacheGeneration ? System.currentTimeMillis() : 0;
+            if (response.isNotModified() && cachedAccounts != null) {
+                cachedAt = fetchedAt;
+                return cachedAccountsResponse();
+            }
+            if (response.getAccounts() != null && (fromReplica || response.getVersion() != null)) {
+                cachedAccounts = copyAccounts(response.getAccounts());
+                cachedVersion = fromReplica ? null : response.getVersion();
+                cachedAt = fetchedAt;
+            }
+        }
+        return response;
+    }
+    
+    // Копии счетов из кэша: вызывающий код может изменять полученные объекты
+    private BankResponse cachedAccountsResponse() {
+        BankResponse response = new BankResponse(true, "Счета получены");
+        response.setAccounts(copyAccounts(cachedAccounts));
+        response.setVersion(cachedVersion);
+        return response;
+    }
+    
+    private static List<Account> copyAccounts(List<Account> accounts) {
+        List<Account> copy = new ArrayList<>(accounts.size());
+        for (Account account : accounts) {
+            copy.add(new Account(account.getAccountNumber(), account.getOwner(), 
+                account.getBalance(), account.getCurrency()));
+        }
+        return copy;
+    }
+    
+    // Следующий getAccounts обратится к серверу (версия сохраняется для условного запроса)
+    private void invalidateAccounts() {
+        synchronized (cacheLock) {
+            cachedAt = 0;
+            cacheGeneration++;
+        }
+    }
+    
+    private void clearAccountsCache() {
+        synchronized (cacheLock) {
+            cachedAccounts = null;
+            cachedVersion = null;
+            cachedAt = 0;
+            cacheGeneration++;
+        }
     }
     
     public BankResponse getTransactions(String accountNumber) {
-        return executeOperation(BankOperation.GET_TRANSACTIONS, accountNumber, true);
+        return executeRead(BankOperation.GET_TRANSACTIONS, accountNumber);
+    }
+    
+    // Страница истории от новых к старым: limit записей старше beforeId (null - самые последние)
+    public BankResponse getTransactions(String accountNumber, int limit, String beforeId) {
+        return executeRead(BankOperation.GET_TRANSACTIONS, new Object[]{accountNumber, limit, beforeId, null});
+    }
+    
+    // Страница истории: limit записей новее afterId
+    public BankResponse getTransactionsAfter(String accountNumber, int limit, String afterId) {
+        return executeRead(BankOperation.GET_TRANSACTIONS, new Object[]{accountNumber, limit, null, afterId});
+    }
+    
+    // Пакет операций за один запрос; результаты по операциям - в getResults()
+    public BankResponse executeBatch(BatchRequest batch) {
+        return executeOperation(BankOperation.BATCH, batch, true);
+    }
+    
+    // Метрики сервера в JSON (getStats() ответа); доступно только администраторам
+    public BankResponse getStats() {
+        return executeOperation(BankOperation.STATS, null, true);
+    }
+    
+    // Перевод реплики, к которой подключен клиент, в основной сервер (только администраторы)
+    public BankResponse promote() {
+        return executeOperation(BankOperation.PROMOTE, null, true);
     }
     
     public BankResponse logout() {
         BankResponse response = executeOperation(BankOperation.LOGOUT, null, true);
+        sessionToken = null;
+        closeReplica(true);
         if (currentUser != null) {
             logger.info("Пользователь " + currentUser + " вышел из системы");
             currentUser = null;
         }
+        clearAccountsCache();
         disconnect();
         return response;
     }
     
+    // --- Чтение с реплик ---
+    
+    // Вход на первую доступную реплику с теми же учетными данными (пароль не сохраняется:
+    // при переподключении к реплике используется токен ее сеанса)
+    private void loginToReplica(String login, String password) {
+        closeReplica(true);
+        for (String address : replicaAddresses) {
+            int separator = address.lastIndexOf(':');
+            try {
+                Connection current = new Connection(address.substring(0, separator),
+                    Integer.parseInt(address.substring(separator + 1)));
+                BankResponse response = current.send(BankOperation.LOGIN, new User(login, password), null)
+                        .get(Config.OPERATION_TIMEOUT, TimeUnit.MILLISECONDS);
+                if (response.isSuccess()) {
+                    synchronized (replicaLock) {
+                        replica = current;
+                        replicaAddress = address;
+                        replicaToken = response.getSessionToken();
+                    }
+                    logger.info("Чтение через реплику " + address);
+                    return;
+                }
+                current.close(new IOException("Вход на реплику не выполнен"));
+                logger.warn("Вход на реплику " + address + " не выполнен: " + response.getMessage());
+            } catch (IOException | RuntimeException | ExecutionException | TimeoutException e) {
+                logger.warn("Реплика " + address + " недоступна: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+    
+    // Соединение с репликой; после разрыва - переподключение с токеном ее сеанса не чаще
+    // раза в REPLICATION_RETRY_INTERVAL. null - читать с основного сервера.
+    private Connection replicaConnection() {
+        Connection current = replica;
+        if (current != null && current.isOpen()) {
+            return current;
+        }
+        if (replicaToken == null || System.currentTimeMillis() < replicaRetryAt) {
+            return null;
+        }
+        synchronized (replicaLock) {
+            String token = replicaToken;
+            String address = replicaAddress;
+            current = replica;
+            if (current != null && current.isOpen()) {
+                return current;
+            }
+            if (token == null || address == null) {
+                return null;
+            }
+            int separator = address.lastIndexOf(':');
+            try {
+                current = new Connection(address.substring(0, separator),
+                    Integer.parseInt(address.substring(separator + 1)));
+                BankResponse response = current.send(BankOperation.RESUME, token, null)
+                        .get(Config.OPERATION_TIMEOUT, TimeUnit.MILLISECONDS);
+                if (!response.isSuccess()) {
+                    logger.warn("Сеанс на реплике " + address + " не восстановлен: " + response.getMessage());
+                    current.close(new IOException("Сеанс на реплике не восстановлен"));
+                    replicaToken = null;
+                    return null;
+                }
+                replica = current;
+                return current;
+            } catch (IOException | RuntimeException | ExecutionException | TimeoutException e) {
+                if (current != null) {
+                    current.close(new IOException("Реплика недоступна"));
+                }
+                replicaRetryAt = System.currentTimeMillis() + Config.REPLICATION_RETRY_INTERVAL;
+                logger.warn("Реплика " + address + " недоступна: " + e.getMessage());
+                return null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+    }
+    
+    private void closeReplica(boolean forgetSession) {
+        synchronized (replicaLock) {
+            Connection current = replica;
+            replica = null;
+            if (forgetSession) {
+                replicaToken = null;
+                replicaAddress = null;
+            }
+            if (current != null && current.isOpen()) {
+                if (forgetSession) {
+                    current.send(BankOperation.LOGOUT, null, null);
+                }
+                current.close(new IOException("Соединение закрыто клиентом"));
+            }
+        }
+    }
+    
+    // Чтение с реплики, если ответ не старее изменений этого клиента, иначе с основного сервера
+    private BankResponse executeRead(BankOperation operation, Object data) {
+        BankResponse response = readFromReplica(operation, data);
+        return response != null ? response : executeOperation(operation, data, true);
+    }
+    
+    // Ответ реплики или null, если реплики нет, она недоступна, отстает или ответила ошибкой
+    // (например, счет создан на основном сервере, но еще не дошел до реплики)
+    private BankResponse readFromReplica(BankOperation operation, Object data) {
+        Connection current = replicaConnection();
+        if (current == null) {
+            return null;
+        }
+        try {
+            BankResponse response = current.send(operation, data, null)
+                    .get(Config.OPERATION_TIMEOUT, TimeUnit.MILLISECONDS);
+            Long seq = response.getJournalSeq();
+            Long lag = response.getReplicationLagMs();
+            if (!response.isSuccess() || seq == null || seq < lastWriteSeq.get()
+                    || lag == null || lag > Config.REPLICA_MAX_LAG) {
+                return null;
+            }
+            return response;
+        } catch (TimeoutException e) {
+            logger.warn("Таймаут чтения с реплики " + replicaAddress);
+            current.close(new SocketTimeoutException("Таймаут операции " + operation));
+            return null;
+        } catch (ExecutionException e) {
+            logger.warn("Ошибка чтения с реплики: " + e.getCause().getMessage());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+    
+    // --- Асинхронный API: запросы не ждут ответов на предыдущие ---
+    
+    public CompletableFuture<BankResponse> getBalanceAsync(String accountNumber) {
+        return executeAsync(BankOperation.GET_BALANCE, accountNumber);
+    }
+    
+    public CompletableFuture<BankResponse> depositAsync(String accountNumber, long amount) {
+        return executeAsync(BankOperation.DEPOSIT, new Object[]{accountNumber, amount});
+    }
+    
+    public CompletableFuture<BankResponse> withdrawAsync(String accountNumber, long amount) {
+        return executeAsync(BankOperation.WITHDRAW, new Object[]{accountNumber, amount});
+    }
+    
+    public CompletableFuture<BankResponse> transferAsync(String fromAccount, String toAccount, long amount) {
+        return executeAsync(BankOperation.TRANSFER, new Object[]{fromAccount, toAccount, amount});
+    }
+    
+    public CompletableFuture<BankResponse> getAccountsAsync() {
+        return executeAsync(BankOperation.GET_ACCOUNTS, null);
+    }
+    
+    public CompletableFuture<BankResponse> getTransactionsAsync(String accountNumber, int limit, String beforeId) {
+        return executeAsync(BankOperation.GET_TRANSACTIONS, new Object[]{accountNumber, limit, beforeId, null});
+    }
+    
+    public CompletableFuture<BankResponse> executeBatchAsync(BatchRequest batch) {
+        return executeAsync(BankOperation.BATCH, batch);
+    }
+    
+    // Отправляет запрос без ожидания ответа. Future завершается ответом сервера или
+    // IOException при разрыве соединения; повторных попыток не делается.
+    public CompletableFuture<BankResponse> executeAsync(BankOperation operation, Object data) {
+        try {
+            return connect().send(operation, data, newIdempotencyKey(operation));
+        } catch (IOException e) {
+            CompletableFuture<BankResponse> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+    
+    private UUID newIdempotencyKey(BankOperation operation) {
+        return operation.isMutating() ? new UUID(idempotencyPrefix, nextIdempotencyKey.incrementAndGet()) : null;
+    }
+    
     private BankResponse executeOperation(BankOperation operation, Object data, boolean requiresAuth) {
         if (requiresAuth && !ensureConnected()) {
             return new BankResponse(false, "Нет соединения с сервером");
         }
         
+        // Повторные отправки после таймаута или разрыва идут с тем же ключом,
+        // поэтому сервер не выполнит изменение дважды
+        UUID idempotencyKey = newIdempotencyKey(operation);
         int retries = 2;
         while (retries >= 0) {
+            Connection current;
             try {
-                if (!ensureConnected()) {
-                    return new BankResponse(false, "Не удалось подключиться к серверу");
-                }
-                
-                output.writeObject(operation);
-                if (data != null) {
-                    output.writeObject(data);
-                }
-                output.flush();
-                
-                BankResponse response = (BankResponse) input.readObject();
-                String userInfo = currentUser != null ? " (пользователь: " + currentUser + ")" : "";
-                logger.info("Операция " + operation + userInfo + ": " + response.getMessage());
+                current = connect();
+            } catch (IOException e) {
+                logger.error("Не удалось переподключиться: " + e.getMessage());
+                return new BankResponse(false, "Не удалось подключиться к серверу");
+            }
+            
+            try {
+                BankResponse response = current.send(operation, data, idempotencyKey)
+                        .get(Config.OPERATION_TIMEOUT, TimeUnit.MILLISECONDS);
+                logger.info(() -> "Операция " + operation 
+                    + (currentUser != null ? " (пользователь: " + currentUser + ")" : "") + ": " + response.getMessage());
                 return response;
-                
-            } catch (SocketTimeoutException e) {
+            
+            } catch (TimeoutException e) {
                 logger.warn("Таймаут операции " + operation);
+                current.close(new SocketTimeoutException("Таймаут операции " + operation));
                 if (retries > 0) {
-                    connected = false;
                     retries--;
                     continue;
                 }
                 return new BankResponse(false, "Таймаут операции. Попробуйте позже");
-                
-            } catch (IOException | ClassNotFoundException e) {
-                logger.error("Ошибка операции " + operation + ": " + e.getMessage());
-                connected = false;
+            
+            } catch (ExecutionException e) {
+                logger.error("Ошибка операции " + operation + ": " + e.getCause().getMessage());
                 
                 if (retries > 0) {
                     try {
@@ -166,7 +618,11 @@ public class BankClient {
                     continue;
                 }
                 
-                return new BankResponse(false, "Ошибка соединения: " + e.getMessage());
+                return new BankResponse(false, "Ошибка соединения: " + e.getCause().getMessage());
+            
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return new BankResponse(false, "Операция прервана");
             }
         }
         
@@ -174,18 +630,15 @@ public class BankClient {
     }
     
     private void disconnect() {
-        try {
-            if (socket != null && !socket.isClosed()) {
-                socket.close();
-            }
-            connected = false;
+        Connection current = connection;
+        if (current != null && current.isOpen()) {
+            current.close(new IOException("Соединение закрыто клиентом"));
             logger.info("Отключение от сервера");
-        } catch (IOException e) {
-            logger.error("Ошибка отключения: " + e.getMessage());
         }
     }
     
     public boolean isConnected() {
-        return connected && socket != null && !socket.isClosed();
+        Connection current = connection;
+        return current != null && current.isOpen();
     }
 }
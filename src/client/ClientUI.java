@@ -2,10 +2,12 @@ package client;
 
 import common.Account;
 import common.BankResponse;
+import common.Money;
 import common.Transaction;
 import utils.Config;
 import utils.CurrencyConverter;
 import java.io.InputStream;
+import java.math.BigDecimal;
 import java.nio.charset.StandardCharsets;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
@@ -163,11 +165,12 @@ public class ClientUI {
     }
     
     private void createAccount() {
-        System.out.print("Введите валюту (RUB/USD/EUR): ");
+        System.out.print("Введите код валюты (например, RUB/USD/EUR): ");
         String currency = scanner.nextLine().trim().toUpperCase();
         
+        // Список валют определяет сервер (файл курсов), здесь проверяется только формат кода
         if (!isValidCurrency(currency)) {
-            System.out.println("Ошибка: Неверная валюта. Допустимые значения: RUB, USD, EUR");
+            System.out.println("Ошибка: Код валюты - три латинские буквы");
             return;
         }
         
@@ -209,15 +212,11 @@ public class ClientUI {
             } else {
                 System.out.println("\nВаши счета:");
                 System.out.println("─".repeat(60));
+                // Балансы приходят вместе со списком счетов
                 for (Account account : accounts) {
-                    BankResponse balanceResponse = client.getBalance(account.getAccountNumber());
-                    if (balanceResponse.isSuccess() && balanceResponse.getBalance() != null) {
-                        System.out.println("Счет: " + account.getAccountNumber() + 
-                                         " | Баланс: " + formatBalance(balanceResponse.getBalance(), account.getCurrency()) + 
-                                         " | Валюта: " + account.getCurrency());
-                    } else {
-                        System.out.println(formatAccount(account));
-                    }
+                    System.out.println("Счет: " + account.getAccountNumber() + 
+                                     " | Баланс: " + formatBalance(account.getBalance(), account.getCurrency()) + 
+                                     " | Валюта: " + account.getCurrency());
                 }
                 System.out.println("─".repeat(60));
             }
@@ -232,14 +231,10 @@ public class ClientUI {
             return;
         }
         
-        BankResponse response = client.getBalance(account.getAccountNumber());
-        if (response.isSuccess() && response.getBalance() != null) {
-            System.out.println("\nСчет: " + account.getAccountNumber() + 
-                             " | Баланс: " + formatBalance(response.getBalance(), account.getCurrency()) + 
-                             " | Валюта: " + account.getCurrency());
-        } else {
-            System.out.println(response.getMessage());
-        }
+        // selectAccount уже вернул актуальный баланс
+        System.out.println("\nСчет: " + account.getAccountNumber() + 
+                         " | Баланс: " + formatBalance(account.getBalance(), account.getCurrency()) + 
+                         " | Валюта: " + account.getCurrency());
     }
     
     private void deposit() {
@@ -250,7 +245,7 @@ public class ClientUI {
         
         System.out.println("\nТекущий баланс: " + formatBalance(account.getBalance(), account.getCurrency()));
         
-        double amount = readAmount("Введите сумму для пополнения");
+        long amount = readAmount("Введите сумму для пополнения", account.getCurrency());
         if (amount <= 0) {
             return;
         }
@@ -275,7 +270,7 @@ public class ClientUI {
         
         System.out.println("\nТекущий баланс: " + formatBalance(account.getBalance(), account.getCurrency()));
         
-        double amount = readAmount("Введите сумму для снятия");
+        long amount = readAmount("Введите сумму для снятия", account.getCurrency());
         if (amount <= 0) {
             return;
         }
@@ -303,11 +298,6 @@ public class ClientUI {
             return;
         }
         
-        BankResponse balanceResponse = client.getBalance(fromAccount.getAccountNumber());
-        if (balanceResponse.isSuccess() && balanceResponse.getBalance() != null) {
-            fromAccount.setBalance(balanceResponse.getBalance());
-        }
-        
         System.out.println("\nТекущий баланс: " + formatBalance(fromAccount.getBalance(), fromAccount.getCurrency()));
         
         System.out.print("Введите номер счета получателя: ");
@@ -326,7 +316,7 @@ public class ClientUI {
             toAccountCurrency = "UNKNOWN";
         }
         
-        double amount = readAmount("Введите сумму перевода");
+        long amount = readAmount("Введите сумму перевода", fromAccount.getCurrency());
         if (amount <= 0) {
             return;
         }
@@ -337,9 +327,11 @@ public class ClientUI {
         }
         
         boolean needsConversion = false;
-        double convertedAmount = amount;
+        long convertedAmount = amount;
         
-        if (!toAccountCurrency.equals("UNKNOWN") && !fromAccount.getCurrency().equals(toAccountCurrency)) {
+        if (!toAccountCurrency.equals("UNKNOWN") && !fromAccount.getCurrency().equals(toAccountCurrency)
+                && CurrencyConverter.isCurrencySupported(fromAccount.getCurrency())
+                && CurrencyConverter.isCurrencySupported(toAccountCurrency)) {
             needsConversion = true;
             convertedAmount = CurrencyConverter.convert(amount, fromAccount.getCurrency(), toAccountCurrency);
             
@@ -348,7 +340,8 @@ public class ClientUI {
                 fromAccount.getCurrency(), toAccountCurrency));
             System.out.println("Сумма к списанию: " + formatBalance(amount, fromAccount.getCurrency()));
             System.out.println("Сумма к зачислению: " + formatBalance(convertedAmount, toAccountCurrency));
-        } else if (toAccountCurrency.equals("UNKNOWN")) {
+        } else if (!fromAccount.getCurrency().equals(toAccountCurrency)) {
+            // Получатель неизвестен или курса нет на клиенте - сумму рассчитает сервер
             System.out.println("\n⚠️  ВНИМАНИЕ: Если валюты счетов различаются, будет выполнена конвертация.");
         }
         
@@ -408,21 +401,38 @@ public class ClientUI {
             return;
         }
         
-        BankResponse response = client.getTransactions(account.getAccountNumber());
-        if (response.isSuccess() && response.getTransactions() != null) {
+        String beforeId = null;
+        while (true) {
+            BankResponse response = client.getTransactions(account.getAccountNumber(), 
+                Config.HISTORY_PAGE_SIZE, beforeId);
+            if (!response.isSuccess() || response.getTransactions() == null) {
+                System.out.println(response.getMessage());
+                return;
+            }
+            
             List<Transaction> transactions = response.getTransactions();
             if (transactions.isEmpty()) {
                 System.out.println("\nИстория транзакций пуста");
-            } else {
+                return;
+            }
+            
+            if (beforeId == null) {
                 System.out.println("\nИстория транзакций для счета " + account.getAccountNumber() + ":");
-                System.out.println("─".repeat(80));
-                for (Transaction transaction : transactions) {
-                    System.out.println(transaction);
-                }
-                System.out.println("─".repeat(80));
             }
-        } else {
-            System.out.println(response.getMessage());
+            System.out.println("─".repeat(80));
+            for (Transaction transaction : transactions) {
+                System.out.println(transaction);
+            }
+            System.out.println("─".repeat(80));
+            
+            if (!response.hasMore()) {
+                return;
+            }
+            System.out.print("Показать более ранние операции? (да/нет): ");
+            if (!isConfirmationPositive(scanner.nextLine().trim().toLowerCase())) {
+                return;
+            }
+            beforeId = transactions.get(transactions.size() - 1).getId();
         }
     }
     
@@ -438,14 +448,9 @@ public class ClientUI {
         System.out.println("─".repeat(60));
         for (int i = 0; i < accounts.size(); i++) {
             Account account = accounts.get(i);
-            BankResponse balanceResponse = client.getBalance(account.getAccountNumber());
-            if (balanceResponse.isSuccess() && balanceResponse.getBalance() != null) {
-                System.out.println((i + 1) + ". Счет: " + account.getAccountNumber() + 
-                                 " | Баланс: " + formatBalance(balanceResponse.getBalance(), account.getCurrency()) + 
-                                 " | Валюта: " + account.getCurrency());
-            } else {
-                System.out.println((i + 1) + ". " + formatAccount(account));
-            }
+            System.out.println((i + 1) + ". Счет: " + account.getAccountNumber() + 
+                             " | Баланс: " + formatBalance(account.getBalance(), account.getCurrency()) + 
+                             " | Валюта: " + account.getCurrency());
         }
         System.out.println("─".repeat(60));
         System.out.print("Выберите номер счета (1-" + accounts.size() + "): ");
@@ -455,9 +460,15 @@ public class ClientUI {
             int index = Integer.parseInt(choice) - 1;
             if (index >= 0 && index < accounts.size()) {
                 Account selectedAccount = accounts.get(index);
-                BankResponse balanceResponse = client.getBalance(selectedAccount.getAccountNumber());
-                if (balanceResponse.isSuccess() && balanceResponse.getBalance() != null) {
-                    selectedAccount.setBalance(balanceResponse.getBalance());
+                // Пока пользователь выбирал, баланс мог измениться: условный запрос
+                // вернет список заново, только если версия счетов изменилась
+                BankResponse refreshed = client.getAccounts();
+                if (refreshed.isSuccess() && refreshed.getAccounts() != null) {
+                    for (Account account : refreshed.getAccounts()) {
+                        if (account.getAccountNumber().equals(selectedAccount.getAccountNumber())) {
+                            selectedAccount.setBalance(account.getBalance());
+                        }
+                    }
                 }
                 return selectedAccount;
             } else {
@@ -470,7 +481,8 @@ public class ClientUI {
         }
     }
     
-    private double readAmount(String prompt) {
+    // Сумма в минимальных единицах валюты или -1 при ошибке ввода
+    private long readAmount(String prompt, String currency) {
         System.out.print(prompt + ": ");
         String amountStr = scanner.nextLine().trim();
         
@@ -480,20 +492,20 @@ public class ClientUI {
         }
         
         try {
-            double amount = Double.parseDouble(amountStr);
+            long amount = Money.parse(amountStr, currency);
             if (amount <= 0) {
                 System.out.println("Ошибка: Сумма должна быть положительным числом");
                 return -1;
             }
             return amount;
-        } catch (NumberFormatException e) {
+        } catch (NumberFormatException | ArithmeticException e) {
             System.out.println("Ошибка: Неверный формат суммы. Введите число");
             return -1;
         }
     }
     
     private boolean isValidCurrency(String currency) {
-        return currency != null && (currency.equals("RUB") || currency.equals("USD") || currency.equals("EUR"));
+        return currency != null && currency.matches("[A-Z]{3}");
     }
     
     private boolean isConfirmationPositive(String confirmation) {
@@ -536,8 +548,8 @@ public class ClientUI {
             account.getCurrency());
     }
     
-    private String formatBalance(double balance, String currency) {
-        return currencyFormatter.format(balance) + " " + currency;
+    private String formatBalance(long balance, String currency) {
+        return currencyFormatter.format(BigDecimal.valueOf(balance, Money.fractionDigits(currency))) + " " + currency;
     }
     
     private void logout() {
@@ -3,30 +3,34 @@ package common;
 import java.io.Serializable;
 
 public class Account implements Serializable {
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
     private String accountNumber;
     private String owner;
-    private double balance;
+    // Баланс в минимальных единицах валюты (см. Money).
+    // volatile: баланс изменяет поток записи BankService, а читают снимки данных и проверки
+    // операций; клиентам отдаются неизменяемые копии счетов (BankService.AccountsView)
+    private volatile long balanceMinor;
     private String currency;
     
-    public Account(String accountNumber, String owner, double balance, String currency) {
+    public Account(String accountNumber, String owner, long balance, String currency) {
         this.accountNumber = accountNumber;
         this.owner = owner;
-        this.balance = balance;
+        this.balanceMinor = balance;
         this.currency = currency;
     }
     
     public String getAccountNumber() { return accountNumber; }
     public String getOwner() { return owner; }
-    public double getBalance() { return balance; }
+    public long getBalance() { return balanceMinor; }
     public String getCurrency() { return currency; }
     
-    public void deposit(double amount) { balance += amount; }
-    public void withdraw(double amount) { balance -= amount; }
-    public void setBalance(double balance) { this.balance = balance; }
+    // Переполнение баланса отсекает проверка операции (BankService), здесь - последняя защита
+    public void deposit(long amount) { balanceMinor = Math.addExact(balanceMinor, amount); }
+    public void withdraw(long amount) { balanceMinor -= amount; }
+    public void setBalance(long balance) { this.balanceMinor = balance; }
     
     @Override
     public String toString() {
-        return String.format("Счет: %s, Баланс: %.2f %s", accountNumber, balance, currency);
+        return String.format("Счет: %s, Баланс: %s %s", accountNumber, Money.format(balanceMinor, currency), currency);
     }
-}
\ No newline at end of file
+}
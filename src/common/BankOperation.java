@@ -1,5 +1,7 @@
 package common;
 
+// Порядковый номер операции используется как код в двоичном протоколе (BinaryCodec),
+// поэтому новые операции добавляются только в конец списка (не больше 128 операций)
 public enum BankOperation {
     REGISTER,
     LOGIN,
@@ -9,7 +11,42 @@ public enum BankOperation {
     DEPOSIT,
     WITHDRAW,
     TRANSFER,
-    GET_ACCOUNTS,
+    GET_ACCOUNTS(false), // версия для условного запроса передается только двоичным протоколом
     GET_TRANSACTIONS,
-    LOGOUT
-}
\ No newline at end of file
+    LOGOUT(false),
+    BATCH,
+    RESUME, // привязка соединения к сеансу по токену, полученному при LOGIN
+    STATS(false), // метрики сервера в JSON (только администраторы)
+    PROMOTE(false); // перевод реплики в основной сервер (только администраторы)
+    
+    private final boolean payload;
+    
+    BankOperation() {
+        this(true);
+    }
+    
+    BankOperation(boolean payload) {
+        this.payload = payload;
+    }
+    
+    // Передаются ли вместе с операцией данные
+    public boolean hasPayload() {
+        return payload;
+    }
+    
+    // Изменяет ли операция счета. Такие запросы клиент передает с ключом идемпотентности,
+    // и повтор запроса с тем же ключом не выполняется сервером второй раз.
+    public boolean isMutating() {
+        switch (this) {
+            case CREATE_ACCOUNT:
+            case DELETE_ACCOUNT:
+            case DEPOSIT:
+            case WITHDRAW:
+            case TRANSFER:
+            case BATCH:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -4,12 +4,22 @@ import java.io.Serializable;
 import java.util.List;
 
 public class BankResponse implements Serializable {
-    private static final long serialVersionUID = 3L;
+    private static final long serialVersionUID = 11L;
+    private int requestId; // идентификатор запроса, на который дан ответ
     private boolean success;
     private String message;
     private List<Account> accounts;
-    private Double balance;
+    private Long balance; // в минимальных единицах валюты счета
     private List<Transaction> transactions;
+    private boolean hasMore; // есть ли еще страницы истории за курсором
+    private List<BankResponse> results; // результаты операций пакета (BATCH)
+    private Long version; // версия набора счетов пользователя (GET_ACCOUNTS)
+    private boolean notModified; // счета не изменились с версии из запроса, список не передан
+    private String sessionToken; // токен сеанса для RESUME (LOGIN, RESUME)
+    private Long sessionExpiresAt; // срок действия токена, мс от начала эпохи
+    private String stats; // метрики сервера в JSON (STATS)
+    private Long journalSeq; // номер записи журнала: после изменения (основной сервер), примененной (реплика)
+    private Long replicationLagMs; // отставание реплики от основного сервера, мс (только чтение с реплики)
     
     public BankResponse(boolean success, String message) {
         this.success = success;
@@ -17,12 +27,32 @@ public class BankResponse implements Serializable {
     }
     
     // Методы доступа (геттеры и сеттеры)
+    public int getRequestId() { return requestId; }
+    public void setRequestId(int requestId) { this.requestId = requestId; }
     public boolean isSuccess() { return success; }
     public String getMessage() { return message; }
     public List<Account> getAccounts() { return accounts; }
     public void setAccounts(List<Account> accounts) { this.accounts = accounts; }
-    public Double getBalance() { return balance; }
-    public void setBalance(Double balance) { this.balance = balance; }
+    public Long getBalance() { return balance; }
+    public void setBalance(Long balance) { this.balance = balance; }
     public List<Transaction> getTransactions() { return transactions; }
     public void setTransactions(List<Transaction> transactions) { this.transactions = transactions; }
+    public boolean hasMore() { return hasMore; }
+    public void setHasMore(boolean hasMore) { this.hasMore = hasMore; }
+    public List<BankResponse> getResults() { return results; }
+    public void setResults(List<BankResponse> results) { this.results = results; }
+    public Long getVersion() { return version; }
+    public void setVersion(Long version) { this.version = version; }
+    public boolean isNotModified() { return notModified; }
+    public void setNotModified(boolean notModified) { this.notModified = notModified; }
+    public String getSessionToken() { return sessionToken; }
+    public void setSessionToken(String sessionToken) { this.sessionToken = sessionToken; }
+    public Long getSessionExpiresAt() { return sessionExpiresAt; }
+    public void setSessionExpiresAt(Long sessionExpiresAt) { this.sessionExpiresAt = sessionExpiresAt; }
+    public String getStats() { return stats; }
+    public void setStats(String stats) { this.stats = stats; }
+    public Long getJournalSeq() { return journalSeq; }
+    public void setJournalSeq(Long journalSeq) { this.journalSeq = journalSeq; }
+    public Long getReplicationLagMs() { return replicationLagMs; }
+    public void setReplicationLagMs(Long replicationLagMs) { this.replicationLagMs = replicationLagMs; }
 }
\ No newline at end of file
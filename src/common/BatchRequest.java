@@ -0,0 +1,73 @@
+package common;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+// Пакет операций, выполняемых сервером за один запрос (BankOperation.BATCH).
+// Результаты возвращаются по одному на каждую операцию в том же порядке.
+public class BatchRequest implements Serializable {
+    private static final long serialVersionUID = 1L;
+    
+    public enum Mode {
+        ATOMIC,      // все операции или ни одной
+        BEST_EFFORT  // выполняются все операции, прошедшие проверку
+    }
+    
+    public enum ItemType {
+        DEPOSIT,
+        WITHDRAW,
+        TRANSFER
+    }
+    
+    public static class Item implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private ItemType type;
+        private String accountNumber;
+        private String targetAccount; // только для перевода
+        private long amount; // в минимальных единицах валюты счета
+        
+        public Item(ItemType type, String accountNumber, String targetAccount, long amount) {
+            this.type = type;
+            this.accountNumber = accountNumber;
+            this.targetAccount = targetAccount;
+            this.amount = amount;
+        }
+        
+        public ItemType getType() { return type; }
+        public String getAccountNumber() { return accountNumber; }
+        public String getTargetAccount() { return targetAccount; }
+        public long getAmount() { return amount; }
+    }
+    
+    private Mode mode;
+    private List<Item> items;
+    
+    public BatchRequest(Mode mode) {
+        this(mode, new ArrayList<>());
+    }
+    
+    public BatchRequest(Mode mode, List<Item> items) {
+        this.mode = mode;
+        this.items = items;
+    }
+    
+    public BatchRequest deposit(String accountNumber, long amount) {
+        items.add(new Item(ItemType.DEPOSIT, accountNumber, null, amount));
+        return this;
+    }
+    
+    public BatchRequest withdraw(String accountNumber, long amount) {
+        items.add(new Item(ItemType.WITHDRAW, accountNumber, null, amount));
+        return this;
+    }
+    
+    public BatchRequest transfer(String fromAccount, String toAccount, long amount) {
+        items.add(new Item(ItemType.TRANSFER, fromAccount, toAccount, amount));
+        return this;
+    }
+    
+    public Mode getMode() { return mode; }
+    public List<Item> getItems() { return items; }
+    public int size() { return items.size(); }
+}
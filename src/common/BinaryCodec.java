@@ -0,0 +1,506 @@
+package common;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+// Компактный двоичный протокол с префиксом длины.
+// Запрос:  [int длина][byte код операции][int id запроса][ключ идемпотентности][значение данных]
+//          (ключ - 16 байт, только если в коде операции установлен старший бит)
+// Ответ:   [int длина][int id запроса][byte флаги][поля (byte номер, значение)...][byte 0]
+// Значения типизированы (байт типа + данные), поэтому новые поля ответа
+// добавляются без поломки старых клиентов: неизвестное поле просто пропускается.
+public class BinaryCodec implements WireCodec {
+    // Начало соединения: клиент шлет MAGIC + версию, сервер отвечает MAGIC + принятой версией
+    public static final byte[] MAGIC = {'B', 'N', 'K', 'P'};
+    public static final byte VERSION = 1;
+    public static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+    
+    // Буфер кадра больше этого размера не удерживается между запросами
+    private static final int RETAINED_BUFFER_SIZE = 64 * 1024;
+    // Размеры коллекций и строк заявляет отправитель: память под них выделяется не больше
+    // этого объема заранее и растет по мере чтения данных
+    private static final int MAX_PREALLOCATED = 1024;
+    private static final int STRING_CHUNK_SIZE = 64 * 1024;
+    // Глубина вложенных массивов и списков в значении
+    private static final int MAX_NESTING_DEPTH = 8;
+    
+    private static final byte T_NULL = 0;
+    private static final byte T_STRING = 1;
+    private static final byte T_LONG = 2;
+    private static final byte T_INT = 3;
+    private static final byte T_BOOLEAN = 4;
+    private static final byte T_DOUBLE = 5;
+    private static final byte T_ARRAY = 6;
+    private static final byte T_LIST = 7;
+    private static final byte T_ACCOUNT = 8;
+    private static final byte T_TRANSACTION = 9;
+    private static final byte T_USER = 10;
+    private static final byte T_BATCH = 11;
+    private static final byte T_RESPONSE = 12;
+    
+    private static final byte F_END = 0;
+    private static final byte F_MESSAGE = 1;
+    private static final byte F_BALANCE = 2;
+    private static final byte F_ACCOUNTS = 3;
+    private static final byte F_TRANSACTIONS = 4;
+    private static final byte F_HAS_MORE = 5;
+    private static final byte F_RESULTS = 6;
+    private static final byte F_VERSION = 7;
+    private static final byte F_NOT_MODIFIED = 8;
+    private static final byte F_SESSION_TOKEN = 9;
+    private static final byte F_SESSION_EXPIRES_AT = 10;
+    private static final byte F_STATS = 11;
+    private static final byte F_JOURNAL_SEQ = 12;
+    private static final byte F_REPLICATION_LAG = 13;
+    
+    private static final byte FLAG_SUCCESS = 1;
+    // Старший бит кода операции: за идентификатором запроса следует ключ идемпотентности (16 байт)
+    private static final int FLAG_IDEMPOTENCY_KEY = 0x80;
+    
+    private static final BankOperation[] OPERATIONS = BankOperation.values();
+    private static final BatchRequest.Mode[] BATCH_MODES = BatchRequest.Mode.values();
+    private static final BatchRequest.ItemType[] BATCH_ITEM_TYPES = BatchRequest.ItemType.values();
+    
+    private final DataInputStream input;
+    private final OutputStream output;
+    private FrameBuffer frame = new FrameBuffer();
+    private byte[] readBuffer = new byte[256];
+    private int lastFrameLength;
+    
+    public BinaryCodec(InputStream in, OutputStream out) {
+        this.input = new DataInputStream(new BufferedInputStream(in));
+        this.output = new BufferedOutputStream(out);
+    }
+    
+    // Согласование протокола на стороне клиента
+    public static void clientHandshake(InputStream in, OutputStream out) throws IOException {
+        out.write(MAGIC);
+        out.write(VERSION);
+        out.flush();
+        byte[] reply = new byte[MAGIC.length + 1];
+        new DataInputStream(in).readFully(reply);
+        if (!Arrays.equals(Arrays.copyOf(reply, MAGIC.length), MAGIC) || reply[MAGIC.length] != VERSION) {
+            throw new IOException("Сервер не поддерживает двоичный протокол версии " + VERSION);
+        }
+    }
+    
+    // Ответ сервера на приветствие клиента (MAGIC уже прочитан)
+    public static void serverHandshake(InputStream in, OutputStream out) throws IOException {
+        int clientVersion = in.read();
+        if (clientVersion < 0) {
+            throw new EOFException();
+        }
+        out.write(MAGIC);
+        out.write(Math.min(clientVersion, VERSION));
+        out.flush();
+    }
+    
+    // --- Кадры ---
+    
+    @Override
+    public void writeRequest(int requestId, BankOperation operation, Object payload, UUID idempotencyKey)
+            throws IOException {
+        DataOutputStream out = frame.begin();
+        encodeRequest(out, requestId, operation, payload, idempotencyKey);
+        sendFrame();
+    }
+    
+    @Override
+    public WireRequest readRequest() throws IOException {
+        return decodeRequest(new DataInputStream(new ByteArrayInputStream(readFrame(), 0, lastFrameLength)));
+    }
+    
+    @Override
+    public void writeResponse(int requestId, BankResponse response) throws IOException {
+        DataOutputStream out = frame.begin();
+        encodeResponse(out, requestId, response);
+        sendFrame();
+    }
+    
+    @Override
+    public BankResponse readResponse() throws IOException {
+        return decodeResponse(new DataInputStream(new ByteArrayInputStream(readFrame(), 0, lastFrameLength)));
+    }
+    
+    private byte[] readFrame() throws IOException {
+        int length = input.readInt();
+        if (length < 0 || length > MAX_FRAME_SIZE) {
+            throw new IOException("Недопустимая длина кадра: " + length);
+        }
+        if (readBuffer.length > RETAINED_BUFFER_SIZE) {
+            readBuffer = new byte[256];
+        }
+        // Буфер растет вдвое, только когда заполнен пришедшими данными: заголовок с большой
+        // длиной без тела не заставляет выделять память под весь кадр (не больше
+        // MAX_FRAME_SIZE и не больше двойного объема полученных данных на соединение)
+        int read = 0;
+        while (read < length) {
+            if (read == readBuffer.length) {
+                readBuffer = Arrays.copyOf(readBuffer, (int) Math.min(length, 2L * readBuffer.length));
+            }
+            int chunk = Math.min(readBuffer.length, length) - read;
+            input.readFully(readBuffer, read, chunk);
+            read += chunk;
+        }
+        lastFrameLength = length;
+        return readBuffer;
+    }
+    
+    private void sendFrame() throws IOException {
+        frame.writeTo(output);
+        output.flush();
+        if (frame.capacity() > RETAINED_BUFFER_SIZE) {
+            frame = new FrameBuffer();
+        }
+    }
+    
+    // Буфер кадра: первые 4 байта резервируются под длину
+    private static class FrameBuffer extends ByteArrayOutputStream {
+        private final DataOutputStream data = new DataOutputStream(this);
+        
+        FrameBuffer() {
+            super(256);
+        }
+        
+        DataOutputStream begin() throws IOException {
+            reset();
+            data.writeInt(0);
+            return data;
+        }
+        
+        int capacity() {
+            return buf.length;
+        }
+        
+        @Override
+        public synchronized void writeTo(OutputStream out) throws IOException {
+            int length = count - 4;
+            if (length > MAX_FRAME_SIZE) {
+                throw new IOException("Слишком большой кадр: " + length);
+            }
+            buf[0] = (byte) (length >>> 24);
+            buf[1] = (byte) (length >>> 16);
+            buf[2] = (byte) (length >>> 8);
+            buf[3] = (byte) length;
+            out.write(buf, 0, count);
+        }
+    }
+    
+    // --- Тела кадров (без префикса длины) ---
+    
+    public static void encodeRequest(DataOutput out, int requestId, BankOperation operation, Object payload)
+            throws IOException {
+        encodeRequest(out, requestId, operation, payload, null);
+    }
+    
+    public static void encodeRequest(DataOutput out, int requestId, BankOperation operation, Object payload,
+                                     UUID idempotencyKey) throws IOException {
+        out.writeByte(operation.ordinal() | (idempotencyKey != null ? FLAG_IDEMPOTENCY_KEY : 0));
+        out.writeInt(requestId);
+        if (idempotencyKey != null) {
+            out.writeLong(idempotencyKey.getMostSignificantBits());
+            out.writeLong(idempotencyKey.getLeastSignificantBits());
+        }
+        writeValue(out, payload);
+    }
+    
+    public static WireRequest decodeRequest(DataInput in) throws IOException {
+        int header = in.readUnsignedByte();
+        int code = header & ~FLAG_IDEMPOTENCY_KEY;
+        if (code >= OPERATIONS.length) {
+            throw new IOException("Неизвестный код операции: " + code);
+        }
+        int requestId = in.readInt();
+        UUID idempotencyKey = null;
+        if ((header & FLAG_IDEMPOTENCY_KEY) != 0) {
+            idempotencyKey = new UUID(in.readLong(), in.readLong());
+        }
+        return new WireRequest(requestId, OPERATIONS[code], readValue(in), idempotencyKey);
+    }
+    
+    public static void encodeResponse(DataOutput out, int requestId, BankResponse response) throws IOException {
+        out.writeInt(requestId);
+        out.writeByte(response.isSuccess() ? FLAG_SUCCESS : 0);
+        writeField(out, F_MESSAGE, response.getMessage());
+        writeField(out, F_BALANCE, response.getBalance());
+        writeField(out, F_ACCOUNTS, response.getAccounts());
+        writeField(out, F_TRANSACTIONS, response.getTransactions());
+        if (response.hasMore()) {
+            writeField(out, F_HAS_MORE, Boolean.TRUE);
+        }
+        writeField(out, F_RESULTS, response.getResults());
+        writeField(out, F_VERSION, response.getVersion());
+        if (response.isNotModified()) {
+            writeField(out, F_NOT_MODIFIED, Boolean.TRUE);
+        }
+        writeField(out, F_SESSION_TOKEN, response.getSessionToken());
+        writeField(out, F_SESSION_EXPIRES_AT, response.getSessionExpiresAt());
+        writeField(out, F_STATS, response.getStats());
+        writeField(out, F_JOURNAL_SEQ, response.getJournalSeq());
+        writeField(out, F_REPLICATION_LAG, response.getReplicationLagMs());
+        out.writeByte(F_END);
+    }
+    
+    @SuppressWarnings("unchecked")
+    public static BankResponse decodeResponse(DataInput in) throws IOException {
+        int requestId = in.readInt();
+        int flags = in.readUnsignedByte();
+        String message = null;
+        Long balance = null;
+        List<Account> accounts = null;
+        List<Transaction> transactions = null;
+        boolean hasMore = false;
+        List<BankResponse> results = null;
+        Long version = null;
+        boolean notModified = false;
+        String sessionToken = null;
+        Long sessionExpiresAt = null;
+        String stats = null;
+        Long journalSeq = null;
+        Long replicationLagMs = null;
+        
+        int field;
+        while ((field = in.readUnsignedByte()) != F_END) {
+            Object value = readValue(in);
+            switch (field) {
+                case F_MESSAGE: message = (String) value; break;
+                case F_BALANCE: balance = (Long) value; break;
+                case F_ACCOUNTS: accounts = (List<Account>) value; break;
+                case F_TRANSACTIONS: transactions = (List<Transaction>) value; break;
+                case F_HAS_MORE: hasMore = (Boolean) value; break;
+                case F_RESULTS: results = (List<BankResponse>) value; break;
+                case F_VERSION: version = (Long) value; break;
+                case F_NOT_MODIFIED: notModified = (Boolean) value; break;
+                case F_SESSION_TOKEN: sessionToken = (String) value; break;
+                case F_SESSION_EXPIRES_AT: sessionExpiresAt = (Long) value; break;
+                case F_STATS: stats = (String) value; break;
+                case F_JOURNAL_SEQ: journalSeq = (Long) value; break;
+                case F_REPLICATION_LAG: replicationLagMs = (Long) value; break;
+                default: break; // поле из более новой версии протокола
+            }
+        }
+        
+        BankResponse response = new BankResponse((flags & FLAG_SUCCESS) != 0, message);
+        response.setRequestId(requestId);
+        response.setBalance(balance);
+        response.setAccounts(accounts);
+        response.setTransactions(transactions);
+        response.setHasMore(hasMore);
+        response.setResults(results);
+        response.setVersion(version);
+        response.setNotModified(notModified);
+        response.setSessionToken(sessionToken);
+        response.setSessionExpiresAt(sessionExpiresAt);
+        response.setStats(stats);
+        response.setJournalSeq(journalSeq);
+        response.setReplicationLagMs(replicationLagMs);
+        return response;
+    }
+    
+    private static void writeField(DataOutput out, byte field, Object value) throws IOException {
+        if (value != null) {
+            out.writeByte(field);
+            writeValue(out, value);
+        }
+    }
+    
+    // --- Типизированные значения ---
+    
+    public static void writeValue(DataOutput out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(T_NULL);
+        } else if (value instanceof String) {
+            out.writeByte(T_STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Long) {
+            out.writeByte(T_LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(T_INT);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(T_BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Double) {
+            out.writeByte(T_DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Object[]) {
+            Object[] array = (Object[]) value;
+            out.writeByte(T_ARRAY);
+            out.writeInt(array.length);
+            for (Object element : array) {
+                writeValue(out, element);
+            }
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            out.writeByte(T_LIST);
+            out.writeInt(list.size());
+            for (Object element : list) {
+                writeValue(out, element);
+            }
+        } else if (value instanceof Account) {
+            Account account = (Account) value;
+            out.writeByte(T_ACCOUNT);
+            writeString(out, account.getAccountNumber());
+            writeString(out, account.getOwner());
+            out.writeLong(account.getBalance());
+            writeString(out, account.getCurrency());
+        } else if (value instanceof Transaction) {
+            Transaction transaction = (Transaction) value;
+            out.writeByte(T_TRANSACTION);
+            writeString(out, transaction.getId());
+            writeString(out, transaction.getAccountNumber());
+            writeString(out, transaction.getType());
+            out.writeLong(transaction.getAmount());
+            writeString(out, transaction.getCurrency());
+            writeString(out, transaction.getTimestamp());
+            writeString(out, transaction.getDescription());
+        } else if (value instanceof User) {
+            User user = (User) value;
+            out.writeByte(T_USER);
+            writeString(out, user.getLogin());
+            writeString(out, user.getPassword());
+        } else if (value instanceof BatchRequest) {
+            BatchRequest batch = (BatchRequest) value;
+            out.writeByte(T_BATCH);
+            out.writeByte(batch.getMode().ordinal());
+            out.writeInt(batch.size());
+            for (BatchRequest.Item item : batch.getItems()) {
+                out.writeByte(item.getType().ordinal());
+                writeString(out, item.getAccountNumber());
+                writeString(out, item.getTargetAccount());
+                out.writeLong(item.getAmount());
+            }
+        } else if (value instanceof BankResponse) {
+            // Вложенный результат (операция пакета): только признак успеха и сообщение
+            BankResponse response = (BankResponse) value;
+            out.writeByte(T_RESPONSE);
+            out.writeBoolean(response.isSuccess());
+            writeString(out, response.getMessage());
+        } else {
+            throw new IOException("Тип не поддерживается протоколом: " + value.getClass().getName());
+        }
+    }
+    
+    public static Object readValue(DataInput in) throws IOException {
+        return readValue(in, 0);
+    }
+    
+    private static Object readValue(DataInput in, int depth) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case T_NULL:
+                return null;
+            case T_STRING:
+                return readString(in);
+            case T_LONG:
+                return in.readLong();
+            case T_INT:
+                return in.readInt();
+            case T_BOOLEAN:
+                return in.readBoolean();
+            case T_DOUBLE:
+                return in.readDouble();
+            case T_ARRAY:
+                return readElements(in, depth).toArray();
+            case T_LIST:
+                return readElements(in, depth);
+            case T_ACCOUNT:
+                return new Account(readString(in), readString(in), in.readLong(), readString(in));
+            case T_TRANSACTION: {
+                Transaction transaction = new Transaction();
+                transaction.setId(readString(in));
+                transaction.setAccountNumber(readString(in));
+                transaction.setType(readString(in));
+                transaction.setAmount(in.readLong());
+                transaction.setCurrency(readString(in));
+                transaction.setTimestamp(readString(in));
+                transaction.setDescription(readString(in));
+                return transaction;
+            }
+            case T_USER:
+                return new User(readString(in), readString(in));
+            case T_BATCH: {
+                BatchRequest.Mode mode = BATCH_MODES[readEnum(in, BATCH_MODES.length)];
+                int size = readCount(in);
+                List<BatchRequest.Item> items = new ArrayList<>(Math.min(size, MAX_PREALLOCATED));
+                for (int i = 0; i < size; i++) {
+                    BatchRequest.ItemType itemType = BATCH_ITEM_TYPES[readEnum(in, BATCH_ITEM_TYPES.length)];
+                    items.add(new BatchRequest.Item(itemType, readString(in), readString(in), in.readLong()));
+                }
+                return new BatchRequest(mode, items);
+            }
+            case T_RESPONSE:
+                return new BankResponse(in.readBoolean(), readString(in));
+            default:
+                throw new IOException("Неизвестный тип значения: " + type);
+        }
+    }
+    
+    private static List<Object> readElements(DataInput in, int depth) throws IOException {
+        if (depth >= MAX_NESTING_DEPTH) {
+            throw new IOException("Слишком глубокая вложенность значения");
+        }
+        int size = readCount(in);
+        List<Object> list = new ArrayList<>(Math.min(size, MAX_PREALLOCATED));
+        for (int i = 0; i < size; i++) {
+            list.add(readValue(in, depth + 1));
+        }
+        return list;
+    }
+    
+    private static int readCount(DataInput in) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > MAX_FRAME_SIZE) {
+            throw new IOException("Недопустимый размер коллекции: " + count);
+        }
+        return count;
+    }
+    
+    private static int readEnum(DataInput in, int count) throws IOException {
+        int ordinal = in.readUnsignedByte();
+        if (ordinal >= count) {
+            throw new IOException("Недопустимое значение перечисления: " + ordinal);
+        }
+        return ordinal;
+    }
+    
+    private static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    
+    private static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > MAX_FRAME_SIZE) {
+            throw new IOException("Недопустимая длина строки: " + length);
+        }
+        if (length <= STRING_CHUNK_SIZE) {
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        // Длинная строка читается частями: заявленная длина не выделяется без данных
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(STRING_CHUNK_SIZE);
+        byte[] chunk = new byte[STRING_CHUNK_SIZE];
+        for (int remaining = length; remaining > 0; ) {
+            int size = Math.min(remaining, chunk.length);
+            in.readFully(chunk, 0, size);
+            bytes.write(chunk, 0, size);
+            remaining -= size;
+        }
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,65 @@
+package common;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+// Денежные суммы хранятся как long в минимальных единицах валюты (копейки, центы).
+// Арифметика над ними точная и не создает объектов; здесь только перевод из/в текст.
+public final class Money {
+    
+    private Money() {
+    }
+    
+    // Количество знаков после запятой для валюты
+    public static int fractionDigits(String currency) {
+        return 2;
+    }
+    
+    // Число минимальных единиц в одной основной (100 для RUB/USD/EUR)
+    public static long unitScale(String currency) {
+        long scale = 1;
+        for (int i = fractionDigits(currency); i > 0; i--) {
+            scale *= 10;
+        }
+        return scale;
+    }
+    
+    // Разбор введенной суммы ("1234.56" или "1234,56"); лишние знаки округляются банковским способом
+    public static long parse(String text, String currency) {
+        BigDecimal value = new BigDecimal(text.trim().replace(',', '.'));
+        return value.setScale(fractionDigits(currency), RoundingMode.HALF_EVEN)
+                .unscaledValue().longValueExact();
+    }
+    
+    // Перевод устаревшего значения double (основные единицы) в минимальные единицы
+    public static long fromMajor(double amount, String currency) {
+        return BigDecimal.valueOf(amount).setScale(fractionDigits(currency), RoundingMode.HALF_EVEN)
+                .unscaledValue().longValueExact();
+    }
+    
+    public static double toMajor(long minor, String currency) {
+        return (double) minor / unitScale(currency);
+    }
+    
+    // Точное форматирование без промежуточного double: 123456 RUB -> "1234.56"
+    public static String format(long minor, String currency) {
+        int digits = fractionDigits(currency);
+        long scale = unitScale(currency);
+        StringBuilder sb = new StringBuilder();
+        if (minor < 0) {
+            sb.append('-');
+        }
+        long major = Math.abs(minor / scale);
+        long fraction = Math.abs(minor % scale);
+        sb.append(major);
+        if (digits > 0) {
+            sb.append('.');
+            String fractionText = Long.toString(fraction);
+            for (int i = fractionText.length(); i < digits; i++) {
+                sb.append('0');
+            }
+            sb.append(fractionText);
+        }
+        return sb.toString();
+    }
+}
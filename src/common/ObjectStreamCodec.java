@@ -0,0 +1,85 @@
+package common;
+
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.UUID;
+
+// Исходный протокол на Java-сериализации: операция и данные передаются отдельными
+// объектами. Идентификаторы запросов на провод не попадают - сервер отвечает
+// в порядке запросов, поэтому ответы сопоставляются по очереди отправленных id.
+// Ключ идемпотентности передается отдельным объектом UUID перед операцией (старые
+// клиенты его не отправляют).
+// Запись и чтение могут выполняться разными потоками (конвейер запросов в BankClient).
+public class ObjectStreamCodec implements WireCodec {
+    private final ObjectOutputStream output;
+    private final ObjectInputStream input;
+    private final Queue<Integer> pendingIds = new ArrayDeque<>();
+    private int nextRequestId;
+    
+    // Порядок создания потоков важен: заголовок ObjectOutputStream должен уйти
+    // до блокирующего чтения заголовка собеседника
+    public ObjectStreamCodec(OutputStream out, InputStream in) throws IOException {
+        this.output = new ObjectOutputStream(out);
+        this.output.flush();
+        this.input = new ObjectInputStream(in);
+    }
+    
+    @Override
+    public void writeRequest(int requestId, BankOperation operation, Object payload, UUID idempotencyKey)
+            throws IOException {
+        // Идентификатор ставится в очередь до отправки: ответ может прийти раньше, чем вернется flush()
+        synchronized (pendingIds) {
+            pendingIds.add(requestId);
+        }
+        if (idempotencyKey != null) {
+            output.writeObject(idempotencyKey);
+        }
+        output.writeObject(operation);
+        if (operation.hasPayload()) {
+            output.writeObject(payload);
+        }
+        output.flush();
+        // Без reset() таблица ссылок потока удерживает все отправленные объекты
+        output.reset();
+    }
+    
+    @Override
+    public WireRequest readRequest() throws IOException {
+        try {
+            Object first = input.readObject();
+            UUID idempotencyKey = null;
+            if (first instanceof UUID) {
+                idempotencyKey = (UUID) first;
+                first = input.readObject();
+            }
+            BankOperation operation = (BankOperation) first;
+            Object payload = operation.hasPayload() ? input.readObject() : null;
+            return new WireRequest(++nextRequestId, operation, payload, idempotencyKey);
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Неизвестный формат запроса: " + e.getMessage(), e);
+        }
+    }
+    
+    @Override
+    public void writeResponse(int requestId, BankResponse response) throws IOException {
+        output.writeObject(response);
+        output.flush();
+        output.reset();
+    }
+    
+    @Override
+    public BankResponse readResponse() throws IOException {
+        try {
+            BankResponse response = (BankResponse) input.readObject();
+            Integer requestId;
+            synchronized (pendingIds) {
+                requestId = pendingIds.poll();
+            }
+            response.setRequestId(requestId != null ? requestId : 0);
+            return response;
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Неизвестный формат ответа: " + e.getMessage(), e);
+        }
+    }
+}
@@ -3,23 +3,26 @@ package common;
 import java.io.Serializable;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Transaction implements Serializable {
-    private static final long serialVersionUID = 4L;
+    private static final long serialVersionUID = 5L;
+    // Уникальные возрастающие идентификаторы (используются как курсор истории)
+    private static final AtomicLong idCounter = new AtomicLong(System.currentTimeMillis() * 1000);
     private String id;
     private String accountNumber;
     private String type; // Тип операции: DEPOSIT, WITHDRAW, TRANSFER_IN, TRANSFER_OUT
-    private double amount;
+    private long amountMinor; // сумма в минимальных единицах валюты (см. Money)
     private String currency;
     private String timestamp; // Сохраняем как строку для Gson
     private String description;
     
     // Конструктор для создания новой транзакции
-    public Transaction(String accountNumber, String type, double amount, String currency, String description) {
-        this.id = "TXN" + System.currentTimeMillis() + (int)(Math.random() * 1000);
+    public Transaction(String accountNumber, String type, long amount, String currency, String description) {
+        this.id = "TXN" + idCounter.incrementAndGet();
         this.accountNumber = accountNumber;
         this.type = type;
-        this.amount = amount;
+        this.amountMinor = amount;
         this.currency = currency;
         this.timestamp = LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
         this.description = description;
@@ -39,8 +42,8 @@ public class Transaction implements Serializable {
     public String getType() { return type; }
     public void setType(String type) { this.type = type; }
     
-    public double getAmount() { return amount; }
-    public void setAmount(double amount) { this.amount = amount; }
+    public long getAmount() { return amountMinor; }
+    public void setAmount(long amount) { this.amountMinor = amount; }
     
     public String getCurrency() { return currency; }
     public void setCurrency(String currency) { this.currency = currency; }
@@ -74,8 +77,8 @@ public class Transaction implements Serializable {
             case "TRANSFER_OUT" -> "Перевод (исходящий)";
             default -> type;
         };
-        return String.format("[%s] %s: %.2f %s - %s", 
-            dateTime.format(formatter), typeName, amount, currency, description);
+        return String.format("[%s] %s: %s %s - %s", 
+            dateTime.format(formatter), typeName, Money.format(amountMinor, currency), currency, description);
     }
 }
 
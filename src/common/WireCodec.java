@@ -0,0 +1,23 @@
+package common;
+
+import java.io.IOException;
+import java.util.UUID;
+
+// Формат обмена между BankClient и ClientHandler. Клиентская сторона пишет запросы
+// и читает ответы, серверная - наоборот. Реализации не потокобезопасны.
+public interface WireCodec {
+    
+    default void writeRequest(int requestId, BankOperation operation, Object payload) throws IOException {
+        writeRequest(requestId, operation, payload, null);
+    }
+    
+    // idempotencyKey - null или ключ, по которому сервер распознает повтор запроса
+    void writeRequest(int requestId, BankOperation operation, Object payload, UUID idempotencyKey) throws IOException;
+    
+    WireRequest readRequest() throws IOException;
+    
+    void writeResponse(int requestId, BankResponse response) throws IOException;
+    
+    // Ответ с заполненным getRequestId()
+    BankResponse readResponse() throws IOException;
+}
@@ -0,0 +1,28 @@
+package common;
+
+import java.util.UUID;
+
+// Запрос, прочитанный с провода: идентификатор, операция, ее данные и необязательный
+// ключ идемпотентности (одинаковый у повторных отправок одного запроса)
+public class WireRequest {
+    private final int requestId;
+    private final BankOperation operation;
+    private final Object payload;
+    private final UUID idempotencyKey;
+    
+    public WireRequest(int requestId, BankOperation operation, Object payload) {
+        this(requestId, operation, payload, null);
+    }
+    
+    public WireRequest(int requestId, BankOperation operation, Object payload, UUID idempotencyKey) {
+        this.requestId = requestId;
+        this.operation = operation;
+        this.payload = payload;
+        this.idempotencyKey = idempotencyKey;
+    }
+    
+    public int getRequestId() { return requestId; }
+    public BankOperation getOperation() { return operation; }
+    public Object getPayload() { return payload; }
+    public UUID getIdempotencyKey() { return idempotencyKey; }
+}
@@ -0,0 +1,99 @@
+package loadtest;
+
+import com.google.gson.stream.JsonWriter;
+import utils.PasswordHasher;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Массовое заполнение каталога данных перед нагрузочным тестом или бенчмарком:
+// файлы старого формата (users.json, accounts.json, transactions.json), которые
+// BankService импортирует при первом запуске потоково и без журнала. Миллионы
+// записей готовятся за секунды вместо отдельных операций REGISTER и DEPOSIT.
+// Пользователи user<N> с паролем PASSWORD (хеш считается один раз на всех).
+public class DataSeeder {
+    public static final String PASSWORD = "password";
+    public static final String CURRENCY = "RUB";
+    public static final long INITIAL_BALANCE = 1_000_000_000L;
+    // Идентификаторы истории в формате сервера (TXN + число), по возрастанию
+    private static final long FIRST_TRANSACTION_ID = 1_000_000_000_000L;
+    private static final String TIMESTAMP = "2024-01-01T12:00:00";
+    
+    public static String login(int user) {
+        return "user" + user;
+    }
+    
+    // Номера счетов не пересекаются с номерами, которые сервер выдает новым счетам
+    public static String account(int user, int index) {
+        return "ACC" + (user * 10L + index + 1);
+    }
+    
+    // Идентификатор index-й записи истории первого счета пользователя
+    public static String transactionId(int user, long historyPerUser, long index) {
+        return "TXN" + (FIRST_TRANSACTION_ID + user * historyPerUser + index);
+    }
+    
+    // users пользователей по accountsPerUser счетов (не больше 10); на первом счете
+    // каждого пользователя - история из historyPerUser пополнений
+    public static void seed(Path directory, int users, int accountsPerUser, long historyPerUser) throws IOException {
+        if (accountsPerUser < 1 || accountsPerUser > 10) {
+            throw new IllegalArgumentException("Счетов на пользователя должно быть от 1 до 10");
+        }
+        Files.createDirectories(directory);
+        String passwordHash = PasswordHasher.hash(PASSWORD);
+        try (JsonWriter json = open(directory.resolve("users.json"))) {
+            json.beginObject();
+            for (int user = 0; user < users; user++) {
+                json.name(login(user)).beginObject()
+                    .name("login").value(login(user))
+                    .name("password").value(passwordHash)
+                    .endObject();
+            }
+            json.endObject();
+        }
+        
+        try (JsonWriter json = open(directory.resolve("accounts.json"))) {
+            json.beginObject();
+            for (int user = 0; user < users; user++) {
+                json.name(login(user)).beginArray();
+                for (int index = 0; index < accountsPerUser; index++) {
+                    json.beginObject()
+                        .name("accountNumber").value(account(user, index))
+                        .name("owner").value(login(user))
+                        .name("balanceMinor").value(INITIAL_BALANCE)
+                        .name("currency").value(CURRENCY)
+                        .endObject();
+                }
+                json.endArray();
+            }
+            json.endObject();
+        }
+        
+        try (JsonWriter json = open(directory.resolve("transactions.json"))) {
+            json.beginObject();
+            for (int user = 0; user < users && historyPerUser > 0; user++) {
+                json.name(login(user)).beginArray();
+                for (long i = 0; i < historyPerUser; i++) {
+                    json.beginObject()
+                        .name("id").value(transactionId(user, historyPerUser, i))
+                        .name("accountNumber").value(account(user, 0))
+                        .name("type").value("DEPOSIT")
+                        .name("amountMinor").value(100 + i % 1000)
+                        .name("currency").value(CURRENCY)
+                        .name("timestamp").value(TIMESTAMP)
+                        .name("description").value("Пополнение счета")
+                        .endObject();
+                }
+                json.endArray();
+            }
+            json.endObject();
+        }
+    }
+    
+    private static JsonWriter open(Path file) throws IOException {
+        Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+        return new JsonWriter(writer);
+    }
+}
@@ -0,0 +1,393 @@
+package loadtest;
+
+import common.BankOperation;
+import common.BankResponse;
+import server.BankServer;
+import utils.Config;
+import utils.LatencyHistogram;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+// Нагрузочный тест: много пользователей (по соединению BankClient на каждого) выполняют
+// заданную смесь операций против сервера, отчет - пропускная способность и перцентили
+// задержек по каждой операции.
+//
+// closed - каждый пользователь ждет ответа перед следующим запросом; с --rate запросы
+//          пользователя идут по расписанию (общая частота делится между пользователями).
+// open   - запросы отправляются с частотой --rate независимо от ответов, по кругу
+//          от всех пользователей.
+//
+// Задержка считается от запланированного момента отправки, а не от фактического: если
+// сервер задержал ответ и следующий запрос ушел позже срока, ожидание входит в его
+// задержку (поправка на coordinated omission). Время обслуживания (от фактической
+// отправки) выводится отдельно. Без --rate в режиме closed расписания нет и обе
+// величины совпадают.
+//
+// Без --host запускается встроенный сервер на временном каталоге данных, который перед
+// каждым запуском заполняется DataSeeder (пользователи user0..userN-1 с историей).
+// Для внешнего сервера данные готовятся заранее: --seed-only <каталог>, затем сервер
+// запускается с -Dbank.data.dir=<каталог>.
+public class LoadTest {
+    private static final String USAGE = String.join("\n",
+        "Использование: java -cp <classpath> loadtest.LoadTest [параметры]",
+        "  --users N        число пользователей (по умолчанию 1000)",
+        "  --mode M         closed или open (по умолчанию closed)",
+        "  --rate R         целевая частота, операций в секунду на всех (0 - без ограничения, только closed)",
+        "  --duration S     длительность измерения, с (по умолчанию 30)",
+        "  --warmup S       прогрев без записи результатов, с (по умолчанию 5)",
+        "  --mix СМЕСЬ      доли операций (по умолчанию " + OperationMix.DEFAULT + ")",
+        "  --history N      записей истории на пользователя при заполнении (по умолчанию 100)",
+        "  --host H         адрес внешнего сервера (без него - встроенный сервер)",
+        "  --port P         порт (по умолчанию " + Config.SERVER_PORT + ")",
+        "  --engine E       движок встроенного сервера: threads, virtual, nio",
+        "  --seed-only DIR  только подготовить данные для --users пользователей в DIR");
+    
+    private static class Options {
+        int users = 1000;
+        String mode = "closed";
+        double rate;
+        long duration = 30;
+        long warmup = 5;
+        String mix = OperationMix.DEFAULT;
+        long history = 100;
+        String host;
+        int port = Config.SERVER_PORT;
+        String engine;
+        String seedOnly;
+        
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (int i = 0; i < args.length; i += 2) {
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Нет значения параметра " + args[i]);
+                }
+                String value = args[i + 1];
+                switch (args[i]) {
+                    case "--users" -> options.users = Integer.parseInt(value);
+                    case "--mode" -> options.mode = value;
+                    case "--rate" -> options.rate = Double.parseDouble(value);
+                    case "--duration" -> options.duration = Long.parseLong(value);
+                    case "--warmup" -> options.warmup = Long.parseLong(value);
+                    case "--mix" -> options.mix = value;
+                    case "--history" -> options.history = Long.parseLong(value);
+                    case "--host" -> options.host = value;
+                    case "--port" -> options.port = Integer.parseInt(value);
+                    case "--engine" -> options.engine = value;
+                    case "--seed-only" -> options.seedOnly = value;
+                    default -> throw new IllegalArgumentException("Неизвестный параметр " + args[i]);
+                }
+            }
+            if (!options.mode.equals("closed") && !options.mode.equals("open")) {
+                throw new IllegalArgumentException("Режим должен быть closed или open");
+            }
+            if (options.mode.equals("open") && options.rate <= 0) {
+                throw new IllegalArgumentException("Для режима open нужна частота --rate");
+            }
+            if (options.users < 1 || options.duration < 1 || options.warmup < 0) {
+                throw new IllegalArgumentException("Недопустимые --users, --duration или --warmup");
+            }
+            return options;
+        }
+    }
+    
+    // Результаты одной операции
+    private static class OperationStats {
+        final LatencyHistogram responseTime = new LatencyHistogram(); // от запланированного момента
+        final LatencyHistogram serviceTime = new LatencyHistogram(); // от фактической отправки
+        final AtomicLong errors = new AtomicLong();
+    }
+    
+    // Запрос режима open, отправленный и еще не получивший ответа
+    private static class PendingRequest {
+        final BankOperation operation;
+        final long intended;
+        final long sent;
+        
+        PendingRequest(BankOperation operation, long intended, long sent) {
+            this.operation = operation;
+            this.intended = intended;
+            this.sent = sent;
+        }
+    }
+    
+    private final Options options;
+    private final OperationMix mix;
+    private final Map<BankOperation, OperationStats> stats = new EnumMap<>(BankOperation.class);
+    private final OperationStats total = new OperationStats();
+    private final List<SimulatedUser> users = Collections.synchronizedList(new ArrayList<>());
+    private volatile long measureStart;
+    private volatile long measureEnd;
+    
+    private LoadTest(Options options) {
+        this.options = options;
+        this.mix = new OperationMix(options.mix);
+        for (BankOperation operation : mix.getOperations()) {
+            stats.put(operation, new OperationStats());
+        }
+    }
+    
+    public static void main(String[] args) throws Exception {
+        Options options;
+        try {
+            options = Options.parse(args);
+            new OperationMix(options.mix);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println(USAGE);
+            return;
+        }
+        
+        if (options.seedOnly != null) {
+            DataSeeder.seed(Paths.get(options.seedOnly), options.users, 1, options.history);
+            System.out.println("Данные для " + options.users + " пользователей записаны в " + options.seedOnly
+                + "; запустите сервер с -Dbank.data.dir=" + options.seedOnly);
+            return;
+        }
+        
+        // Свойства задаются до первого обращения к Config (каталог данных, уровень логов)
+        if (System.getProperty("bank.log.level") == null) {
+            System.setProperty("bank.log.level", "WARN");
+        }
+        if (options.host != null) {
+            new LoadTest(options).run(options.host);
+            return;
+        }
+        
+        Path dataDirectory = Files.createTempDirectory("bank-load-");
+        System.setProperty("bank.data.dir", dataDirectory.toString());
+        try {
+            long started = System.nanoTime();
+            DataSeeder.seed(dataDirectory, options.users, 1, options.history);
+            BankServer server = new BankServer(options.port,
+                options.engine != null ? options.engine : Config.SERVER_ENGINE);
+            System.out.printf("Встроенный сервер: %d пользователей, по %d записей истории, подготовка %.1f с%n",
+                options.users, options.history, (System.nanoTime() - started) / 1e9);
+            Thread serverThread = new Thread(server::start, "loadtest-server");
+            serverThread.start();
+            try {
+                new LoadTest(options).run("localhost");
+            } finally {
+                server.stop();
+                serverThread.join();
+            }
+        } finally {
+            deleteDirectory(dataDirectory);
+        }
+        System.exit(0);
+    }
+    
+    private void run(String host) throws Exception {
+        connectUsers(host);
+        System.out.printf("Режим %s, пользователей %d, частота %s, измерение %d с после прогрева %d с%n",
+            options.mode, users.size(), options.rate > 0 ? String.format("%.0f оп/с", options.rate) : "без ограничения",
+            options.duration, options.warmup);
+        System.out.println("Смесь: " + mix);
+        
+        long start = System.nanoTime();
+        measureStart = start + TimeUnit.SECONDS.toNanos(options.warmup);
+        measureEnd = measureStart + TimeUnit.SECONDS.toNanos(options.duration);
+        if (options.mode.equals("open")) {
+            runOpenLoop(start);
+        } else {
+            runClosedLoop(start);
+        }
+        report();
+        
+        for (SimulatedUser user : users) {
+            user.close();
+        }
+    }
+    
+    // Соединения и вход пользователей параллельно; сервер может еще запускаться
+    private void connectUsers(String host) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+        ExecutorService pool = Executors.newFixedThreadPool(32);
+        try {
+            List<Future<?>> connected = new ArrayList<>();
+            for (int i = 0; i < options.users; i++) {
+                int user = i;
+                connected.add(pool.submit(() -> {
+                    SimulatedUser simulated = connectUser(host, user, deadline);
+                    simulated.login();
+                    users.add(simulated);
+                    return null;
+                }));
+            }
+            for (Future<?> future : connected) {
+                future.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+    
+    private SimulatedUser connectUser(String host, int user, long deadline) throws Exception {
+        while (true) {
+            try {
+                return new SimulatedUser(host, options.port, user, options.users);
+            } catch (ConnectException e) {
+                if (System.nanoTime() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+    
+    // Поток на пользователя: запрос, ожидание ответа, следующий запрос (по расписанию, если задана частота)
+    private void runClosedLoop(long start) throws InterruptedException {
+        long interval = options.rate > 0 ? (long) (1e9 * users.size() / options.rate) : 0;
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < users.size(); i++) {
+            SimulatedUser user = users.get(i);
+            // Первые запросы пользователей равномерно распределены по интервалу
+            long first = start + interval * i / users.size();
+            Thread thread = new Thread(null, () -> closedLoop(user, first, interval), "loadtest-user-" + i, 256 * 1024);
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+    
+    private void closedLoop(SimulatedUser user, long first, long interval) {
+        long intended = first;
+        while (true) {
+            if (interval > 0) {
+                waitUntil(intended);
+            }
+            long sent = System.nanoTime();
+            if (interval == 0) {
+                intended = sent;
+            }
+            if (intended >= measureEnd) {
+                return;
+            }
+            BankOperation operation = mix.next();
+            boolean success;
+            try {
+                success = user.execute(operation).get(Config.OPERATION_TIMEOUT, TimeUnit.MILLISECONDS).isSuccess();
+            } catch (ExecutionException | TimeoutException e) {
+                success = false;
+            } catch (InterruptedException e) {
+                return;
+            }
+            record(operation, intended, sent, System.nanoTime(), success);
+            intended += interval;
+        }
+    }
+    
+    // Один поток отправляет запросы по расписанию, не дожидаясь ответов
+    private void runOpenLoop(long start) throws InterruptedException {
+        Set<PendingRequest> pending = ConcurrentHashMap.newKeySet();
+        for (long i = 0; ; i++) {
+            long intended = start + (long) (i * 1e9 / options.rate);
+            if (intended >= measureEnd) {
+                break;
+            }
+            waitUntil(intended);
+            SimulatedUser user = users.get((int) (i % users.size()));
+            BankOperation operation = mix.next();
+            long sent = System.nanoTime();
+            PendingRequest request = new PendingRequest(operation, intended, sent);
+            pending.add(request);
+            user.execute(operation).whenComplete((response, error) -> {
+                // Ответ, пришедший после окончания ожидания, уже учтен как ошибка
+                if (pending.remove(request)) {
+                    record(operation, intended, sent, System.nanoTime(), response != null && response.isSuccess());
+                }
+            });
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Config.OPERATION_TIMEOUT);
+        while (!pending.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        // Запросы без ответа - ошибки с задержкой до конца ожидания: иначе самые медленные
+        // запросы выпали бы из перцентилей
+        long abandoned = System.nanoTime();
+        int unanswered = 0;
+        for (PendingRequest request : pending) {
+            if (pending.remove(request)) {
+                record(request.operation, request.intended, request.sent, abandoned, false);
+                unanswered++;
+            }
+        }
+        if (unanswered > 0) {
+            System.out.println("Без ответа после завершения: " + unanswered + " запросов (учтены как ошибки)");
+        }
+    }
+    
+    private static void waitUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+    
+    // Учитываются запросы, запланированные в окне измерения
+    private void record(BankOperation operation, long intended, long sent, long completed, boolean success) {
+        if (intended < measureStart || intended >= measureEnd) {
+            return;
+        }
+        for (OperationStats target : new OperationStats[]{stats.get(operation), total}) {
+            target.responseTime.record(completed - intended);
+            target.serviceTime.record(completed - sent);
+            if (!success) {
+                target.errors.incrementAndGet();
+            }
+        }
+    }
+    
+    private void report() {
+        double seconds = options.duration;
+        System.out.println();
+        System.out.printf("%-18s %9s %7s %10s %9s %9s %9s %9s %9s %11s%n", "Операция", "Всего", "Ошибок",
+            "оп/с", "p50 мс", "p90 мс", "p99 мс", "p99.9 мс", "max мс", "p99 обсл.");
+        for (Map.Entry<BankOperation, OperationStats> entry : stats.entrySet()) {
+            printRow(entry.getKey().toString(), entry.getValue(), seconds);
+        }
+        printRow("ВСЕГО", total, seconds);
+        System.out.println("Задержка - от запланированного момента отправки (с поправкой на coordinated omission),"
+            + " обсл. - от фактической отправки до ответа");
+    }
+    
+    private static void printRow(String name, OperationStats row, double seconds) {
+        LatencyHistogram latency = row.responseTime;
+        System.out.printf("%-18s %9d %7d %10.1f %9.3f %9.3f %9.3f %9.3f %9.3f %11.3f%n", name, latency.getCount(),
+            row.errors.get(), latency.getCount() / seconds, millis(latency.getPercentile(50)),
+            millis(latency.getPercentile(90)), millis(latency.getPercentile(99)), millis(latency.getPercentile(99.9)),
+            millis(latency.getMax()), millis(row.serviceTime.getPercentile(99)));
+    }
+    
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+    
+    private static void deleteDirectory(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+}
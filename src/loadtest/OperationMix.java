@@ -0,0 +1,93 @@
+package loadtest;
+
+import common.BankOperation;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Доли операций в нагрузке: "getAccounts=30,deposit=25,transfer=25,getTransactions=15,login=5".
+// Имена - как в BankOperation или в стиле методов BankClient; веса - целые, не обязательно
+// в сумме 100. Операция выбирается случайно пропорционально весу.
+public class OperationMix {
+    public static final String DEFAULT = "getAccounts=30,deposit=25,transfer=25,getTransactions=15,login=5";
+    private static final Set<BankOperation> SUPPORTED = EnumSet.of(BankOperation.LOGIN, BankOperation.GET_ACCOUNTS,
+        BankOperation.DEPOSIT, BankOperation.TRANSFER, BankOperation.GET_TRANSACTIONS);
+    
+    private final List<BankOperation> operations = new ArrayList<>();
+    private final int[] cumulativeWeights;
+    private final int totalWeight;
+    
+    public OperationMix(String specification) {
+        List<Integer> weights = new ArrayList<>();
+        for (String part : specification.split(",")) {
+            String[] pair = part.trim().split("=");
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Ожидается операция=вес: " + part);
+            }
+            BankOperation operation = parseOperation(pair[0].trim());
+            int weight = Integer.parseInt(pair[1].trim());
+            if (weight < 0) {
+                throw new IllegalArgumentException("Отрицательный вес операции " + operation);
+            }
+            if (weight > 0) {
+                operations.add(operation);
+                weights.add(weight);
+            }
+        }
+        if (operations.isEmpty()) {
+            throw new IllegalArgumentException("Не задано ни одной операции");
+        }
+        cumulativeWeights = new int[weights.size()];
+        int sum = 0;
+        for (int i = 0; i < weights.size(); i++) {
+            sum += weights.get(i);
+            cumulativeWeights[i] = sum;
+        }
+        totalWeight = sum;
+    }
+    
+    // getTransactions -> GET_TRANSACTIONS
+    private static BankOperation parseOperation(String name) {
+        String constant = name.replaceAll("([a-z])([A-Z])", "$1_$2").toUpperCase();
+        BankOperation operation;
+        try {
+            operation = BankOperation.valueOf(constant);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Неизвестная операция: " + name);
+        }
+        if (!SUPPORTED.contains(operation)) {
+            throw new IllegalArgumentException("Операция не поддерживается нагрузочным тестом: " + name);
+        }
+        return operation;
+    }
+    
+    public BankOperation next() {
+        int point = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (point < cumulativeWeights[i]) {
+                return operations.get(i);
+            }
+        }
+        return operations.get(operations.size() - 1);
+    }
+    
+    public List<BankOperation> getOperations() {
+        return operations;
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        int previous = 0;
+        for (int i = 0; i < operations.size(); i++) {
+            if (i > 0) {
+                text.append(", ");
+            }
+            text.append(operations.get(i)).append('=').append(cumulativeWeights[i] - previous);
+            previous = cumulativeWeights[i];
+        }
+        return text.toString();
+    }
+}
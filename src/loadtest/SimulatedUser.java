@@ -0,0 +1,69 @@
+package loadtest;
+
+import client.BankClient;
+import common.BankOperation;
+import common.BankResponse;
+import common.User;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Один пользователь нагрузочного теста: свое соединение BankClient (конвейерный
+// асинхронный API, без кэша счетов и повторных попыток) и счета из DataSeeder.
+// Переводы идут на первый счет случайного другого пользователя.
+class SimulatedUser {
+    private static final long AMOUNT = 100;
+    private static final int PAGE_SIZE = 20;
+    
+    private final BankClient client;
+    private final int user;
+    private final int users;
+    private final String login;
+    private final String account;
+    
+    SimulatedUser(String host, int port, int user, int users) throws IOException {
+        this.client = new BankClient(host, port);
+        this.user = user;
+        this.users = users;
+        this.login = DataSeeder.login(user);
+        this.account = DataSeeder.account(user, 0);
+    }
+    
+    // Вход перед началом нагрузки (синхронный, с проверкой результата)
+    void login() throws IOException {
+        BankResponse response = client.login(login, DataSeeder.PASSWORD);
+        if (!response.isSuccess()) {
+            throw new IOException("Вход " + login + " не выполнен: " + response.getMessage());
+        }
+    }
+    
+    CompletableFuture<BankResponse> execute(BankOperation operation) {
+        switch (operation) {
+            case LOGIN:
+                return client.executeAsync(BankOperation.LOGIN, new User(login, DataSeeder.PASSWORD));
+            case GET_ACCOUNTS:
+                return client.executeAsync(BankOperation.GET_ACCOUNTS, null);
+            case DEPOSIT:
+                return client.executeAsync(BankOperation.DEPOSIT, new Object[]{account, AMOUNT});
+            case TRANSFER:
+                return client.executeAsync(BankOperation.TRANSFER, new Object[]{account, otherAccount(), AMOUNT});
+            case GET_TRANSACTIONS:
+                return client.executeAsync(BankOperation.GET_TRANSACTIONS,
+                    new Object[]{account, PAGE_SIZE, null, null});
+            default:
+                throw new IllegalArgumentException("Операция не поддерживается: " + operation);
+        }
+    }
+    
+    private String otherAccount() {
+        if (users == 1) {
+            return account;
+        }
+        int other = ThreadLocalRandom.current().nextInt(users - 1);
+        return DataSeeder.account(other >= user ? other + 1 : other, 0);
+    }
+    
+    void close() {
+        client.logout();
+    }
+}
@@ -0,0 +1,167 @@
+package server;
+
+import common.Transaction;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// История операций одного счета. Сами записи лежат в HistoryStore вне кучи, здесь
+// хранятся только номера блоков счета и число записей. Транзакции хранятся в порядке
+// добавления, который совпадает с порядком во времени, поэтому сортировка не нужна,
+// а страница последних записей выбирается без просмотра всей истории.
+public class AccountHistory {
+    private final HistoryStore store;
+    private final String accountNumber;
+    private final String owner;
+    private int[] blocks;
+    private int size;
+    // Числовые идентификаторы растут вместе с позицией (так создает их сервер),
+    // поэтому курсор ищется двоичным поиском. Импортированная история может нарушать
+    // порядок - тогда курсор ищется перебором.
+    private long lastId = -1;
+    private boolean ordered = true;
+    
+    public static class Page {
+        private final List<Transaction> transactions;
+        private final boolean hasMore;
+        
+        Page(List<Transaction> transactions, boolean hasMore) {
+            this.transactions = transactions;
+            this.hasMore = hasMore;
+        }
+        
+        public List<Transaction> getTransactions() { return transactions; }
+        public boolean hasMore() { return hasMore; }
+    }
+    
+    public AccountHistory(HistoryStore store, String accountNumber, String owner) {
+        this.store = store;
+        this.accountNumber = accountNumber;
+        this.owner = owner;
+        this.blocks = new int[1];
+    }
+    
+    // История из снимка данных
+    AccountHistory(HistoryStore store, SnapshotStore.HistoryEntry entry) {
+        this.store = store;
+        this.accountNumber = entry.accountNumber;
+        this.owner = entry.owner;
+        this.blocks = Arrays.copyOf(entry.blocks, Math.max(1, entry.blocks.length));
+        this.size = entry.count;
+        this.lastId = entry.lastId;
+        this.ordered = entry.ordered;
+    }
+    
+    public String getOwner() { return owner; }
+    
+    public void append(Transaction transaction) {
+        append(transaction, null, 0, null);
+    }
+    
+    // Транзакция перевода вместе с другой стороной: счетом, суммой и валютой
+    public synchronized void append(Transaction transaction, String counterparty, long counterAmount,
+                                    String counterCurrency) {
+        try {
+            int slot = size % HistoryStore.BLOCK_RECORDS;
+            int blockIndex = size / HistoryStore.BLOCK_RECORDS;
+            if (slot == 0) {
+                if (blockIndex == blocks.length) {
+                    blocks = Arrays.copyOf(blocks, blocks.length * 2);
+                }
+                blocks[blockIndex] = store.allocateBlock();
+            }
+            long id = store.write(blocks[blockIndex], slot, transaction, counterparty, counterAmount, counterCurrency);
+            ordered = ordered && id > lastId;
+            lastId = id;
+            size++;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Ошибка записи истории операций", e);
+        }
+    }
+    
+    public synchronized int size() {
+        return size;
+    }
+    
+    // Состояние для снимка данных: записи до size уже не меняются
+    synchronized SnapshotStore.HistoryEntry capture() {
+        int usedBlocks = (size + HistoryStore.BLOCK_RECORDS - 1) / HistoryStore.BLOCK_RECORDS;
+        return new SnapshotStore.HistoryEntry(accountNumber, owner, size, Arrays.copyOf(blocks, usedBlocks),
+            lastId, ordered);
+    }
+    
+    // Страница истории от новых к старым. Без курсора - последние limit записей;
+    // beforeId - записи старше указанной; afterId - записи новее указанной.
+    // Возвращает null, если транзакция-курсор не найдена.
+    public synchronized Page page(int limit, String beforeId, String afterId) {
+        try {
+            HistoryStore.View view = store.view();
+            int start;
+            int end;
+            boolean hasMore;
+            if (afterId != null) {
+                int position = indexOf(view, afterId);
+                if (position < 0) {
+                    return null;
+                }
+                start = position + 1;
+                end = (int) Math.min(size, (long) start + limit);
+                hasMore = end < size;
+            } else {
+                if (beforeId != null) {
+                    int position = indexOf(view, beforeId);
+                    if (position < 0) {
+                        return null;
+                    }
+                    end = position;
+                } else {
+                    end = size;
+                }
+                start = Math.max(0, end - limit);
+                hasMore = start > 0;
+            }
+            
+            List<Transaction> result = new ArrayList<>(end - start);
+            for (int i = end - 1; i >= start; i--) {
+                result.add(at(view, i).toTransaction(accountNumber));
+            }
+            return new Page(result, hasMore);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Ошибка чтения истории операций", e);
+        }
+    }
+    
+    private HistoryStore.View at(HistoryStore.View view, int position) {
+        return view.at(blocks[position / HistoryStore.BLOCK_RECORDS], position % HistoryStore.BLOCK_RECORDS);
+    }
+    
+    private int indexOf(HistoryStore.View view, String id) throws IOException {
+        long numericId = HistoryStore.parseId(id);
+        if (ordered && numericId >= 0) {
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                long value = at(view, middle).id();
+                if (value < numericId) {
+                    low = middle + 1;
+                } else if (value > numericId) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -1;
+        }
+        // Перебор от новых записей: курсор обычно указывает на недавнюю страницу
+        for (int i = size - 1; i >= 0; i--) {
+            at(view, i);
+            if (view.isText() ? id.equals(view.textId()) : numericId == view.id()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -2,8 +2,9 @@ package server;
 
 import utils.*;
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -11,44 +12,110 @@ public class BankServer {
     private int port;
     private BankService bankService;
     private Logger logger;
-    private ExecutorService threadPool;
-    private boolean running;
+    private ServerEngine engine;
+    private ReplicationServer replicationServer;
+    private ReplicationClient replicationClient;
     
     public BankServer(int port) {
+        this(port, Config.SERVER_ENGINE);
+    }
+    
+    public BankServer(int port, String engineName) {
         this.port = port;
         this.logger = new Logger("BankServer", Config.SERVER_LOG_FILE);
-        this.bankService = new BankService(logger);
-        this.threadPool = Executors.newCachedThreadPool();
+        // Реплика (-Dbank.follow) до приема клиентов догоняет основной сервер или загружает его снимок
+        boolean follower = Config.REPLICATION_FOLLOW != null;
+        BankService service = new BankService(logger, follower);
+        if (follower) {
+            replicationClient = new ReplicationClient(Config.REPLICATION_FOLLOW, logger);
+            service = replicationClient.bootstrap(service);
+        }
+        this.bankService = service;
+        this.engine = createEngine(engineName);
+        ServerMetrics metrics = bankService.getMetrics();
+        metrics.registerGauge("activeConnections", engine::getActiveConnections);
+        metrics.registerGauge("queuedRequests", engine::getQueuedRequests);
+        if (Config.REPLICATION_PORT > 0) {
+            replicationServer = new ReplicationServer(bankService, logger);
+            metrics.registerGauge("replicas", replicationServer::getFollowerCount);
+        }
+    }
+    
+    // threads - поток ОС на соединение, virtual - виртуальный поток на соединение,
+    // nio - цикл событий на селекторе с ограниченным пулом рабочих потоков
+    private ServerEngine createEngine(String engineName) {
+        switch (engineName) {
+            case "virtual":
+                return new BlockingServerEngine(bankService, logger, newVirtualThreadExecutor());
+            case "nio":
+                return new NioServerEngine(bankService, logger, Config.NIO_WORKER_THREADS,
+                        Config.NIO_QUEUE_CAPACITY, new BufferPool(Config.NIO_BUFFER_SIZE, Config.NIO_MAX_POOLED_BUFFERS));
+            case "threads":
+                return new BlockingServerEngine(bankService, logger, Executors.newCachedThreadPool());
+            default:
+                logger.warn("Неизвестный режим сервера " + engineName + ", используется threads");
+                return new BlockingServerEngine(bankService, logger, Executors.newCachedThreadPool());
+        }
+    }
+    
+    // Виртуальные потоки доступны начиная с Java 21; на более старых версиях - обычный пул
+    private ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            logger.warn("Виртуальные потоки недоступны (требуется Java 21+), используется пул потоков");
+            return Executors.newCachedThreadPool();
+        }
     }
     
     public void start() {
-        running = true;
         logger.info("Сервер банка запускается на порту " + port);
+        Path metricsFile = Paths.get(Config.METRICS_FILE);
+        bankService.getMetrics().startDump(metricsFile, Config.METRICS_DUMP_INTERVAL, logger);
+        startReplication();
         
-        try (ServerSocket serverSocket = new ServerSocket(port)) {
-            logger.info("Сервер банка успешно запущен");
-            
-            while (running) {
-                Socket clientSocket = serverSocket.accept();
-                logger.info("Новое подключение: " + clientSocket.getInetAddress());
-                
-                ClientHandler clientHandler = new ClientHandler(clientSocket, bankService, logger);
-                threadPool.execute(clientHandler);
-            }
+        try {
+            engine.start(port);
         } catch (IOException e) {
             logger.error("Ошибка сервера: " + e.getMessage());
         } finally {
-            threadPool.shutdown();
+            if (replicationClient != null) {
+                replicationClient.stop();
+            }
+            if (replicationServer != null) {
+                replicationServer.stop();
+            }
+            bankService.shutdown();
+            bankService.getMetrics().stopDump(metricsFile, logger);
             logger.info("Сервер банка остановлен");
         }
     }
     
+    // Журнал отдается репликам и на реплике (цепочка реплик, работа после promote());
+    // без порта репликации сервер работает как раньше
+    private void startReplication() {
+        if (replicationServer != null) {
+            try {
+                replicationServer.start(Config.REPLICATION_PORT);
+            } catch (IOException e) {
+                logger.warn("Репликация недоступна на порту " + Config.REPLICATION_PORT + ": " + e.getMessage());
+                replicationServer = null;
+            }
+        }
+        if (replicationClient != null) {
+            logger.info("Сервер работает как реплика " + Config.REPLICATION_FOLLOW + " (только чтение)");
+            replicationClient.start();
+        }
+    }
+    
     public void stop() {
-        running = false;
+        engine.stop();
     }
     
+    // -Dbank.port - порт клиентов, чтобы запустить реплику на одной машине с основным сервером
     public static void main(String[] args) {
-        BankServer server = new BankServer(Config.SERVER_PORT);
+        BankServer server = new BankServer(Integer.getInteger("bank.port", Config.SERVER_PORT), args.length > 0 ? args[0] : Config.SERVER_ENGINE);
         server.start();
     }
-}
\ No newline at end of file
+}
@@ -5,35 +5,281 @@ import utils.Config;
 import utils.Logger;
 import utils.PasswordHasher;
 import utils.CurrencyConverter;
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
 import java.io.*;
-import java.lang.reflect.Type;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.stream.Collectors;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
 
 public class BankService {
     private Map<String, User> users;
     private Map<String, List<Account>> accounts;
-    private Map<String, List<Transaction>> transactions;
+    // История операций по номеру счета (в том числе удаленных счетов); записи - в historyStore
+    private Map<String, AccountHistory> histories;
+    private HistoryStore historyStore;
+    // Индекс номер счета -> счет и владелец, поддерживается при создании и удалении счетов
+    private Map<String, Account> accountIndex;
+    private Map<String, String> accountOwners;
+    // Опубликованные счета пользователя для чтения: неизменяемые копии с версией набора.
+    // Версия меняется при любом изменении его счетов или балансов. Значения берутся из общего
+    // возрастающего счетчика, засеянного временем запуска, поэтому версия, полученная клиентом
+    // до перезапуска сервера, не совпадет с новой.
+    private Map<String, AccountsView> accountViews;
+    private static final AtomicLong versionCounter = new AtomicLong(System.currentTimeMillis() * 1000);
     private Logger logger;
-    private Gson gson;
+    private Journal journal;
+    private SnapshotStore snapshots;
+    // Данные пользователя (его счета и балансы) изменяет только поток его шарда
+    private MutationExecutor shards;
+    // Переводы между шардами, списанные со счета отправителя, но еще не зачисленные
+    // получателю: идентификатор перевода -> запись TRANSFER_DEBIT
+    private final Map<String, JournalRecord> pendingTransfers = new ConcurrentHashMap<>();
+    // Мутации держат блокировку на чтение от постановки записи в журнал до ее применения,
+    // снимок берет блокировку на запись, чтобы увидеть состояние ровно на номер записи журнала
+    private final ReentrantReadWriteLock stateLock = new ReentrantReadWriteLock();
+    private ScheduledExecutorService snapshotScheduler;
+    // Сеансы по токенам для восстановления соединений (RESUME)
+    private final SessionManager sessions = new SessionManager(Config.SESSION_TTL, Config.SESSION_SWEEP_INTERVAL);
+    private final ServerMetrics metrics = new ServerMetrics();
+    // Ответы на изменяющие запросы по ключам идемпотентности (повторы клиента после таймаута)
+    private final IdempotencyCache idempotencyCache = new IdempotencyCache(Config.IDEMPOTENCY_TTL,
+        Config.IDEMPOTENCY_MAX_KEYS, response -> !PERSISTENCE_FAILURE_MESSAGE.equals(response.getMessage()));
+    // Курсы валют из Config.RATES_FILE, перечитываются при изменении файла
+    private final ExchangeRatesReloader ratesReloader;
+    private volatile long lastSnapshotSeq;
+    // Реплика только применяет записи основного сервера (applyReplicated) до promote()
+    private volatile boolean readOnly;
+    private volatile ReplicationClient replication;
+    // Номер последней записи реплики, уже примененной к данным (в журнал она ставится раньше)
+    private volatile long appliedSeq;
     private static final AtomicLong accountCounter = new AtomicLong(System.currentTimeMillis());
+    // Запись журнала не сброшена на диск. Изменение при этом уже применено в памяти, а журнал
+    // отклоняет все следующие записи до перезапуска (см. stage), поэтому такой ответ не
+    // запоминается для повторов по ключу идемпотентности
+    private static final String PERSISTENCE_FAILURE_MESSAGE = "Ошибка сохранения данных";
+    // Зачисление, после которого баланс не поместился бы в long
+    private static final String BALANCE_LIMIT_MESSAGE = "Сумма превышает допустимый баланс счета";
+    private static final String BALANCE_LIMIT_TARGET_MESSAGE = "Сумма превышает допустимый баланс счета получателя";
     
     public BankService(Logger logger) {
+        this(logger, false);
+    }
+    
+    // follower - реплика: данные изменяются только записями журнала основного сервера,
+    // незавершенные переводы завершает основной сервер
+    public BankService(Logger logger, boolean follower) {
         this.logger = logger;
-        this.gson = new Gson();
+        this.readOnly = follower;
         this.users = new ConcurrentHashMap<>();
         this.accounts = new ConcurrentHashMap<>();
-        this.transactions = new ConcurrentHashMap<>();
+        this.histories = new ConcurrentHashMap<>();
+        this.accountIndex = new ConcurrentHashMap<>();
+        this.accountOwners = new ConcurrentHashMap<>();
+        this.accountViews = new ConcurrentHashMap<>();
+        this.journal = new Journal(Config.JOURNAL_DIR, logger, metrics);
+        this.snapshots = new SnapshotStore(Config.SNAPSHOT_DIR, Config.SNAPSHOTS_TO_KEEP, logger);
+        this.historyStore = new HistoryStore(Config.HISTORY_DIR, Config.HISTORY_SEGMENT_SIZE, logger);
+        this.shards = createMutationExecutor();
+        this.ratesReloader = new ExchangeRatesReloader(Paths.get(Config.RATES_FILE), logger);
         ensureDataDirectories();
-        loadData();
-        migratePasswordsToHashed();
+        ratesReloader.start(Config.RATES_RELOAD_INTERVAL);
+        
+        // Последний снимок + записи журнала после него; без снимка - импорт данных старого формата
+        SnapshotStore.Snapshot snapshot = snapshots.loadLatest();
+        openHistory(snapshot);
+        long snapshotSeq = 0;
+        if (snapshot != null) {
+            restore(snapshot);
+            snapshotSeq = snapshot.getLastSeq();
+            lastSnapshotSeq = snapshotSeq;
+            logger.info("Загружен снимок данных на запись журнала " + snapshotSeq);
+        } else {
+            loadData();
+        }
+        replayJournal(snapshotSeq);
+        openJournal(snapshotSeq);
+        appliedSeq = journal.getLastSeq();
+        // Данные из снимка и журнала публикуются до приема клиентов
+        for (String login : accounts.keySet()) {
+            publishAccounts(login);
+        }
+        if (!follower) {
+            completePendingTransfers();
+        }
+        
+        // Импортированные JSON-файлы больше не читаются: данные переходят в первый снимок
+        if (snapshot == null) {
+            takeSnapshot();
+        }
+        startSnapshotScheduler();
+        metrics.registerGauge("sessions", sessions::size);
+        metrics.registerGauge("journalSeq", journal::getLastSeq);
+        metrics.registerGauge("ratesVersion", () -> CurrencyConverter.rates().getVersion());
+        metrics.registerGauge("idempotencyKeys", idempotencyCache::size);
+        metrics.registerGauge("idempotentReplays", idempotencyCache::getReplays);
+        metrics.registerGauge("shards", shards::getShardCount);
+        metrics.registerGauge("shardQueuedTasks", shards::getQueuedTasks);
+        metrics.registerGauge("pendingTransfers", pendingTransfers::size);
+    }
+    
+    private MutationExecutor createMutationExecutor() {
+        if ("ring".equalsIgnoreCase(Config.MUTATION_ENGINE)) {
+            LedgerRing ledger = new LedgerRing(Config.LEDGER_RING_SIZE, "BankService-ledger");
+            metrics.registerGauge("ledgerSequence", ledger::getSequence);
+            return ledger;
+        }
+        return new ShardExecutor(Config.SHARD_COUNT, "BankService-shard");
+    }
+    
+    // Файлы истории в состоянии на момент снимка (без снимка история строится заново)
+    private void openHistory(SnapshotStore.Snapshot snapshot) {
+        try {
+            if (snapshot != null) {
+                historyStore.open(snapshot.historyBlocks, snapshot.historyTextLength);
+            } else {
+                historyStore.open(0, 0);
+            }
+        } catch (IOException e) {
+            logger.error("Не удалось открыть историю операций: " + e.getMessage());
+        }
+    }
+    
+    // Поврежденный журнал останавливает запуск: данные без части подтвержденных
+    // операций не должны обслуживать клиентов
+    private void replayJournal(long snapshotSeq) {
+        try {
+            int replayed = journal.replay(snapshotSeq, this::apply);
+            if (replayed > 0) {
+                logger.info("Восстановлено записей из журнала: " + replayed);
+            }
+        } catch (IOException e) {
+            logger.error("Не удалось восстановить данные из журнала: " + e.getMessage());
+            throw new UncheckedIOException("Журнал поврежден", e);
+        }
+    }
+    
+    private void openJournal(long snapshotSeq) {
+        try {
+            journal.open(snapshotSeq);
+        } catch (IOException e) {
+            logger.error("Не удалось открыть журнал: " + e.getMessage());
+        }
+    }
+    
+    private void restore(SnapshotStore.Snapshot snapshot) {
+        for (User user : snapshot.users) {
+            users.put(user.getLogin(), user);
+            accounts.putIfAbsent(user.getLogin(), new CopyOnWriteArrayList<>());
+        }
+        for (Account account : snapshot.accounts) {
+            accounts.computeIfAbsent(account.getOwner(), key -> new CopyOnWriteArrayList<>()).add(account);
+            indexAccount(account.getOwner(), account);
+        }
+        for (SnapshotStore.HistoryEntry entry : snapshot.histories) {
+            histories.put(entry.accountNumber, new AccountHistory(historyStore, entry));
+        }
+        for (JournalRecord debit : snapshot.pendingTransfers) {
+            pendingTransfers.put(debit.getTransferId(), debit);
+        }
+    }
+    
+    private void startSnapshotScheduler() {
+        snapshotScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "BankService-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshotScheduler.scheduleWithFixedDelay(this::snapshotIfChanged, 
+            Config.SNAPSHOT_INTERVAL, Config.SNAPSHOT_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+    
+    private void snapshotIfChanged() {
+        try {
+            if (journal.getLastSeq() > lastSnapshotSeq) {
+                takeSnapshot();
+            }
+        } catch (RuntimeException e) {
+            logger.error("Ошибка создания снимка данных: " + e);
+        }
+    }
+    
+    // Снимок состояния на номер последней поставленной в журнал записи. Под блокировкой
+    // на запись копируются только балансы и размеры историй; запись файла, удаление
+    // старых снимков и покрытых ими сегментов журнала выполняются в фоне.
+    private synchronized boolean takeSnapshot() {
+        long started = System.nanoTime();
+        SnapshotStore.Snapshot snapshot;
+        stateLock.writeLock().lock();
+        try {
+            snapshot = captureSnapshot(journal.getLastSeq());
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+        
+        try {
+            // В снимок не должны попасть изменения, не записанные в журнал
+            if (!journal.awaitFlushed(snapshot.getLastSeq())) {
+                logger.warn("Снимок данных пропущен: журнал недоступен");
+                return false;
+            }
+            // Записи истории, на которые ссылается снимок, должны быть на диске раньше него
+            historyStore.force();
+            long coveredSeq = snapshots.write(snapshot);
+            lastSnapshotSeq = snapshot.getLastSeq();
+            journal.roll();
+            journal.compact(coveredSeq);
+            metrics.recordSnapshot(System.nanoTime() - started);
+            logger.info("Сохранен снимок данных на запись журнала " + snapshot.getLastSeq());
+            return true;
+        } catch (IOException e) {
+            logger.error("Ошибка сохранения снимка данных: " + e.getMessage());
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+    
+    private SnapshotStore.Snapshot captureSnapshot(long lastSeq) {
+        SnapshotStore.Snapshot snapshot = new SnapshotStore.Snapshot(lastSeq);
+        snapshot.users.addAll(users.values());
+        for (Map.Entry<String, List<Account>> entry : accounts.entrySet()) {
+            for (Account account : entry.getValue()) {
+                snapshot.accounts.add(new Account(account.getAccountNumber(), entry.getKey(), 
+                    account.getBalance(), account.getCurrency()));
+            }
+        }
+        snapshot.historyBlocks = historyStore.getBlockCount();
+        snapshot.historyTextLength = historyStore.getTextLength();
+        for (AccountHistory history : histories.values()) {
+            snapshot.histories.add(history.capture());
+        }
+        snapshot.pendingTransfers.addAll(pendingTransfers.values());
+        return snapshot;
+    }
+    
+    // Последний снимок при остановке ускоряет следующий запуск
+    public void shutdown() {
+        shards.shutdown();
+        if (snapshotScheduler != null) {
+            snapshotScheduler.shutdownNow();
+        }
+        ratesReloader.stop();
+        snapshotIfChanged();
+        journal.close();
+        historyStore.close();
     }
     
     private void ensureDataDirectories() {
@@ -41,83 +287,241 @@ public class BankService {
             Files.createDirectories(Paths.get(Config.USER_DATA_FILE).getParent());
             Files.createDirectories(Paths.get(Config.ACCOUNT_DATA_FILE).getParent());
             Files.createDirectories(Paths.get(Config.TRANSACTION_DATA_FILE).getParent());
+            Files.createDirectories(Paths.get(Config.JOURNAL_DIR));
+            Files.createDirectories(Paths.get(Config.SNAPSHOT_DIR));
+            Files.createDirectories(Paths.get(Config.HISTORY_DIR));
         } catch (IOException e) {
             logger.warn("Не удалось создать директории для данных: " + e.getMessage());
         }
     }
     
+    // Файлы читаются параллельно и потоково (LegacyDataLoader): записи сразу попадают
+    // в рабочие структуры, индекс счетов строится и пароли хешируются по ходу загрузки
     private void loadData() {
-        // Загрузка пользователей
-        try (Reader reader = Files.newBufferedReader(Paths.get(Config.USER_DATA_FILE), StandardCharsets.UTF_8)) {
-            Type userType = new TypeToken<Map<String, User>>(){}.getType();
-            Map<String, User> loadedUsers = gson.fromJson(reader, userType);
-            if (loadedUsers != null) {
-                users.putAll(loadedUsers);
+        long started = System.nanoTime();
+        ExecutorService loaders = Executors.newFixedThreadPool(3, runnable -> {
+            Thread thread = new Thread(runnable, "BankService-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            CompletableFuture<Integer> loadedUsers = CompletableFuture.supplyAsync(() -> loadFile("пользователей", 
+                () -> LegacyDataLoader.loadUsers(Paths.get(Config.USER_DATA_FILE), user -> {
+                    users.put(user.getLogin(), user);
+                    accounts.putIfAbsent(user.getLogin(), new CopyOnWriteArrayList<>());
+                })), loaders);
+            CompletableFuture<Integer> loadedAccounts = CompletableFuture.supplyAsync(() -> loadFile("счета", 
+                () -> LegacyDataLoader.loadAccounts(Paths.get(Config.ACCOUNT_DATA_FILE), (owner, account) -> {
+                    accounts.computeIfAbsent(owner, key -> new CopyOnWriteArrayList<>()).add(account);
+                    indexAccount(owner, account);
+                })), loaders);
+            CompletableFuture<Integer> loadedTransactions = CompletableFuture.supplyAsync(() -> loadFile("транзакции", 
+                () -> LegacyDataLoader.loadTransactions(Paths.get(Config.TRANSACTION_DATA_FILE), (owner, transaction) -> 
+                    histories.computeIfAbsent(transaction.getAccountNumber(), 
+                        key -> new AccountHistory(historyStore, key, owner)).append(transaction))), loaders);
+            
+            logger.info(String.format("Данные старого формата загружены за %d мс: пользователей %d, счетов %d, транзакций %d", 
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started), 
+                loadedUsers.join(), loadedAccounts.join(), loadedTransactions.join()));
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw (UncheckedIOException) e.getCause();
             }
-        } catch (IOException e) {
-            logger.warn("Не удалось загрузить пользователей: " + e.getMessage());
+            throw e;
+        } finally {
+            loaders.shutdown();
         }
-        
-        // Загрузка счетов
-        try (Reader reader = Files.newBufferedReader(Paths.get(Config.ACCOUNT_DATA_FILE), StandardCharsets.UTF_8)) {
-            Type accountType = new TypeToken<Map<String, List<Account>>>(){}.getType();
-            Map<String, List<Account>> loadedAccounts = gson.fromJson(reader, accountType);
-            if (loadedAccounts != null) {
-                accounts.putAll(loadedAccounts);
+    }
+    
+    private interface LoadTask {
+        int load() throws IOException;
+    }
+    
+    // Число загруженных записей; отсутствующий файл - пустые данные. Ошибка чтения
+    // останавливает запуск: иначе частично загруженные данные попали бы в снимок,
+    // и JSON-файлы больше никогда не читались бы
+    private int loadFile(String what, LoadTask task) {
+        try {
+            return task.load();
+        } catch (NoSuchFileException e) {
+            return 0;
+        } catch (IOException | RuntimeException e) {
+            logger.error("Не удалось загрузить " + what + ": " + e.getMessage());
+            throw new UncheckedIOException("Данные старого формата повреждены", 
+                e instanceof IOException ? (IOException) e : new IOException(e));
+        }
+    }
+    
+    private void indexAccount(String owner, Account account) {
+        accountIndex.put(account.getAccountNumber(), account);
+        accountOwners.put(account.getAccountNumber(), owner);
+    }
+    
+    private void unindexAccount(String accountNumber) {
+        accountIndex.remove(accountNumber);
+        accountOwners.remove(accountNumber);
+    }
+    
+    // Фиксирует мутацию: запись ставится в очередь журнала и сразу применяется к данным
+    // в памяти (в потоке шарда, поэтому порядок в журнале совпадает с порядком применения).
+    // Ответ клиенту отдается только после сброса записи на диск; ожидание выполняется
+    // вне потока шарда, и записи параллельных операций попадают в общий fsync.
+    // Если сброс не удался, клиент получает ошибку сохранения, хотя данные в памяти уже
+    // изменены. Сервер после этого работает в режиме остановки записи: журнал отклоняет
+    // все следующие мутации, снимки не создаются (takeSnapshot ждет сброса), реплики
+    // получают только сброшенные записи. Согласованное состояние восстанавливается
+    // перезапуском из снимка и журнала на диске, без неудавшейся операции.
+    private CompletableFuture<Void> stage(JournalRecord record) {
+        stateLock.readLock().lock();
+        try {
+            CompletableFuture<Void> durable = journal.append(record);
+            if (!durable.isCompletedExceptionally()) {
+                apply(record);
             }
-        } catch (IOException e) {
-            logger.warn("Не удалось загрузить счета: " + e.getMessage());
+            return durable;
+        } finally {
+            stateLock.readLock().unlock();
         }
-        
-        // Загрузка транзакций
-        try (Reader reader = Files.newBufferedReader(Paths.get(Config.TRANSACTION_DATA_FILE), StandardCharsets.UTF_8)) {
-            Type transactionType = new TypeToken<Map<String, List<Transaction>>>(){}.getType();
-            Map<String, List<Transaction>> loadedTransactions = gson.fromJson(reader, transactionType);
-            if (loadedTransactions != null) {
-                transactions.putAll(loadedTransactions);
+    }
+    
+    private CompletableFuture<Void> stageAll(List<JournalRecord> records) {
+        stateLock.readLock().lock();
+        try {
+            CompletableFuture<Void> durable = journal.appendAll(records);
+            if (!durable.isCompletedExceptionally()) {
+                for (JournalRecord record : records) {
+                    apply(record);
+                }
             }
-        } catch (IOException e) {
-            logger.warn("Не удалось загрузить транзакции: " + e.getMessage());
+            return durable;
+        } finally {
+            stateLock.readLock().unlock();
         }
     }
     
-    private void saveData() {
-        // Сохранение пользователей
-        try (Writer writer = Files.newBufferedWriter(Paths.get(Config.USER_DATA_FILE), StandardCharsets.UTF_8)) {
-            gson.toJson(users, writer);
-        } catch (IOException e) {
-            logger.error("Ошибка сохранения пользователей: " + e.getMessage());
+    // Ожидание сброса записей на диск (ошибку записи журнал уже записал в лог)
+    private static boolean awaitDurable(CompletableFuture<Void> durable) {
+        try {
+            durable.join();
+            return true;
+        } catch (CompletionException e) {
+            return false;
         }
-        
-        // Сохранение счетов
-        try (Writer writer = Files.newBufferedWriter(Paths.get(Config.ACCOUNT_DATA_FILE), StandardCharsets.UTF_8)) {
-            gson.toJson(accounts, writer);
-        } catch (IOException e) {
-            logger.error("Ошибка сохранения счетов: " + e.getMessage());
+    }
+    
+    // Применение записи журнала к данным в памяти (общий путь для операций и восстановления)
+    private void apply(JournalRecord record) {
+        switch (record.getType()) {
+            case REGISTER:
+                users.put(record.getLogin(), new User(record.getLogin(), record.getPassword()));
+                accounts.putIfAbsent(record.getLogin(), new CopyOnWriteArrayList<>());
+                publishAccounts(record.getLogin());
+                break;
+            
+            case CREATE_ACCOUNT:
+                Account account = new Account(record.getAccountNumber(), record.getLogin(), 0L, record.getCurrency());
+                accounts.computeIfAbsent(record.getLogin(), key -> new CopyOnWriteArrayList<>()).add(account);
+                indexAccount(record.getLogin(), account);
+                publishAccounts(record.getLogin());
+                break;
+            
+            case DELETE_ACCOUNT:
+                List<Account> userAccounts = accounts.get(record.getLogin());
+                if (userAccounts != null) {
+                    userAccounts.removeIf(acc -> acc.getAccountNumber().equals(record.getAccountNumber()));
+                }
+                unindexAccount(record.getAccountNumber());
+                publishAccounts(record.getLogin());
+                break;
+            
+            case DEPOSIT:
+                findAccountByNumber(record.getAccountNumber()).deposit(record.getAmount());
+                addTransaction(record.getTransaction(), null, 0, null);
+                publishAccounts(findOwnerByAccountNumber(record.getAccountNumber()));
+                break;
+            
+            case WITHDRAW:
+                findAccountByNumber(record.getAccountNumber()).withdraw(record.getAmount());
+                addTransaction(record.getTransaction(), null, 0, null);
+                publishAccounts(findOwnerByAccountNumber(record.getAccountNumber()));
+                break;
+            
+            case TRANSFER:
+                findAccountByNumber(record.getAccountNumber()).withdraw(record.getAmount());
+                findAccountByNumber(record.getTargetAccount()).deposit(record.getConvertedAmount());
+                addTransaction(record.getTransaction(), record.getTargetAccount(), 
+                    record.getConvertedAmount(), record.getTargetTransaction().getCurrency());
+                addTransaction(record.getTargetTransaction(), record.getAccountNumber(), 
+                    record.getAmount(), record.getTransaction().getCurrency());
+                publishAccounts(findOwnerByAccountNumber(record.getAccountNumber()));
+                publishAccounts(findOwnerByAccountNumber(record.getTargetAccount()));
+                break;
+            
+            case TRANSFER_DEBIT:
+                findAccountByNumber(record.getAccountNumber()).withdraw(record.getAmount());
+                addTransaction(record.getTransaction(), record.getTargetAccount(), 
+                    record.getConvertedAmount(), record.getTargetTransaction().getCurrency());
+                pendingTransfers.put(record.getTransferId(), record);
+                publishAccounts(findOwnerByAccountNumber(record.getAccountNumber()));
+                break;
+            
+            case TRANSFER_CREDIT:
+                findAccountByNumber(record.getTargetAccount()).deposit(record.getConvertedAmount());
+                addTransaction(record.getTargetTransaction(), record.getAccountNumber(), 
+                    record.getAmount(), record.getTransaction().getCurrency());
+                pendingTransfers.remove(record.getTransferId());
+                publishAccounts(findOwnerByAccountNumber(record.getTargetAccount()));
+                break;
+            
+            case TRANSFER_REFUND:
+                findAccountByNumber(record.getAccountNumber()).deposit(record.getAmount());
+                addTransaction(record.getTargetTransaction(), null, 0, null);
+                pendingTransfers.remove(record.getTransferId());
+                publishAccounts(findOwnerByAccountNumber(record.getAccountNumber()));
+                break;
         }
-        
-        // Сохранение транзакций
-        try (Writer writer = Files.newBufferedWriter(Paths.get(Config.TRANSACTION_DATA_FILE), StandardCharsets.UTF_8)) {
-            gson.toJson(transactions, writer);
-        } catch (IOException e) {
-            logger.error("Ошибка сохранения транзакций: " + e.getMessage());
+    }
+    
+    // Новая версия счетов пользователя для чтения (вызывается после применения изменения).
+    // Изменения счетов пользователя выполняет один поток (его шард, поток LedgerRing или
+    // поток репликации), поэтому копии снимаются между изменениями и согласованы друг с другом.
+    // compute() упорядочивает публикации по пользователю: более старая копия не заменит новую.
+    private void publishAccounts(String login) {
+        if (login != null) {
+            accountViews.compute(login, (key, previous) -> AccountsView.of(key, accounts.get(key)));
         }
     }
     
-    // Миграция паролей в хешированные (для существующих пользователей)
-    private void migratePasswordsToHashed() {
-        boolean needsSave = false;
-        for (User user : users.values()) {
-            String password = user.getPassword();
-            // Если пароль не хеширован (не начинается с цифр/букв хеша SHA-256)
-            if (password.length() < 64 || !password.matches("[0-9a-f]{64}")) {
-                String hashedPassword = PasswordHasher.hash(password);
-                users.put(user.getLogin(), new User(user.getLogin(), hashedPassword));
-                needsSave = true;
+    // Неизменяемые копии счетов пользователя. Читатели получают их одним чтением из
+    // accountViews без блокировок и не видят промежуточного состояния перевода между
+    // своими счетами; запись не ждет читателей.
+    private static final class AccountsView {
+        final long version;
+        final List<Account> accounts;
+        
+        private AccountsView(long version, List<Account> accounts) {
+            this.version = version;
+            this.accounts = accounts;
+        }
+        
+        static AccountsView of(String login, List<Account> source) {
+            List<Account> copies = new ArrayList<>(source != null ? source.size() : 0);
+            if (source != null) {
+                for (Account account : source) {
+                    copies.add(new Account(account.getAccountNumber(), login, account.getBalance(),
+                        account.getCurrency()));
+                }
             }
+            return new AccountsView(versionCounter.incrementAndGet(), Collections.unmodifiableList(copies));
         }
-        if (needsSave) {
-            saveData();
+        
+        Account find(String accountNumber) {
+            for (Account account : accounts) {
+                if (account.getAccountNumber().equals(accountNumber)) {
+                    return account;
+                }
+            }
+            return null;
         }
     }
     
@@ -134,12 +538,17 @@ public class BankService {
             return new BankResponse(false, "Пользователь с таким логином уже существует");
         }
         
+        // Повторная проверка в потоке шарда: регистрации одного логина идут в одном шарде по очереди
         String hashedPassword = PasswordHasher.hash(password);
-        users.put(login, new User(login, hashedPassword));
-        accounts.put(login, new ArrayList<>());
-        transactions.put(login, new ArrayList<>());
+        CompletableFuture<Void> durable = shards.call(shards.shardOf(login), () -> 
+            users.containsKey(login) ? null : stage(JournalRecord.register(login, hashedPassword)));
+        if (durable == null) {
+            return new BankResponse(false, "Пользователь с таким логином уже существует");
+        }
+        if (!awaitDurable(durable)) {
+            return new BankResponse(false, PERSISTENCE_FAILURE_MESSAGE);
+        }
         
-        saveData();
         logger.info("Зарегистрирован новый пользователь: " + login);
         return new BankResponse(true, "Регистрация успешна");
     }
@@ -157,56 +566,187 @@ public class BankService {
         return new BankResponse(false, "Неверный логин или пароль");
     }
     
+    public SessionManager getSessions() {
+        return sessions;
+    }
+    
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+    
+    public IdempotencyCache getIdempotencyCache() {
+        return idempotencyCache;
+    }
+    
+    HistoryStore getHistoryStore() {
+        return historyStore;
+    }
+    
+    Journal getJournal() {
+        return journal;
+    }
+    
+    // Номер последней записи, поставленной в журнал (у реплики номера те же, что у основного сервера)
+    public long getJournalSeq() {
+        return journal.getLastSeq();
+    }
+    
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+    
+    // Поток записей основного сервера, который применяет эта реплика
+    void follow(ReplicationClient client) {
+        this.replication = client;
+        metrics.registerGauge("replicationLag", () -> {
+            Long lag = getReplicationLag();
+            return lag != null ? lag : 0L;
+        });
+        metrics.registerGauge("appliedSeq", this::getAppliedSeq);
+    }
+    
+    // Отставание реплики от основного сервера в мс или null, если сервер не реплика
+    public Long getReplicationLag() {
+        ReplicationClient client = replication;
+        return client != null && readOnly ? client.getLagMillis() : null;
+    }
+    
+    // Запись журнала основного сервера на реплике (вызывается одним потоком репликации).
+    // Номера записей у реплики те же, что у основного сервера, поэтому пропуск записи в
+    // потоке обнаруживается сразу.
+    void applyReplicated(JournalRecord record) throws IOException {
+        long expected = journal.getLastSeq() + 1;
+        if (record.getSeq() != expected) {
+            throw new IOException("пропуск в потоке журнала: ожидалась запись " + expected 
+                + ", получена " + record.getSeq());
+        }
+        stateLock.readLock().lock();
+        try {
+            CompletableFuture<Void> durable = journal.append(record);
+            if (durable.isCompletedExceptionally()) {
+                throw new IOException("журнал реплики недоступен");
+            }
+            apply(record);
+            appliedSeq = record.getSeq();
+        } finally {
+            stateLock.readLock().unlock();
+        }
+    }
+    
+    // Номер последней записи основного сервера, изменения которой видны чтениям реплики
+    public long getAppliedSeq() {
+        return appliedSeq;
+    }
+    
+    // Реплика становится основным сервером: принимает изменения и завершает переводы,
+    // списанные основным сервером, но не зачисленные до его остановки
+    public synchronized void promote() {
+        if (!readOnly) {
+            return;
+        }
+        ReplicationClient client = replication;
+        if (client != null) {
+            client.stop();
+        }
+        // Новые номера счетов не должны совпасть с созданными основным сервером
+        for (String accountNumber : histories.keySet()) {
+            advanceAccountCounter(accountNumber);
+        }
+        for (String accountNumber : accountIndex.keySet()) {
+            advanceAccountCounter(accountNumber);
+        }
+        readOnly = false;
+        completePendingTransfers();
+        logger.info("Реплика переведена в режим основного сервера на записи журнала " + journal.getLastSeq());
+    }
+    
+    private static void advanceAccountCounter(String accountNumber) {
+        if (accountNumber.startsWith("ACC")) {
+            try {
+                long number = Long.parseLong(accountNumber.substring(3));
+                accountCounter.accumulateAndGet(number, Math::max);
+            } catch (NumberFormatException e) {
+                // Номер не из генератора сервера
+            }
+        }
+    }
+    
+    // Снимок для начальной загрузки реплики в файл file. Под блокировкой фиксируется то же
+    // состояние, что и для обычного снимка. Занятую часть HistoryStore, на которую он ссылается,
+    // ReplicationServer передает отдельно (история только дописывается). Возвращает снимок.
+    SnapshotStore.Snapshot exportSnapshot(Path file) throws IOException {
+        SnapshotStore.Snapshot snapshot;
+        stateLock.writeLock().lock();
+        try {
+            snapshot = captureSnapshot(journal.getLastSeq());
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+        try {
+            // Реплика продолжит с записей после снимка, поэтому в нем не должно быть несохраненных
+            if (!journal.awaitFlushed(snapshot.getLastSeq())) {
+                throw new IOException("журнал недоступен");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("прервано");
+        }
+        snapshots.export(snapshot, file);
+        return snapshot;
+    }
+    
     public BankResponse createAccount(String login, String currency) {
         if (currency == null || currency.trim().isEmpty()) {
             return new BankResponse(false, "Валюта не может быть пустой");
         }
         
         String currencyUpper = currency.trim().toUpperCase();
-        if (!currencyUpper.equals("RUB") && !currencyUpper.equals("USD") && !currencyUpper.equals("EUR")) {
-            return new BankResponse(false, "Неверная валюта. Допустимые значения: RUB, USD, EUR");
-        }
-        
-        if (!accounts.containsKey(login)) {
-            accounts.put(login, new ArrayList<>());
+        CurrencyConverter.Rates rates = CurrencyConverter.rates();
+        if (!rates.isSupported(currencyUpper)) {
+            return new BankResponse(false, "Неверная валюта. Допустимые значения: "
+                + String.join(", ", rates.getCurrencies()));
         }
         
         String accountNumber = generateAccountNumber();
-        Account newAccount = new Account(accountNumber, login, 0.0, currencyUpper);
-        accounts.get(login).add(newAccount);
+        JournalRecord record = JournalRecord.createAccount(login, accountNumber, currencyUpper);
+        if (!awaitDurable(shards.call(shards.shardOf(login), () -> stage(record)))) {
+            return new BankResponse(false, PERSISTENCE_FAILURE_MESSAGE);
+        }
         
-        saveData();
         logger.info("Создан новый счет " + accountNumber + " для пользователя " + login);
         
         return new BankResponse(true, "Счет успешно создан: " + accountNumber);
     }
     
     public BankResponse deleteAccount(String login, String accountNumber) {
-        List<Account> userAccounts = accounts.get(login);
-        if (userAccounts != null) {
-            Account account = userAccounts.stream()
-                    .filter(acc -> acc.getAccountNumber().equals(accountNumber))
-                    .findFirst()
-                    .orElse(null);
+        return complete(shards.call(shards.shardOf(login), () -> stage(prepareDeleteAccount(login, accountNumber))));
+    }
+    
+    private PreparedOperation prepareDeleteAccount(String login, String accountNumber) {
+        Account account = findAccount(login, accountNumber);
+        if (account != null) {
+            if (account.getBalance() > 0) {
+                return PreparedOperation.rejected(
+                    String.format("Невозможно удалить счет. На счете осталось средств: %s", 
+                        formatAmount(account.getBalance(), account.getCurrency())));
+            }
             
-            if (account != null) {
-                if (account.getBalance() > 0) {
-                    return new BankResponse(false, 
-                        String.format("Невозможно удалить счет. На счете осталось средств: %.2f %s", 
-                            account.getBalance(), account.getCurrency()));
-                }
-                
-                userAccounts.remove(account);
-                saveData();
-                logger.info("Счет " + accountNumber + " удален для пользователя " + login);
-                return new BankResponse(true, "Счет успешно удален");
+            // Возврат незавершенного перевода должен найти исходный счет
+            if (hasPendingTransferFrom(accountNumber)) {
+                return PreparedOperation.rejected("Невозможно удалить счет: перевод со счета еще не завершен");
             }
+            
+            return new PreparedOperation(JournalRecord.deleteAccount(login, accountNumber),
+                new BankResponse(true, "Счет успешно удален"),
+                () -> "Счет " + accountNumber + " удален для пользователя " + login);
         }
-        return new BankResponse(false, "Счет не найден");
+        return PreparedOperation.rejected("Счет не найден");
     }
     
+    // Баланс из опубликованной копии счетов пользователя, без блокировок
     public BankResponse getBalance(String login, String accountNumber) {
-        Account account = findAccount(login, accountNumber);
+        AccountsView view = login != null ? accountViews.get(login) : null;
+        Account account = view != null && accountNumber != null ? view.find(accountNumber) : null;
         if (account != null) {
             BankResponse response = new BankResponse(true, "Баланс получен");
             response.setBalance(account.getBalance());
@@ -215,173 +755,504 @@ public class BankService {
         return new BankResponse(false, "Счет не найден");
     }
     
-    public BankResponse deposit(String login, String accountNumber, double amount) {
+    public BankResponse deposit(String login, String accountNumber, long amount) {
+        return complete(shards.call(shards.shardOf(login), () -> 
+            stage(prepareDeposit(login, accountNumber, amount, null))));
+    }
+    
+    private PreparedOperation prepareDeposit(String login, String accountNumber, long amount,
+                                             Map<String, Long> pendingBalances) {
         Account account = findAccount(login, accountNumber);
+        if (account != null && amount > 0 && !fitsBalance(account, pendingBalances, amount)) {
+            return PreparedOperation.rejected(BALANCE_LIMIT_MESSAGE);
+        }
         if (account != null && amount > 0) {
-            account.deposit(amount);
-            addTransaction(accountNumber, "DEPOSIT", amount, account.getCurrency(), 
+            Transaction transaction = new Transaction(accountNumber, "DEPOSIT", amount, account.getCurrency(), 
                 "Пополнение счета");
-            saveData();
-            logger.info("Пополнение счета " + accountNumber + " на сумму " + amount);
-            return new BankResponse(true, "Счет успешно пополнен");
+            adjustPendingBalance(pendingBalances, account, amount);
+            return new PreparedOperation(JournalRecord.deposit(accountNumber, amount, transaction),
+                new BankResponse(true, "Счет успешно пополнен"),
+                () -> "Пополнение счета " + accountNumber + " на сумму " + formatAmount(amount, account.getCurrency()));
         }
-        return new BankResponse(false, "Ошибка пополнения счета");
+        return PreparedOperation.rejected("Ошибка пополнения счета");
     }
     
-    public BankResponse withdraw(String login, String accountNumber, double amount) {
+    public BankResponse withdraw(String login, String accountNumber, long amount) {
+        return complete(shards.call(shards.shardOf(login), () -> 
+            stage(prepareWithdraw(login, accountNumber, amount, null))));
+    }
+    
+    private PreparedOperation prepareWithdraw(String login, String accountNumber, long amount,
+                                              Map<String, Long> pendingBalances) {
         Account account = findAccount(login, accountNumber);
-        if (account != null && amount > 0 && account.getBalance() >= amount) {
-            account.withdraw(amount);
-            addTransaction(accountNumber, "WITHDRAW", amount, account.getCurrency(), 
+        if (account != null && amount > 0 && balanceOf(account, pendingBalances) >= amount) {
+            Transaction transaction = new Transaction(accountNumber, "WITHDRAW", amount, account.getCurrency(), 
                 "Снятие средств");
-            saveData();
-            logger.info("Снятие со счета " + accountNumber + " суммы " + amount);
-            return new BankResponse(true, "Средства успешно сняты");
+            adjustPendingBalance(pendingBalances, account, -amount);
+            return new PreparedOperation(JournalRecord.withdraw(accountNumber, amount, transaction),
+                new BankResponse(true, "Средства успешно сняты"),
+                () -> "Снятие со счета " + accountNumber + " суммы " + formatAmount(amount, account.getCurrency()));
+        }
+        return PreparedOperation.rejected("Недостаточно средств или счет не найден");
+    }
+    
+    public BankResponse transfer(String login, String fromAccount, String toAccount, long amount) {
+        return executeTransfer(login, toAccount, () -> prepareTransfer(login, fromAccount, toAccount, amount, null));
+    }
+    
+    // Перевод в пределах шарда - одна запись TRANSFER в потоке шарда. Перевод между шардами
+    // выполняется в два шага: проверка и списание в шарде отправителя (TRANSFER_DEBIT),
+    // затем зачисление в шарде получателя (TRANSFER_CREDIT). Если счет получателя за это
+    // время удален, средства возвращаются отправителю (TRANSFER_REFUND). Между шагами сумма
+    // не видна ни на одном из счетов; после сбоя перевод завершается при запуске.
+    private BankResponse executeTransfer(String login, String toAccount, Supplier<PreparedOperation> prepare) {
+        int sourceShard = shards.shardOf(login);
+        String targetOwner = findOwnerByAccountNumber(toAccount);
+        int targetShard = targetOwner != null ? shards.shardOf(targetOwner) : sourceShard;
+        if (targetShard == sourceShard) {
+            return complete(shards.call(sourceShard, () -> stage(prepare.get())));
+        }
+        
+        PreparedOperation debit = shards.call(sourceShard, () -> stage(asDebit(prepare.get())));
+        if (debit.record == null) {
+            return debit.response;
+        }
+        PreparedOperation credit = finishTransfer(debit.record);
+        // Запись зачисления (возврата) стоит в журнале после записи списания
+        if (!awaitDurable(debit.durable) || !awaitDurable(credit.durable)) {
+            return new BankResponse(false, PERSISTENCE_FAILURE_MESSAGE);
+        }
+        if (credit.record.getType() == JournalRecord.Type.TRANSFER_REFUND) {
+            logger.warn(credit.logMessage);
+            return credit.response;
+        }
+        logger.info(debit.logMessage);
+        return debit.response;
+    }
+    
+    // Проверенный перевод как шаг списания (отклоненный остается без изменений)
+    private static PreparedOperation asDebit(PreparedOperation transfer) {
+        if (transfer.record == null) {
+            return transfer;
+        }
+        return new PreparedOperation(JournalRecord.transferStep(JournalRecord.Type.TRANSFER_DEBIT, transfer.record),
+            transfer.response, transfer.logMessage);
+    }
+    
+    // Второй шаг перевода: зачисление в шарде получателя или возврат в шарде отправителя
+    private PreparedOperation finishTransfer(JournalRecord debit) {
+        String reason = "Счет получателя не найден";
+        String targetOwner = findOwnerByAccountNumber(debit.getTargetAccount());
+        if (targetOwner != null) {
+            PreparedOperation credit = shards.call(shards.shardOf(targetOwner), () -> stage(prepareCredit(debit)));
+            if (credit.record != null) {
+                return credit;
+            }
+            reason = credit.response.getMessage();
+        }
+        String sourceOwner = findOwnerByAccountNumber(debit.getAccountNumber());
+        String refundReason = reason;
+        return shards.call(shards.shardOf(sourceOwner), () -> stage(prepareRefund(debit, refundReason)));
+    }
+    
+    // Баланс получателя проверяется снова: между шагами на счет могли поступить средства
+    private PreparedOperation prepareCredit(JournalRecord debit) {
+        Account target = findAccountByNumber(debit.getTargetAccount());
+        if (target == null) {
+            return PreparedOperation.rejected("Счет получателя не найден");
+        }
+        if (!fitsBalance(target, null, debit.getConvertedAmount())) {
+            return PreparedOperation.rejected(BALANCE_LIMIT_TARGET_MESSAGE);
+        }
+        return new PreparedOperation(JournalRecord.transferStep(JournalRecord.Type.TRANSFER_CREDIT, debit),
+            new BankResponse(true, "Перевод выполнен успешно"),
+            () -> "Зачислен перевод " + debit.getTransferId() + " на счет " + debit.getTargetAccount());
+    }
+    
+    private PreparedOperation prepareRefund(JournalRecord debit, String reason) {
+        String fromAccount = debit.getAccountNumber();
+        String currency = debit.getTransaction().getCurrency();
+        String lowerReason = reason.toLowerCase(Locale.ROOT);
+        Transaction refund = new Transaction(fromAccount, "TRANSFER_IN", debit.getAmount(), currency, 
+            "Возврат перевода на счет " + debit.getTargetAccount() + ": " + lowerReason);
+        return new PreparedOperation(JournalRecord.transferRefund(debit, refund),
+            new BankResponse(false, reason + ". Средства возвращены на счет " + fromAccount),
+            () -> "Перевод " + debit.getTransferId() + " на счет " + debit.getTargetAccount() 
+                + " возвращен на счет " + fromAccount + ": " + lowerReason);
+    }
+    
+    private boolean hasPendingTransferFrom(String accountNumber) {
+        for (JournalRecord debit : pendingTransfers.values()) {
+            if (debit.getAccountNumber().equals(accountNumber)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    // Переводы между шардами, прерванные остановкой сервера между списанием и зачислением
+    private void completePendingTransfers() {
+        for (JournalRecord debit : new ArrayList<>(pendingTransfers.values())) {
+            if (findAccountByNumber(debit.getAccountNumber()) == null) {
+                logger.error("Незавершенный перевод " + debit.getTransferId() + ": исходный счет не найден");
+                continue;
+            }
+            PreparedOperation step = finishTransfer(debit);
+            if (awaitDurable(step.durable)) {
+                logger.info("Завершен прерванный перевод " + debit.getTransferId() + ": " 
+                    + (step.record.getType() == JournalRecord.Type.TRANSFER_CREDIT ? "зачислен" : "возвращен"));
+            }
         }
-        return new BankResponse(false, "Недостаточно средств или счет не найден");
     }
     
-    public BankResponse transfer(String login, String fromAccount, String toAccount, double amount) {
+    private PreparedOperation prepareTransfer(String login, String fromAccount, String toAccount, long amount,
+                                              Map<String, Long> pendingBalances) {
         Account source = findAccount(login, fromAccount);
         Account target = findAccountByNumber(toAccount);
         
         if (source == null) {
-            return new BankResponse(false, "Исходный счет не найден");
+            return PreparedOperation.rejected("Исходный счет не найден");
         }
         
         if (target == null) {
-            return new BankResponse(false, "Счет получателя не найден");
+            return PreparedOperation.rejected("Счет получателя не найден");
         }
         
         if (amount <= 0) {
-            return new BankResponse(false, "Сумма должна быть положительной");
+            return PreparedOperation.rejected("Сумма должна быть положительной");
         }
         
-        if (source.getBalance() < amount) {
-            return new BankResponse(false, "Недостаточно средств на счете");
+        if (balanceOf(source, pendingBalances) < amount) {
+            return PreparedOperation.rejected("Недостаточно средств на счете");
         }
         
         // Проверяем, нужна ли конвертация валют
         boolean needsConversion = !source.getCurrency().equals(target.getCurrency());
-        double convertedAmount = amount;
+        long convertedAmount = amount;
+        long fromRate = 0;
+        long toRate = 0;
         
         if (needsConversion) {
-            // Конвертация валют
-            if (!CurrencyConverter.isCurrencySupported(source.getCurrency()) || 
-                !CurrencyConverter.isCurrencySupported(target.getCurrency())) {
-                return new BankResponse(false, 
+            // Конвертация валют: проверка и курс из одного снимка, обновление курсов не блокирует перевод
+            CurrencyConverter.Rates rates = CurrencyConverter.rates();
+            if (!rates.isSupported(source.getCurrency()) || !rates.isSupported(target.getCurrency())) {
+                return PreparedOperation.rejected(
                     String.format("Одна из валют не поддерживается для конвертации. Исходный счет: %s, Счет получателя: %s", 
                         source.getCurrency(), target.getCurrency()));
             }
-            convertedAmount = CurrencyConverter.convert(amount, source.getCurrency(), target.getCurrency());
+            try {
+                convertedAmount = rates.convert(amount, source.getCurrency(), target.getCurrency());
+            } catch (ArithmeticException e) {
+                return PreparedOperation.rejected(BALANCE_LIMIT_TARGET_MESSAGE);
+            }
+            fromRate = rates.getBaseRate(source.getCurrency());
+            toRate = rates.getBaseRate(target.getCurrency());
         }
         
-        // Выполняем перевод
-        source.withdraw(amount);
-        target.deposit(convertedAmount);
-        
-        // Добавляем транзакции
-        String transferDescription = needsConversion
-            ? String.format("Перевод на счет %s (конвертация: %.2f %s -> %.2f %s)", 
-                toAccount, amount, source.getCurrency(), convertedAmount, target.getCurrency())
-            : "Перевод на счет " + toAccount;
+        if (!fitsBalance(target, pendingBalances, target == source ? convertedAmount - amount : convertedAmount)) {
+            return PreparedOperation.rejected(BALANCE_LIMIT_TARGET_MESSAGE);
+        }
         
-        addTransaction(fromAccount, "TRANSFER_OUT", amount, source.getCurrency(), transferDescription);
-        addTransaction(toAccount, "TRANSFER_IN", convertedAmount, target.getCurrency(), 
-            needsConversion
-                ? String.format("Перевод со счета %s (конвертация: %.2f %s -> %.2f %s)", 
-                    fromAccount, amount, source.getCurrency(), convertedAmount, target.getCurrency())
-                : "Перевод со счета " + fromAccount);
+        // Формируем транзакции (описания в формате HistoryStore)
+        Transaction outTransaction = new Transaction(fromAccount, "TRANSFER_OUT", amount, source.getCurrency(), 
+            HistoryStore.describe("TRANSFER_OUT", needsConversion, toAccount, amount, source.getCurrency(), 
+                convertedAmount, target.getCurrency()));
+        Transaction inTransaction = new Transaction(toAccount, "TRANSFER_IN", convertedAmount, target.getCurrency(), 
+            HistoryStore.describe("TRANSFER_IN", needsConversion, fromAccount, convertedAmount, target.getCurrency(), 
+                amount, source.getCurrency()));
         
-        saveData();
+        adjustPendingBalance(pendingBalances, source, -amount);
+        adjustPendingBalance(pendingBalances, target, convertedAmount);
+        JournalRecord record = JournalRecord.transfer(fromAccount, toAccount, amount, convertedAmount, 
+            fromRate, toRate, outTransaction, inTransaction);
+        long credited = convertedAmount;
         if (needsConversion) {
-            logger.info(String.format("Перевод с конвертацией: %.2f %s -> %.2f %s с %s на %s", 
-                amount, source.getCurrency(), convertedAmount, target.getCurrency(), fromAccount, toAccount));
-            return new BankResponse(true, 
-                String.format("Перевод выполнен успешно. Конвертировано: %.2f %s -> %.2f %s", 
-                    amount, source.getCurrency(), convertedAmount, target.getCurrency()));
-        } else {
-            logger.info("Перевод " + amount + " " + source.getCurrency() + " с " + fromAccount + " на " + toAccount);
-            return new BankResponse(true, "Перевод выполнен успешно");
+            return new PreparedOperation(record, new BankResponse(true, 
+                String.format("Перевод выполнен успешно. Конвертировано: %s -> %s", 
+                    formatAmount(amount, source.getCurrency()), formatAmount(credited, target.getCurrency()))),
+                () -> String.format("Перевод с конвертацией: %s -> %s с %s на %s", 
+                    formatAmount(amount, source.getCurrency()), formatAmount(credited, target.getCurrency()), fromAccount, toAccount));
+        }
+        return new PreparedOperation(record, new BankResponse(true, "Перевод выполнен успешно"),
+            () -> "Перевод " + formatAmount(amount, source.getCurrency()) + " с " + fromAccount + " на " + toAccount);
+    }
+    
+    // Пакет операций: проверяется и применяется целиком, пока остановлены шарды всех
+    // затронутых счетов; все записи попадают в журнал вместе с одним сбросом на диск
+    public BankResponse executeBatch(String login, BatchRequest batch) {
+        if (batch == null || batch.getMode() == null || batch.getItems() == null || batch.size() == 0) {
+            return new BankResponse(false, "Пакет операций пуст");
+        }
+        if (batch.size() > Config.MAX_BATCH_SIZE) {
+            return new BankResponse(false, "Слишком много операций в пакете (максимум " + Config.MAX_BATCH_SIZE + ")");
+        }
+        
+        // Шарды всех затронутых счетов: пакет выполняется целиком, пока они остановлены
+        Set<Integer> involved = new TreeSet<>();
+        involved.add(shards.shardOf(login));
+        for (BatchRequest.Item item : batch.getItems()) {
+            if (item == null) {
+                continue;
+            }
+            for (String accountNumber : Arrays.asList(item.getAccountNumber(), item.getTargetAccount())) {
+                String owner = findOwnerByAccountNumber(accountNumber);
+                if (owner != null) {
+                    involved.add(shards.shardOf(owner));
+                }
+            }
+        }
+        
+        List<PreparedOperation> prepared = new ArrayList<>();
+        CompletableFuture<Void> durable = shards.callAll(involved.stream().mapToInt(Integer::intValue).toArray(), () -> {
+            prepared.addAll(prepareBatch(login, batch));
+            List<JournalRecord> records = recordsOf(prepared);
+            boolean rejected = records.size() < prepared.size();
+            if (records.isEmpty() || (batch.getMode() == BatchRequest.Mode.ATOMIC && rejected)) {
+                return null;
+            }
+            return stageAll(records);
+        });
+        return completeBatch(login, batch, prepared, durable);
+    }
+    
+    private List<PreparedOperation> prepareBatch(String login, BatchRequest batch) {
+        // Балансы с учетом уже проверенных операций пакета
+        Map<String, Long> pendingBalances = new HashMap<>();
+        List<PreparedOperation> prepared = new ArrayList<>(batch.size());
+        for (BatchRequest.Item item : batch.getItems()) {
+            prepared.add(prepareBatchItem(login, item, pendingBalances));
+        }
+        return prepared;
+    }
+    
+    private static List<JournalRecord> recordsOf(List<PreparedOperation> prepared) {
+        List<JournalRecord> records = new ArrayList<>(prepared.size());
+        for (PreparedOperation operation : prepared) {
+            if (operation.record != null) {
+                records.add(operation.record);
+            }
+        }
+        return records;
+    }
+    
+    // Ответ на пакет; durable - null, если записи не ставились в журнал
+    private BankResponse completeBatch(String login, BatchRequest batch, List<PreparedOperation> prepared,
+                                       CompletableFuture<Void> durable) {
+        int accepted = recordsOf(prepared).size();
+        int rejected = prepared.size() - accepted;
+        List<BankResponse> results = new ArrayList<>(prepared.size());
+        
+        if (batch.getMode() == BatchRequest.Mode.ATOMIC && rejected > 0) {
+            for (PreparedOperation operation : prepared) {
+                results.add(operation.record != null
+                    ? new BankResponse(false, "Операция отменена: пакет не выполнен")
+                    : operation.response);
+            }
+            BankResponse response = new BankResponse(false, 
+                "Пакет отклонен: ошибок " + rejected + " из " + batch.size());
+            response.setResults(results);
+            return response;
+        }
+        
+        if (durable != null && !awaitDurable(durable)) {
+            for (PreparedOperation operation : prepared) {
+                results.add(operation.record != null
+                    ? new BankResponse(false, PERSISTENCE_FAILURE_MESSAGE)
+                    : operation.response);
+            }
+            BankResponse response = new BankResponse(false, PERSISTENCE_FAILURE_MESSAGE);
+            response.setResults(results);
+            return response;
+        }
+        
+        for (PreparedOperation operation : prepared) {
+            if (operation.record != null) {
+                logger.info(operation.logMessage);
+            }
+            results.add(operation.response);
+        }
+        logger.info(() -> "Пакет операций пользователя " + login + ": выполнено " + accepted + " из " + batch.size());
+        
+        BankResponse response = new BankResponse(true, rejected == 0
+            ? "Пакет выполнен: операций " + batch.size()
+            : "Пакет выполнен частично: " + accepted + " из " + batch.size());
+        response.setResults(results);
+        return response;
+    }
+    
+    private PreparedOperation prepareBatchItem(String login, BatchRequest.Item item, 
+                                               Map<String, Long> pendingBalances) {
+        if (item == null || item.getType() == null) {
+            return PreparedOperation.rejected("Некорректная операция пакета");
+        }
+        switch (item.getType()) {
+            case DEPOSIT:
+                return prepareDeposit(login, item.getAccountNumber(), item.getAmount(), pendingBalances);
+            case WITHDRAW:
+                return prepareWithdraw(login, item.getAccountNumber(), item.getAmount(), pendingBalances);
+            case TRANSFER:
+                return prepareTransfer(login, item.getAccountNumber(), item.getTargetAccount(), 
+                    item.getAmount(), pendingBalances);
+            default:
+                return PreparedOperation.rejected("Некорректная операция пакета");
+        }
+    }
+    
+    // Баланс счета с учетом еще не зафиксированных операций пакета (null - одиночная операция)
+    private static long balanceOf(Account account, Map<String, Long> pendingBalances) {
+        if (pendingBalances == null) {
+            return account.getBalance();
+        }
+        return pendingBalances.getOrDefault(account.getAccountNumber(), account.getBalance());
+    }
+    
+    // Зачисление не переполнит баланс (балансы неотрицательны, поэтому разность не переполняется)
+    private static boolean fitsBalance(Account account, Map<String, Long> pendingBalances, long amount) {
+        return amount <= Long.MAX_VALUE - balanceOf(account, pendingBalances);
+    }
+    
+    private static void adjustPendingBalance(Map<String, Long> pendingBalances, Account account, long delta) {
+        if (pendingBalances != null) {
+            pendingBalances.put(account.getAccountNumber(), balanceOf(account, pendingBalances) + delta);
+        }
+    }
+    
+    // Ставит проверенную операцию в журнал и применяет ее (вызывается в потоке шарда)
+    private PreparedOperation stage(PreparedOperation operation) {
+        if (operation.record != null) {
+            operation.durable = stage(operation.record);
+        }
+        return operation;
+    }
+    
+    // Ответ на операцию после сброса ее записи на диск (вызывается вне потока шарда)
+    private BankResponse complete(PreparedOperation operation) {
+        if (operation.record == null) {
+            return operation.response;
+        }
+        if (!awaitDurable(operation.durable)) {
+            return new BankResponse(false, PERSISTENCE_FAILURE_MESSAGE);
+        }
+        logger.info(operation.logMessage);
+        return operation.response;
+    }
+    
+    // Проверенная операция: запись журнала, ответ клиенту и сообщение в лог.
+    // Для отклоненной операции запись журнала отсутствует.
+    private static class PreparedOperation {
+        final JournalRecord record;
+        final BankResponse response;
+        final Supplier<String> logMessage;
+        CompletableFuture<Void> durable; // сброс записи на диск, после stage
+        
+        PreparedOperation(JournalRecord record, BankResponse response, Supplier<String> logMessage) {
+            this.record = record;
+            this.response = response;
+            this.logMessage = logMessage;
+        }
+        
+        static PreparedOperation rejected(String message) {
+            return new PreparedOperation(null, new BankResponse(false, message), null);
         }
     }
     
     // Перегруженный метод transfer с поддержкой конвертации валют
-    public BankResponse transfer(String login, String fromAccount, String toAccount, double amount,
+    public BankResponse transfer(String login, String fromAccount, String toAccount, long amount,
                                 String fromCurrency, String toCurrency) {
+        return executeTransfer(login, toAccount, 
+            () -> prepareTransfer(login, fromAccount, toAccount, amount, fromCurrency, toCurrency));
+    }
+    
+    private PreparedOperation prepareTransfer(String login, String fromAccount, String toAccount, long amount,
+                                              String fromCurrency, String toCurrency) {
         Account source = findAccount(login, fromAccount);
         Account target = findAccountByNumber(toAccount);
         
         if (source == null) {
-            return new BankResponse(false, "Исходный счет не найден");
+            return PreparedOperation.rejected("Исходный счет не найден");
         }
         
         if (target == null) {
-            return new BankResponse(false, "Счет получателя не найден");
+            return PreparedOperation.rejected("Счет получателя не найден");
         }
         
         // Проверяем, что переданные валюты соответствуют валютам счетов
         if (!source.getCurrency().equals(fromCurrency)) {
-            return new BankResponse(false, "Валюта исходного счета не совпадает");
+            return PreparedOperation.rejected("Валюта исходного счета не совпадает");
         }
         
         if (!target.getCurrency().equals(toCurrency)) {
-            return new BankResponse(false, "Валюта счета получателя не совпадает");
+            return PreparedOperation.rejected("Валюта счета получателя не совпадает");
         }
         
         if (amount <= 0) {
-            return new BankResponse(false, "Сумма должна быть положительной");
+            return PreparedOperation.rejected("Сумма должна быть положительной");
         }
         
         if (source.getBalance() < amount) {
-            return new BankResponse(false, "Недостаточно средств на счете");
+            return PreparedOperation.rejected("Недостаточно средств на счете");
         }
         
         // Конвертация валют, если необходимо
-        double convertedAmount = amount;
+        long convertedAmount = amount;
+        long fromRate = 0;
+        long toRate = 0;
         if (!fromCurrency.equals(toCurrency)) {
-            if (!CurrencyConverter.isCurrencySupported(fromCurrency) || 
-                !CurrencyConverter.isCurrencySupported(toCurrency)) {
-                return new BankResponse(false, "Одна из валют не поддерживается для конвертации");
+            CurrencyConverter.Rates rates = CurrencyConverter.rates();
+            if (!rates.isSupported(fromCurrency) || !rates.isSupported(toCurrency)) {
+                return PreparedOperation.rejected("Одна из валют не поддерживается для конвертации");
+            }
+            try {
+                convertedAmount = rates.convert(amount, fromCurrency, toCurrency);
+            } catch (ArithmeticException e) {
+                return PreparedOperation.rejected(BALANCE_LIMIT_TARGET_MESSAGE);
             }
-            convertedAmount = CurrencyConverter.convert(amount, fromCurrency, toCurrency);
+            fromRate = rates.getBaseRate(fromCurrency);
+            toRate = rates.getBaseRate(toCurrency);
         }
         
-        // Выполняем перевод
-        source.withdraw(amount);
-        target.deposit(convertedAmount);
-        
-        // Добавляем транзакции
-        String transferDescription = fromCurrency.equals(toCurrency) 
-            ? "Перевод на счет " + toAccount
-            : String.format("Перевод на счет %s (конвертация: %.2f %s -> %.2f %s)", 
-                toAccount, amount, fromCurrency, convertedAmount, toCurrency);
+        if (!fitsBalance(target, null, target == source ? convertedAmount - amount : convertedAmount)) {
+            return PreparedOperation.rejected(BALANCE_LIMIT_TARGET_MESSAGE);
+        }
         
-        addTransaction(fromAccount, "TRANSFER_OUT", amount, source.getCurrency(), transferDescription);
-        addTransaction(toAccount, "TRANSFER_IN", convertedAmount, target.getCurrency(), 
-            String.format("Перевод со счета %s (конвертация: %.2f %s -> %.2f %s)", 
-                fromAccount, amount, fromCurrency, convertedAmount, toCurrency));
+        // Формируем транзакции (описания в формате HistoryStore)
+        Transaction outTransaction = new Transaction(fromAccount, "TRANSFER_OUT", amount, source.getCurrency(), 
+            HistoryStore.describe("TRANSFER_OUT", !fromCurrency.equals(toCurrency), toAccount, amount, fromCurrency, 
+                convertedAmount, toCurrency));
+        Transaction inTransaction = new Transaction(toAccount, "TRANSFER_IN", convertedAmount, target.getCurrency(), 
+            HistoryStore.describe("TRANSFER_IN", true, fromAccount, convertedAmount, toCurrency, amount, fromCurrency));
         
-        saveData();
-        if (fromCurrency.equals(toCurrency)) {
-            logger.info("Перевод " + amount + " " + source.getCurrency() + " с " + fromAccount + " на " + toAccount);
-        } else {
-            logger.info(String.format("Перевод с конвертацией: %.2f %s -> %.2f %s с %s на %s", 
-                amount, fromCurrency, convertedAmount, toCurrency, fromAccount, toAccount));
-        }
-        return new BankResponse(true, "Перевод выполнен успешно");
+        JournalRecord record = JournalRecord.transfer(fromAccount, toAccount, amount, convertedAmount, 
+            fromRate, toRate, outTransaction, inTransaction);
+        long credited = convertedAmount;
+        return new PreparedOperation(record, new BankResponse(true, "Перевод выполнен успешно"),
+            fromCurrency.equals(toCurrency)
+                ? () -> "Перевод " + formatAmount(amount, source.getCurrency()) + " с " + fromAccount + " на " + toAccount
+                : () -> String.format("Перевод с конвертацией: %s -> %s с %s на %s", 
+                    formatAmount(amount, fromCurrency), formatAmount(credited, toCurrency), fromAccount, toAccount));
     }
     
     public BankResponse getAccounts(String login) {
-        // Получаем актуальный список счетов из памяти
-        List<Account> userAccounts = accounts.get(login);
-        BankResponse response = new BankResponse(true, "Счета получены");
-        // Создаем новый список, чтобы гарантировать актуальность данных
-        if (userAccounts != null) {
-            response.setAccounts(new ArrayList<>(userAccounts));
-        } else {
-            response.setAccounts(new ArrayList<>());
+        return getAccounts(login, null);
+    }
+    
+    // Счета с балансами и версией набора. Если версия не изменилась с sinceVersion,
+    // возвращается только признак notModified без списка счетов.
+    public BankResponse getAccounts(String login, Long sinceVersion) {
+        // Версия и счета берутся из одной опубликованной копии: список согласован
+        // и соответствует версии, писатели при этом не блокируются
+        AccountsView view = accountViews.computeIfAbsent(login, key -> AccountsView.of(key, null));
+        long version = view.version;
+        if (sinceVersion != null && sinceVersion == version) {
+            BankResponse response = new BankResponse(true, "Счета не изменились");
+            response.setVersion(version);
+            response.setNotModified(true);
+            return response;
         }
+        
+        BankResponse response = new BankResponse(true, "Счета получены");
+        response.setAccounts(new ArrayList<>(view.accounts));
+        response.setVersion(version);
         return response;
     }
     
@@ -390,60 +1261,66 @@ public class BankService {
         return account != null ? account.getCurrency() : null;
     }
     
+    // Полная история счета (от новых к старым)
     public BankResponse getTransactions(String login, String accountNumber) {
-        List<Transaction> accountTransactions = transactions.getOrDefault(login, new ArrayList<>())
-                .stream()
-                .filter(t -> t.getAccountNumber().equals(accountNumber))
-                .sorted((t1, t2) -> t2.getTimestampAsDateTime().compareTo(t1.getTimestampAsDateTime()))
-                .collect(Collectors.toList());
+        return getTransactions(login, accountNumber, Integer.MAX_VALUE, null, null);
+    }
+    
+    // Страница истории счета: limit записей до/после транзакции-курсора
+    public BankResponse getTransactions(String login, String accountNumber, int limit, 
+                                        String beforeId, String afterId) {
+        if (limit <= 0) {
+            return new BankResponse(false, "Размер страницы должен быть положительным");
+        }
+        
+        AccountHistory history = histories.get(accountNumber);
+        if (history == null || !history.getOwner().equals(login)) {
+            // Счет без операций (или чужой счет) - пустая история, как и раньше
+            BankResponse response = new BankResponse(true, "История транзакций получена");
+            response.setTransactions(new ArrayList<>());
+            return response;
+        }
+        
+        AccountHistory.Page page = history.page(limit, beforeId, afterId);
+        if (page == null) {
+            return new BankResponse(false, "Транзакция-курсор не найдена");
+        }
         
         BankResponse response = new BankResponse(true, "История транзакций получена");
-        response.setTransactions(accountTransactions);
+        response.setTransactions(page.getTransactions());
+        response.setHasMore(page.hasMore());
         return response;
     }
     
-    private void addTransaction(String accountNumber, String type, double amount, String currency, String description) {
-        String owner = findOwnerByAccountNumber(accountNumber);
+    // counterparty, counterAmount и counterCurrency - другая сторона перевода
+    private void addTransaction(Transaction transaction, String counterparty, long counterAmount, 
+                                String counterCurrency) {
+        String owner = findOwnerByAccountNumber(transaction.getAccountNumber());
         if (owner != null) {
-            if (!transactions.containsKey(owner)) {
-                transactions.put(owner, new ArrayList<>());
-            }
-            Transaction transaction = new Transaction(accountNumber, type, amount, currency, description);
-            transactions.get(owner).add(transaction);
+            histories.computeIfAbsent(transaction.getAccountNumber(), key -> new AccountHistory(historyStore, key, owner))
+                    .append(transaction, counterparty, counterAmount, counterCurrency);
         }
     }
     
     private String findOwnerByAccountNumber(String accountNumber) {
-        for (Map.Entry<String, List<Account>> entry : accounts.entrySet()) {
-            for (Account account : entry.getValue()) {
-                if (account.getAccountNumber().equals(accountNumber)) {
-                    return entry.getKey();
-                }
-            }
-        }
-        return null;
+        return accountNumber != null ? accountOwners.get(accountNumber) : null;
     }
     
+    // Счет пользователя: поиск по индексу с проверкой владельца
     private Account findAccount(String login, String accountNumber) {
-        List<Account> userAccounts = accounts.get(login);
-        if (userAccounts != null) {
-            return userAccounts.stream()
-                    .filter(acc -> acc.getAccountNumber().equals(accountNumber))
-                    .findFirst()
-                    .orElse(null);
+        Account account = findAccountByNumber(accountNumber);
+        if (account != null && login != null && login.equals(accountOwners.get(accountNumber))) {
+            return account;
         }
         return null;
     }
     
     private Account findAccountByNumber(String accountNumber) {
-        for (List<Account> accountList : accounts.values()) {
-            for (Account account : accountList) {
-                if (account.getAccountNumber().equals(accountNumber)) {
-                    return account;
-                }
-            }
-        }
-        return null;
+        return accountNumber != null ? accountIndex.get(accountNumber) : null;
+    }
+    
+    private static String formatAmount(long amount, String currency) {
+        return Money.format(amount, currency) + " " + currency;
     }
     
     private String generateAccountNumber() {
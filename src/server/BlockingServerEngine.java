@@ -0,0 +1,84 @@
+package server;
+
+import utils.Logger;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Блокирующий ввод-вывод: каждое соединение обслуживает отдельная задача исполнителя
+// (пул платформенных потоков или виртуальный поток на задачу)
+public class BlockingServerEngine implements ServerEngine {
+    private final BankService bankService;
+    private final Logger logger;
+    private final ExecutorService executor;
+    private final AtomicInteger activeConnections = new AtomicInteger();
+    private volatile boolean running;
+    private volatile ServerSocket serverSocket;
+    
+    public BlockingServerEngine(BankService bankService, Logger logger, ExecutorService executor) {
+        this.bankService = bankService;
+        this.logger = logger;
+        this.executor = executor;
+    }
+    
+    @Override
+    public void start(int port) throws IOException {
+        running = true;
+        try (ServerSocket socket = new ServerSocket(port)) {
+            serverSocket = socket;
+            logger.info("Сервер банка успешно запущен");
+            
+            while (running) {
+                Socket clientSocket = socket.accept();
+                logger.info("Новое подключение: " + clientSocket.getInetAddress());
+                
+                ClientHandler clientHandler = new ClientHandler(clientSocket, bankService, logger);
+                activeConnections.incrementAndGet();
+                executor.execute(() -> {
+                    try {
+                        clientHandler.run();
+                    } finally {
+                        activeConnections.decrementAndGet();
+                    }
+                });
+            }
+        } catch (IOException e) {
+            if (running) {
+                throw e;
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+    
+    @Override
+    public void stop() {
+        running = false;
+        ServerSocket socket = serverSocket;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                logger.error("Ошибка закрытия серверного сокета: " + e.getMessage());
+            }
+        }
+    }
+    
+    @Override
+    public int getActiveConnections() {
+        return activeConnections.get();
+    }
+    
+    // Запросы соединения выполняет его собственная задача, очередь есть только у пула
+    // с ограниченным числом потоков (кэширующий пул и виртуальные потоки ее не имеют)
+    @Override
+    public int getQueuedRequests() {
+        if (executor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) executor).getQueue().size();
+        }
+        return 0;
+    }
+}
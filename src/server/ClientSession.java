@@ -0,0 +1,226 @@
+package server;
+
+import common.*;
+import utils.Config;
+import utils.Logger;
+import java.util.UUID;
+
+// Состояние одного клиентского соединения (авторизованный пользователь и его сеанс) и разбор
+// операций. Не зависит от способа ввода-вывода, поэтому используется всеми
+// движками соединений (ClientHandler, NioServerEngine). Запросы одного сеанса
+// выполняются последовательно.
+public class ClientSession {
+    private final BankService bankService;
+    private final Logger logger;
+    private final SessionManager sessions;
+    private final ServerMetrics metrics;
+    private final IdempotencyCache idempotency;
+    private String currentUser;
+    private SessionManager.Session session;
+    
+    public ClientSession(BankService bankService, Logger logger) {
+        this.bankService = bankService;
+        this.logger = logger;
+        this.sessions = bankService.getSessions();
+        this.metrics = bankService.getMetrics();
+        this.idempotency = bankService.getIdempotencyCache();
+    }
+    
+    public String getCurrentUser() {
+        return currentUser;
+    }
+    
+    public BankResponse process(BankOperation operation, Object payload) {
+        return process(operation, payload, null);
+    }
+    
+    // Изменяющий запрос с ключом идемпотентности выполняется не больше одного раза:
+    // повтор с тем же ключом получает исходный ответ
+    public BankResponse process(BankOperation operation, Object payload, UUID idempotencyKey) {
+        long started = System.nanoTime();
+        BankResponse response;
+        if (bankService.isReadOnly() && (operation.isMutating() || operation == BankOperation.REGISTER)) {
+            // Отказ реплики не запоминается: после promote() повтор с тем же ключом выполнится
+            response = new BankResponse(false, "Сервер работает в режиме только для чтения (реплика)");
+        } else if (idempotencyKey != null && currentUser != null && operation.isMutating()) {
+            response = idempotency.execute(currentUser, idempotencyKey, operation,
+                () -> processWithJournalSeq(operation, payload));
+        } else {
+            response = processWithJournalSeq(operation, payload);
+        }
+        metrics.recordOperation(operation, response.isSuccess(), System.nanoTime() - started);
+        return response;
+    }
+    
+    // Номер записи журнала в ответе: после изменения - не меньше номера его записи (клиент
+    // сравнивает с ним номер реплики), при чтении с реплики - номер примененной записи и отставание.
+    // Номер реплики берется до чтения: запись, примененная во время чтения, могла в него не попасть
+    private BankResponse processWithJournalSeq(BankOperation operation, Object payload) {
+        if (isReplicaRead(operation) && bankService.isReadOnly()) {
+            long appliedSeq = bankService.getAppliedSeq();
+            BankResponse response = processSafely(operation, payload);
+            response.setJournalSeq(appliedSeq);
+            response.setReplicationLagMs(bankService.getReplicationLag());
+            return response;
+        }
+        BankResponse response = processSafely(operation, payload);
+        if (operation.isMutating() && response.isSuccess()) {
+            response.setJournalSeq(bankService.getJournalSeq());
+        }
+        return response;
+    }
+    
+    private static boolean isReplicaRead(BankOperation operation) {
+        return operation == BankOperation.GET_BALANCE || operation == BankOperation.GET_ACCOUNTS
+            || operation == BankOperation.GET_TRANSACTIONS;
+    }
+    
+    private BankResponse processSafely(BankOperation operation, Object payload) {
+        try {
+            return processOperation(operation, payload);
+        } catch (ClassCastException | NullPointerException | ArrayIndexOutOfBoundsException e) {
+            logger.warn("Некорректные данные операции " + operation + ": " + e);
+            return new BankResponse(false, "Некорректные данные запроса");
+        }
+    }
+    
+    private BankResponse processOperation(BankOperation operation, Object payload) {
+        // Операции, не требующие авторизации
+        if (operation == BankOperation.REGISTER || operation == BankOperation.LOGIN
+                || operation == BankOperation.RESUME) {
+            switch (operation) {
+                case REGISTER:
+                    User newUser = (User) payload;
+                    // Логин администратора нельзя занять регистрацией: учетную запись создают
+                    // до включения ее в Config.ADMIN_USERS
+                    if (newUser.getLogin() != null && Config.ADMIN_USERS.contains(newUser.getLogin().trim())) {
+                        return new BankResponse(false, "Пользователь с таким логином уже существует");
+                    }
+                    return bankService.register(newUser.getLogin(), newUser.getPassword());
+                
+                case LOGIN:
+                    User user = (User) payload;
+                    BankResponse loginResponse = bankService.authenticate(user.getLogin(), user.getPassword());
+                    if (loginResponse.isSuccess()) {
+                        // Повторный вход в том же соединении заменяет прежний сеанс
+                        if (session != null) {
+                            sessions.close(session);
+                        }
+                        bind(sessions.open(user.getLogin()), loginResponse);
+                    }
+                    return loginResponse;
+                
+                case RESUME:
+                    // Новое соединение того же клиента: токен вместо пароля
+                    SessionManager.Session resumed = sessions.resume((String) payload);
+                    if (resumed == null) {
+                        return new BankResponse(false, "Сеанс не найден или истек");
+                    }
+                    BankResponse resumeResponse = new BankResponse(true, "Сеанс восстановлен");
+                    bind(resumed, resumeResponse);
+                    return resumeResponse;
+                
+                default:
+                    return new BankResponse(false, "Неизвестная операция");
+            }
+        }
+        
+        // Проверка авторизации для всех остальных операций
+        if (currentUser == null) {
+            return new BankResponse(false, "Требуется авторизация");
+        }
+        sessions.touch(session);
+        
+        switch (operation) {
+            case CREATE_ACCOUNT:
+                String currency = (String) payload;
+                return bankService.createAccount(currentUser, currency);
+            
+            case DELETE_ACCOUNT:
+                String accountToDelete = (String) payload;
+                return bankService.deleteAccount(currentUser, accountToDelete);
+            
+            case GET_BALANCE:
+                String accountForBalance = (String) payload;
+                return bankService.getBalance(currentUser, accountForBalance);
+            
+            case DEPOSIT:
+                Object[] depositData = (Object[]) payload;
+                return bankService.deposit(currentUser, (String) depositData[0], (Long) depositData[1]);
+            
+            case WITHDRAW:
+                Object[] withdrawData = (Object[]) payload;
+                return bankService.withdraw(currentUser, (String) withdrawData[0], (Long) withdrawData[1]);
+            
+            case TRANSFER:
+                Object[] transferData = (Object[]) payload;
+                if (transferData.length == 5) {
+                    // Перевод с конвертацией валют
+                    return bankService.transfer(currentUser, (String) transferData[0], 
+                                              (String) transferData[1], (Long) transferData[2],
+                                              (String) transferData[3], (String) transferData[4]);
+                } else {
+                    // Обычный перевод (обратная совместимость)
+                    return bankService.transfer(currentUser, (String) transferData[0], 
+                                              (String) transferData[1], (Long) transferData[2]);
+                }
+            
+            case GET_ACCOUNTS:
+                // Необязательная версия, известная клиенту (передается только двоичным протоколом)
+                return bankService.getAccounts(currentUser, (Long) payload);
+            
+            case GET_TRANSACTIONS:
+                if (payload instanceof String) {
+                    // Полная история (обратная совместимость)
+                    return bankService.getTransactions(currentUser, (String) payload);
+                }
+                // Страница: {номер счета, размер страницы, курсор "до", курсор "после"}
+                Object[] pageData = (Object[]) payload;
+                return bankService.getTransactions(currentUser, (String) pageData[0], (Integer) pageData[1],
+                                                   (String) pageData[2], (String) pageData[3]);
+            
+            case BATCH:
+                return bankService.executeBatch(currentUser, (BatchRequest) payload);
+            
+            case STATS:
+                // Метрики сервера - только для администраторов (Config.ADMIN_USERS)
+                if (!Config.ADMIN_USERS.contains(currentUser)) {
+                    return new BankResponse(false, "Недостаточно прав");
+                }
+                BankResponse statsResponse = new BankResponse(true, "Метрики сервера");
+                statsResponse.setStats(metrics.toJsonString());
+                return statsResponse;
+            
+            case PROMOTE:
+                // Перевод реплики в основной сервер после остановки прежнего основного
+                if (!Config.ADMIN_USERS.contains(currentUser)) {
+                    return new BankResponse(false, "Недостаточно прав");
+                }
+                if (!bankService.isReadOnly()) {
+                    return new BankResponse(false, "Сервер уже работает как основной");
+                }
+                bankService.promote();
+                logger.warn("Реплика переведена в основной сервер администратором " + currentUser);
+                BankResponse promoteResponse = new BankResponse(true, "Сервер переведен в режим основного");
+                promoteResponse.setJournalSeq(bankService.getJournalSeq());
+                return promoteResponse;
+            
+            case LOGOUT:
+                sessions.close(session);
+                session = null;
+                currentUser = null;
+                return new BankResponse(true, "Выход выполнен");
+            
+            default:
+                return new BankResponse(false, "Неизвестная операция");
+        }
+    }
+    
+    // Привязывает соединение к сеансу и сообщает клиенту токен и срок его действия
+    private void bind(SessionManager.Session newSession, BankResponse response) {
+        session = newSession;
+        currentUser = newSession.getLogin();
+        response.setSessionToken(newSession.getToken());
+        response.setSessionExpiresAt(newSession.getExpiresAt());
+    }
+}
@@ -0,0 +1,70 @@
+package server;
+
+import utils.CurrencyConverter;
+import utils.Logger;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Перечитывает файл курсов валют при изменении (время изменения или размер) и
+// подменяет снимок курсов CurrencyConverter. Ошибочный файл не применяется, действуют
+// прежние курсы. Без файла используются курсы по умолчанию.
+public class ExchangeRatesReloader {
+    private final Path file;
+    private final Logger logger;
+    private ScheduledExecutorService scheduler;
+    private FileTime lastModified;
+    private long lastSize = -1;
+    
+    public ExchangeRatesReloader(Path file, Logger logger) {
+        this.file = file;
+        this.logger = logger;
+    }
+    
+    // Загружает курсы сразу и затем проверяет файл каждые intervalMillis
+    public synchronized void start(long intervalMillis) {
+        reloadIfChanged();
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ExchangeRates-reload");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::reloadIfChanged, intervalMillis, intervalMillis,
+            TimeUnit.MILLISECONDS);
+    }
+    
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+    
+    // true, если курсы обновлены
+    public synchronized boolean reloadIfChanged() {
+        try {
+            if (!Files.exists(file)) {
+                return false;
+            }
+            FileTime modified = Files.getLastModifiedTime(file);
+            long size = Files.size(file);
+            if (modified.equals(lastModified) && size == lastSize) {
+                return false;
+            }
+            lastModified = modified;
+            lastSize = size;
+            Map<String, Long> rates = CurrencyConverter.readRates(file);
+            CurrencyConverter.Rates applied = CurrencyConverter.update(rates);
+            logger.info("Загружены курсы валют (версия " + applied.getVersion() + "): " + applied.getCurrencies());
+            return true;
+        } catch (IOException | RuntimeException e) {
+            logger.error("Ошибка загрузки курсов валют из " + file + ": " + e.getMessage());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,536 @@
+package server;
+
+import common.Money;
+import common.Transaction;
+import utils.Logger;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+// История операций вне кучи Java: записи фиксированного размера в файлах
+// history-<номер>.dat, отображенных в память. Файлы делятся на блоки по BLOCK_RECORDS
+// записей; каждый счет получает свои блоки (см. AccountHistory), поэтому запись
+// находится по номеру блока и позиции без индексов в памяти.
+//
+// Описание операции не хранится, а строится заново при чтении из типа, суммы и
+// счета-корреспондента. Записи, которые не укладываются в фиксированный формат
+// (импортированные из старых версий), хранятся целиком в history-text.dat.
+//
+// Содержимое файлов согласовано со снимком данных: снимок сохраняет число занятых
+// блоков и длину history-text.dat, а перед его записью файлы сбрасываются на диск (force).
+// Реплика получает ту же часть файлов потоком (transferTo/receive) вместе со снимком.
+public class HistoryStore {
+    static final int RECORD_SIZE = 96;
+    static final int BLOCK_RECORDS = 16;
+    static final int BLOCK_SIZE = RECORD_SIZE * BLOCK_RECORDS;
+    
+    // Смещения полей записи
+    private static final int ID = 0;              // числовая часть идентификатора TXN<число>
+    private static final int AMOUNT = 8;
+    private static final int COUNTER_AMOUNT = 16; // сумма на другой стороне перевода с конвертацией
+    private static final int EPOCH_SECOND = 24;
+    private static final int NANOS = 32;
+    private static final int TYPE = 36;
+    private static final int FLAGS = 37;
+    private static final int CURRENCY = 38;
+    private static final int COUNTER_CURRENCY = 46;
+    private static final int COUNTERPARTY = 54;   // счет-корреспондент перевода
+    private static final int TEXT_OFFSET = 88;    // позиция записи в history-text.dat
+    private static final int CODE_LENGTH = 8;
+    private static final int COUNTERPARTY_LENGTH = 32;
+    
+    private static final String[] TYPES = {"DEPOSIT", "WITHDRAW", "TRANSFER_IN", "TRANSFER_OUT"};
+    private static final byte FLAG_CONVERTED = 1;
+    private static final byte FLAG_TEXT = 2;
+    
+    private static final String SEGMENT_PREFIX = "history-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    private static final String TEXT_FILE = "history-text.dat";
+    private static final int TRANSFER_CHUNK_BLOCKS = 64;
+    
+    private final Path directory;
+    private final int blocksPerSegment;
+    private final Logger logger;
+    // Отображения сегментов; массив заменяется целиком при добавлении сегмента
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private int nextBlock;
+    private FileChannel text;
+    private long textLength;
+    
+    public HistoryStore(String directory, long segmentSize, Logger logger) {
+        this.directory = Paths.get(directory);
+        this.blocksPerSegment = (int) Math.max(1, Math.min(segmentSize / BLOCK_SIZE, Integer.MAX_VALUE / BLOCK_SIZE));
+        this.logger = logger;
+    }
+    
+    // Открывает файлы в состоянии из снимка: blocks занятых блоков и textLength байт текста.
+    // Все, что записано дальше (после снимка до сбоя), будет перезаписано при повторе журнала.
+    public synchronized void open(int blocks, long textLength) throws IOException {
+        Files.createDirectories(directory);
+        int segmentCount = (blocks + blocksPerSegment - 1) / blocksPerSegment;
+        for (int i = 0; i < segmentCount; i++) {
+            if (!Files.exists(segmentPath(i))) {
+                logger.error("Файл истории операций не найден: " + segmentPath(i).getFileName());
+            }
+            mapSegment(i);
+        }
+        text = FileChannel.open(directory.resolve(TEXT_FILE), StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (text.size() < textLength) {
+            logger.error("Файл истории операций " + TEXT_FILE + " короче ожидаемого");
+        }
+        this.nextBlock = blocks;
+        this.textLength = textLength;
+    }
+    
+    public synchronized int getBlockCount() {
+        return nextBlock;
+    }
+    
+    public synchronized long getTextLength() {
+        return textLength;
+    }
+    
+    synchronized int allocateBlock() throws IOException {
+        int block = nextBlock;
+        int segment = block / blocksPerSegment;
+        if (segment >= segments.length) {
+            mapSegment(segment);
+        }
+        nextBlock++;
+        return block;
+    }
+    
+    // Записывает транзакцию в позицию slot блока block. counterparty, counterAmount и
+    // counterCurrency описывают другую сторону перевода (null для пополнения и снятия).
+    // Возвращает числовую часть идентификатора или -1, если идентификатор нестандартный.
+    long write(int block, int slot, Transaction transaction, String counterparty,
+               long counterAmount, String counterCurrency) throws IOException {
+        ByteBuffer buffer = segments[block / blocksPerSegment];
+        int offset = offsetOf(block, slot);
+        
+        long id = parseId(transaction.getId());
+        int type = typeCode(transaction.getType());
+        LocalDateTime timestamp = parseTimestamp(transaction.getTimestamp());
+        boolean fixed = id >= 0 && type >= 0 && timestamp != null
+            && fitsAscii(transaction.getCurrency(), CODE_LENGTH)
+            && (counterparty == null || fitsAscii(counterparty, COUNTERPARTY_LENGTH))
+            && (counterCurrency == null || fitsAscii(counterCurrency, CODE_LENGTH));
+        // Описание должно восстанавливаться из полей записи без потерь
+        byte flags = 0;
+        if (fixed && !describe(type, false, counterparty, transaction.getAmount(), transaction.getCurrency(),
+                counterAmount, counterCurrency).equals(transaction.getDescription())) {
+            flags = FLAG_CONVERTED;
+            fixed = counterparty != null && describe(type, true, counterparty, transaction.getAmount(),
+                transaction.getCurrency(), counterAmount, counterCurrency).equals(transaction.getDescription());
+        }
+        
+        buffer.putLong(offset + AMOUNT, transaction.getAmount());
+        if (!fixed) {
+            buffer.putLong(offset + ID, -1);
+            buffer.put(offset + FLAGS, FLAG_TEXT);
+            buffer.putLong(offset + TEXT_OFFSET, appendText(transaction));
+            return -1;
+        }
+        buffer.putLong(offset + ID, id);
+        buffer.putLong(offset + COUNTER_AMOUNT, counterAmount);
+        buffer.putLong(offset + EPOCH_SECOND, timestamp.toEpochSecond(ZoneOffset.UTC));
+        buffer.putInt(offset + NANOS, timestamp.getNano());
+        buffer.put(offset + TYPE, (byte) type);
+        buffer.put(offset + FLAGS, flags);
+        putAscii(buffer, offset + CURRENCY, CODE_LENGTH, transaction.getCurrency());
+        putAscii(buffer, offset + COUNTER_CURRENCY, CODE_LENGTH, counterCurrency);
+        putAscii(buffer, offset + COUNTERPARTY, COUNTERPARTY_LENGTH, counterparty);
+        return id;
+    }
+    
+    // Сброс отображенных файлов на диск (перед записью снимка данных)
+    public void force() throws IOException {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+        FileChannel channel;
+        synchronized (this) {
+            channel = text;
+        }
+        if (channel != null) {
+            channel.force(false);
+        }
+    }
+    
+    public synchronized void close() {
+        if (text == null) {
+            return;
+        }
+        try {
+            text.close();
+        } catch (IOException e) {
+            logger.error("Ошибка закрытия истории операций: " + e.getMessage());
+        }
+        text = null;
+    }
+    
+    // Передача реплике: первые blocks блоков и textLength байт текста из снимка данных
+    // ([blocks][textLength][блоки][текст]). Эти данные уже не меняются, запись новых операций
+    // идет в другие позиции, поэтому файлы читаются частями без остановки записи.
+    void transferTo(DataOutputStream out, int blocks, long textLength) throws IOException {
+        out.writeInt(blocks);
+        out.writeLong(textLength);
+        byte[] chunk = new byte[TRANSFER_CHUNK_BLOCKS * BLOCK_SIZE];
+        MappedByteBuffer[] mapped = segments;
+        for (int block = 0; block < blocks; ) {
+            int count = Math.min(Math.min(TRANSFER_CHUNK_BLOCKS, blocks - block),
+                blocksPerSegment - block % blocksPerSegment);
+            mapped[block / blocksPerSegment].get(offsetOf(block, 0), chunk, 0, count * BLOCK_SIZE);
+            out.write(chunk, 0, count * BLOCK_SIZE);
+            block += count;
+        }
+        FileChannel channel;
+        synchronized (this) {
+            channel = text;
+        }
+        if (channel == null && textLength > 0) {
+            throw new IOException("История операций закрыта");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(chunk);
+        for (long position = 0; position < textLength; ) {
+            buffer.clear().limit((int) Math.min(chunk.length, textLength - position));
+            readFully(channel, buffer, position);
+            out.write(chunk, 0, buffer.limit());
+            position += buffer.limit();
+        }
+    }
+    
+    // Прием данных transferTo в пустое хранилище (реплика до загрузки снимка данных)
+    synchronized void receive(DataInputStream in) throws IOException {
+        int blocks = in.readInt();
+        long length = in.readLong();
+        if (blocks < 0 || length < 0 || nextBlock != 0 || textLength != 0) {
+            throw new IOException("неверная передача истории операций");
+        }
+        byte[] chunk = new byte[TRANSFER_CHUNK_BLOCKS * BLOCK_SIZE];
+        for (int i = 0; i < blocks; i++) {
+            int block = allocateBlock();
+            in.readFully(chunk, 0, BLOCK_SIZE);
+            segments[block / blocksPerSegment].put(offsetOf(block, 0), chunk, 0, BLOCK_SIZE);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(chunk);
+        for (long position = 0; position < length; ) {
+            int size = (int) Math.min(chunk.length, length - position);
+            in.readFully(chunk, 0, size);
+            buffer.clear().limit(size);
+            while (buffer.hasRemaining()) {
+                text.write(buffer, position + buffer.position());
+            }
+            position += size;
+        }
+        textLength = length;
+    }
+    
+    // Представление записи без копирования данных: один объект перемещается по записям
+    // (at), а Transaction создается только для записей, которые уходят клиенту
+    View view() {
+        return new View();
+    }
+    
+    class View {
+        private ByteBuffer buffer;
+        private int offset;
+        
+        View at(int block, int slot) {
+            buffer = segments[block / blocksPerSegment];
+            offset = offsetOf(block, slot);
+            return this;
+        }
+        
+        boolean isText() {
+            return (buffer.get(offset + FLAGS) & FLAG_TEXT) != 0;
+        }
+        
+        // Числовая часть идентификатора (-1 для записей в текстовом виде)
+        long id() {
+            return buffer.getLong(offset + ID);
+        }
+        
+        String textId() throws IOException {
+            return readText(buffer.getLong(offset + TEXT_OFFSET)).getId();
+        }
+        
+        Transaction toTransaction(String accountNumber) throws IOException {
+            Transaction transaction;
+            if (isText()) {
+                transaction = readText(buffer.getLong(offset + TEXT_OFFSET));
+                transaction.setAmount(buffer.getLong(offset + AMOUNT));
+            } else {
+                int type = buffer.get(offset + TYPE);
+                long amount = buffer.getLong(offset + AMOUNT);
+                String currency = getAscii(buffer, offset + CURRENCY, CODE_LENGTH);
+                transaction = new Transaction();
+                transaction.setId("TXN" + buffer.getLong(offset + ID));
+                transaction.setType(TYPES[type]);
+                transaction.setAmount(amount);
+                transaction.setCurrency(currency);
+                transaction.setTimestamp(formatTimestamp(buffer.getLong(offset + EPOCH_SECOND), buffer.getInt(offset + NANOS)));
+                transaction.setDescription(describe(type, (buffer.get(offset + FLAGS) & FLAG_CONVERTED) != 0,
+                    getAscii(buffer, offset + COUNTERPARTY, COUNTERPARTY_LENGTH), amount, currency,
+                    buffer.getLong(offset + COUNTER_AMOUNT), getAscii(buffer, offset + COUNTER_CURRENCY, CODE_LENGTH)));
+            }
+            transaction.setAccountNumber(accountNumber);
+            return transaction;
+        }
+    }
+    
+    // Описание операции для истории (используется и при создании транзакций в BankService,
+    // чтобы обычные операции всегда укладывались в фиксированный формат)
+    static String describe(String type, boolean converted, String counterparty, long amount, String currency,
+                           long counterAmount, String counterCurrency) {
+        return describe(typeCode(type), converted, counterparty, amount, currency, counterAmount, counterCurrency);
+    }
+    
+    private static String describe(int type, boolean converted, String counterparty, long amount, String currency,
+                                   long counterAmount, String counterCurrency) {
+        switch (type) {
+            case 0:
+                return "Пополнение счета";
+            case 1:
+                return "Снятие средств";
+            case 2:
+                return converted
+                    ? "Перевод со счета " + counterparty + " (конвертация: " + formatAmount(counterAmount, counterCurrency)
+                        + " -> " + formatAmount(amount, currency) + ")"
+                    : "Перевод со счета " + counterparty;
+            case 3:
+                return converted
+                    ? "Перевод на счет " + counterparty + " (конвертация: " + formatAmount(amount, currency)
+                        + " -> " + formatAmount(counterAmount, counterCurrency) + ")"
+                    : "Перевод на счет " + counterparty;
+            default:
+                return null;
+        }
+    }
+    
+    private static String formatAmount(long amount, String currency) {
+        return Money.format(amount, currency) + " " + currency;
+    }
+    
+    private synchronized long appendText(Transaction transaction) throws IOException {
+        if (text == null) {
+            throw new IOException("История операций закрыта");
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0); // длина, заполняется ниже
+        SnapshotStore.writeString(out, transaction.getId());
+        SnapshotStore.writeString(out, transaction.getType());
+        SnapshotStore.writeString(out, transaction.getCurrency());
+        SnapshotStore.writeString(out, transaction.getTimestamp());
+        SnapshotStore.writeString(out, transaction.getDescription());
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        buffer.putInt(0, buffer.remaining() - 4);
+        
+        long position = textLength;
+        while (buffer.hasRemaining()) {
+            text.write(buffer, position + buffer.position());
+        }
+        textLength += buffer.limit();
+        return position;
+    }
+    
+    private Transaction readText(long position) throws IOException {
+        FileChannel channel;
+        synchronized (this) {
+            channel = text;
+        }
+        if (channel == null) {
+            throw new IOException("История операций закрыта");
+        }
+        ByteBuffer length = ByteBuffer.allocate(4);
+        readFully(channel, length, position);
+        ByteBuffer body = ByteBuffer.allocate(length.getInt(0));
+        readFully(channel, body, position + 4);
+        
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body.array()));
+        Transaction transaction = new Transaction();
+        transaction.setId(SnapshotStore.readString(in));
+        transaction.setType(SnapshotStore.readString(in));
+        transaction.setCurrency(SnapshotStore.readString(in));
+        transaction.setTimestamp(SnapshotStore.readString(in));
+        transaction.setDescription(SnapshotStore.readString(in));
+        return transaction;
+    }
+    
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("история операций обрезана");
+            }
+        }
+    }
+    
+    private void mapSegment(int index) throws IOException {
+        MappedByteBuffer[] current = segments;
+        if (index < current.length) {
+            return;
+        }
+        MappedByteBuffer[] grown = Arrays.copyOf(current, index + 1);
+        for (int i = current.length; i <= index; i++) {
+            try (FileChannel channel = FileChannel.open(segmentPath(i), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                // Отображение остается действительным после закрытия канала
+                grown[i] = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) blocksPerSegment * BLOCK_SIZE);
+            }
+        }
+        segments = grown;
+    }
+    
+    private Path segmentPath(int index) {
+        return directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+    }
+    
+    private int offsetOf(int block, int slot) {
+        return (block % blocksPerSegment) * BLOCK_SIZE + slot * RECORD_SIZE;
+    }
+    
+    private static int typeCode(String type) {
+        for (int i = 0; i < TYPES.length; i++) {
+            if (TYPES[i].equals(type)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    // Числовая часть идентификатора вида TXN<число>, если он однозначно восстанавливается
+    static long parseId(String id) {
+        if (id == null || !id.startsWith("TXN") || id.length() < 4 || id.length() > 21 || id.charAt(3) == '0') {
+            return -1;
+        }
+        long value = 0;
+        for (int i = 3; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+    
+    // Время в виде, который выдает DateTimeFormatter.ISO_LOCAL_DATE_TIME (yyyy-MM-ddTHH:mm:ss
+    // и дробная часть без конечных нулей), иначе null: только такая строка восстанавливается
+    // из секунд и наносекунд без изменений. Разбор вручную, без DateTimeFormatter: запись
+    // выполняется задачей шарда внутри AccountHistory.append() и задерживает следующие
+    // изменения шарда и чтения той же истории.
+    private static LocalDateTime parseTimestamp(String timestamp) {
+        int length = timestamp != null ? timestamp.length() : 0;
+        if (length < 19 || length == 20 || length > 29
+                || timestamp.charAt(4) != '-' || timestamp.charAt(7) != '-' || timestamp.charAt(10) != 'T'
+                || timestamp.charAt(13) != ':' || timestamp.charAt(16) != ':') {
+            return null;
+        }
+        int year = parseDigits(timestamp, 0, 4);
+        int month = parseDigits(timestamp, 5, 7);
+        int day = parseDigits(timestamp, 8, 10);
+        int hour = parseDigits(timestamp, 11, 13);
+        int minute = parseDigits(timestamp, 14, 16);
+        int second = parseDigits(timestamp, 17, 19);
+        int nano = 0;
+        if (length > 19) {
+            if (timestamp.charAt(19) != '.' || timestamp.charAt(length - 1) == '0') {
+                return null;
+            }
+            nano = parseDigits(timestamp, 20, length);
+            for (int i = length; i < 29 && nano >= 0; i++) {
+                nano *= 10;
+            }
+        }
+        if (year < 0 || month < 0 || day < 0 || hour < 0 || minute < 0 || second < 0 || nano < 0) {
+            return null;
+        }
+        try {
+            return LocalDateTime.of(year, month, day, hour, minute, second, nano);
+        } catch (DateTimeException e) {
+            return null;
+        }
+    }
+    
+    private static int parseDigits(String text, int from, int to) {
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+    
+    // Обратное к parseTimestamp
+    private static String formatTimestamp(long epochSecond, int nano) {
+        LocalDateTime value = LocalDateTime.ofEpochSecond(epochSecond, nano, ZoneOffset.UTC);
+        StringBuilder sb = new StringBuilder(29);
+        appendDigits(sb, value.getYear(), 4).append('-');
+        appendDigits(sb, value.getMonthValue(), 2).append('-');
+        appendDigits(sb, value.getDayOfMonth(), 2).append('T');
+        appendDigits(sb, value.getHour(), 2).append(':');
+        appendDigits(sb, value.getMinute(), 2).append(':');
+        appendDigits(sb, value.getSecond(), 2);
+        if (nano != 0) {
+            int digits = 9;
+            while (nano % 10 == 0) {
+                nano /= 10;
+                digits--;
+            }
+            appendDigits(sb.append('.'), nano, digits);
+        }
+        return sb.toString();
+    }
+    
+    private static StringBuilder appendDigits(StringBuilder sb, int value, int width) {
+        String text = Integer.toString(value);
+        for (int i = text.length(); i < width; i++) {
+            sb.append('0');
+        }
+        return sb.append(text);
+    }
+    
+    private static boolean fitsAscii(String value, int length) {
+        if (value == null || value.isEmpty() || value.length() > length) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == 0 || c > 127) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static void putAscii(ByteBuffer buffer, int offset, int length, String value) {
+        int size = value != null ? value.length() : 0;
+        for (int i = 0; i < length; i++) {
+            buffer.put(offset + i, i < size ? (byte) value.charAt(i) : 0);
+        }
+    }
+    
+    private static String getAscii(ByteBuffer buffer, int offset, int length) {
+        byte[] bytes = new byte[length];
+        int size = 0;
+        while (size < length && (bytes[size] = buffer.get(offset + size)) != 0) {
+            size++;
+        }
+        return size == 0 ? null : new String(bytes, 0, size, StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,141 @@
+package server;
+
+import common.BankOperation;
+import common.BankResponse;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+// Ответы на изменяющие запросы по ключу идемпотентности (ключи разных пользователей
+// не пересекаются). Повтор запроса с тем же ключом - после таймаута или разрыва
+// соединения на стороне клиента - получает исходный ответ без повторного выполнения;
+// если исходный запрос еще выполняется, повтор дожидается его ответа.
+// Записи вытесняются по возрасту (ttl) и по числу (maxEntries) в порядке добавления.
+// Кэш хранится только в памяти: после перезапуска сервера повтор выполнится заново.
+public class IdempotencyCache {
+    private final long ttlMillis;
+    private final int maxEntries;
+    // Ответы, которые можно вернуть повтору (ошибка сохранения данных не запоминается)
+    private final Predicate<BankResponse> cacheable;
+    private final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<>();
+    // Записи в порядке добавления (он же порядок истечения срока)
+    private final Queue<Entry> order = new ConcurrentLinkedQueue<>();
+    private final LongAdder replays = new LongAdder();
+    
+    private static final class Key {
+        final String login;
+        final UUID key;
+        
+        Key(String login, UUID key) {
+            this.login = login;
+            this.key = key;
+        }
+        
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key that = (Key) other;
+            return key.equals(that.key) && login.equals(that.login);
+        }
+        
+        @Override
+        public int hashCode() {
+            return key.hashCode() * 31 + login.hashCode();
+        }
+    }
+    
+    private static final class Entry {
+        final Key key;
+        final BankOperation operation;
+        final long createdAt;
+        final CompletableFuture<BankResponse> response = new CompletableFuture<>();
+        
+        Entry(Key key, BankOperation operation, long createdAt) {
+            this.key = key;
+            this.operation = operation;
+            this.createdAt = createdAt;
+        }
+    }
+    
+    public IdempotencyCache(long ttlMillis, int maxEntries, Predicate<BankResponse> cacheable) {
+        this.ttlMillis = ttlMillis;
+        this.maxEntries = maxEntries;
+        this.cacheable = cacheable;
+    }
+    
+    // Выполняет action один раз на ключ; повтор получает ответ первого выполнения.
+    // Если action завершился исключением или ответ не подходит для повтора (cacheable),
+    // запись удаляется и повтор выполнится заново; ожидающие повторы получают этот ответ.
+    public BankResponse execute(String login, UUID idempotencyKey, BankOperation operation,
+                                Supplier<BankResponse> action) {
+        Key key = new Key(login, idempotencyKey);
+        long now = System.currentTimeMillis();
+        Entry created = new Entry(key, operation, now);
+        Entry existing;
+        while ((existing = entries.putIfAbsent(key, created)) != null) {
+            if (now - existing.createdAt < ttlMillis) {
+                return replay(existing, operation);
+            }
+            // Срок истек, но запись еще не вытеснена
+            if (entries.replace(key, existing, created)) {
+                break;
+            }
+        }
+        order.add(created);
+        evict(now);
+        
+        BankResponse response;
+        try {
+            response = action.get();
+        } catch (RuntimeException | Error e) {
+            entries.remove(key, created);
+            created.response.completeExceptionally(e);
+            throw e;
+        }
+        if (!cacheable.test(response)) {
+            entries.remove(key, created);
+        }
+        created.response.complete(response);
+        return response;
+    }
+    
+    private BankResponse replay(Entry entry, BankOperation operation) {
+        if (entry.operation != operation) {
+            return new BankResponse(false, "Ключ идемпотентности уже использован для другой операции");
+        }
+        replays.increment();
+        try {
+            return entry.response.join();
+        } catch (CompletionException e) {
+            return new BankResponse(false, "Ошибка обработки запроса. Повторите запрос");
+        }
+    }
+    
+    // Удаляет самые старые записи: с истекшим сроком и сверх maxEntries
+    private void evict(long now) {
+        Entry oldest;
+        while ((oldest = order.peek()) != null
+                && (now - oldest.createdAt >= ttlMillis || entries.size() > maxEntries)) {
+            if (order.remove(oldest)) {
+                entries.remove(oldest.key, oldest);
+            }
+        }
+    }
+    
+    public int size() {
+        return entries.size();
+    }
+    
+    // Число запросов, на которые возвращен сохраненный ответ
+    public long getReplays() {
+        return replays.sum();
+    }
+}
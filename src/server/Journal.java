@@ -0,0 +1,455 @@
+package server;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import utils.Config;
+import utils.Logger;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+
+// Журнал изменений (write-ahead log): каждая мутация дописывается в конец файла
+// одной строкой JSON. Стоимость записи не зависит от объема накопленных данных.
+// Записи из разных потоков собираются фоновым потоком в пачки с общим fsync.
+// Каждая запись получает возрастающий номер (seq); журнал разбит на сегменты
+// journal-<номер первой записи>.log, сегменты до снимка данных удаляются (compact).
+public class Journal {
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    
+    private final Path directory;
+    private final Logger logger;
+    private final Gson gson;
+    private final ServerMetrics metrics;
+    private FileChannel channel;
+    private long segmentSize;
+    private volatile boolean rollRequested;
+    private final BlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>();
+    private volatile Thread writer;
+    private volatile boolean closed;
+    // Ошибка записи, после которой журнал больше не принимает записи
+    private volatile IOException failure;
+    // Маркер остановки потока записи
+    private static final PendingWrite CLOSE = new PendingWrite(new ArrayList<>(), 0, 0);
+    
+    // Номер последней поставленной в очередь записи и последней записанной на диск
+    private final Object seqLock = new Object();
+    private long lastSeq;
+    private final Object flushMonitor = new Object();
+    private long flushedSeq;
+    // Получатели записей после сброса на диск (потоки репликации)
+    private final List<Consumer<List<JournalRecord>>> flushListeners = new CopyOnWriteArrayList<>();
+    
+    public Journal(String directory, Logger logger, ServerMetrics metrics) {
+        this.directory = Paths.get(directory);
+        this.logger = logger;
+        this.gson = new Gson();
+        this.metrics = metrics;
+    }
+    
+    // Повторное применение записей с номером больше afterSeq из всех сегментов
+    // (вызывается при старте до open()). Возвращает число примененных записей.
+    // Оборванная строка допускается только в конце последнего сегмента (сбой во время
+    // записи, запись не была подтверждена клиенту) и отрезается; любая другая
+    // поврежденная запись или пропуск в номерах записей - ошибка, запуск прерывается.
+    public int replay(long afterSeq, Consumer<JournalRecord> consumer) throws IOException {
+        List<Path> segments = listSegments();
+        int count = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            count += readFile(segments.get(i), afterSeq + count, Long.MAX_VALUE, i == segments.size() - 1, record -> {
+                consumer.accept(record);
+                lastSeq = Math.max(lastSeq, record.getSeq());
+            });
+        }
+        return count;
+    }
+    
+    // Записи с номерами от afterSeq + 1 до untilSeq из сегментов на диске, во время работы
+    // журнала (для реплик). Номер последней записи журнала не меняется; untilSeq не должен
+    // превышать getFlushedSeq(), иначе можно прочитать запись, которая еще дописывается.
+    public int read(long afterSeq, long untilSeq, Consumer<JournalRecord> consumer) throws IOException {
+        List<Path> segments = listSegments();
+        int count = 0;
+        for (int i = 0; i < segments.size() && afterSeq + count < untilSeq; i++) {
+            // Сегмент целиком до afterSeq: следующий начинается не позже нужной записи
+            if (i + 1 < segments.size() && firstSeqOf(segments.get(i + 1)) <= afterSeq + 1) {
+                continue;
+            }
+            count += readFile(segments.get(i), afterSeq + count, untilSeq, false, consumer);
+        }
+        return count;
+    }
+    
+    // Записи файла после afterSeq; номера должны идти подряд с afterSeq + 1. tail - файл
+    // последний, и оборванная строка в его конце отрезается.
+    private int readFile(Path file, long afterSeq, long untilSeq, boolean tail,
+                         Consumer<JournalRecord> consumer) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        int count = 0;
+        long lines = 0;
+        boolean torn = false;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    lines++;
+                    continue;
+                }
+                JournalRecord record;
+                String error = null;
+                try {
+                    record = gson.fromJson(line, JournalRecord.class);
+                } catch (JsonParseException e) {
+                    record = null;
+                    error = e.getMessage();
+                }
+                if (record == null) {
+                    if (!tail || hasMoreLines(reader)) {
+                        throw new IOException("поврежденная запись журнала " + file + ", строка " + (lines + 1)
+                                + (error != null ? ": " + error : ""));
+                    }
+                    torn = true;
+                    break;
+                }
+                lines++;
+                if (record.getSeq() <= afterSeq) {
+                    continue;
+                }
+                if (record.getSeq() != afterSeq + count + 1) {
+                    throw new IOException("пропуск в журнале " + file + ": после записи " + (afterSeq + count)
+                            + " идет запись " + record.getSeq());
+                }
+                consumer.accept(record);
+                count++;
+                // Дальше может быть запись, которая еще дописывается
+                if (record.getSeq() >= untilSeq) {
+                    break;
+                }
+            }
+        }
+        if (torn) {
+            logger.warn("Оборванная запись в конце журнала отрезана: " + file);
+            truncate(file, lines);
+        }
+        return count;
+    }
+    
+    private static boolean hasMoreLines(BufferedReader reader) throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (!line.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    // Оставляет в файле первые lines строк, чтобы оборванная запись не оказалась в середине
+    // журнала, когда после перезапуска начнется следующий сегмент
+    private static void truncate(Path file, long lines) throws IOException {
+        long offset = 0;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+            for (long seen = 0; seen < lines; offset++) {
+                int b = in.read();
+                if (b < 0) {
+                    return;
+                }
+                if (b == '\n') {
+                    seen++;
+                }
+            }
+        }
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            out.truncate(offset);
+            out.force(true);
+        }
+    }
+    
+    // Начинает прием записей; нумерация продолжается после последней записи
+    // на диске или после снимка (startSeq), если он новее
+    public synchronized void open(long startSeq) throws IOException {
+        Files.createDirectories(directory);
+        synchronized (seqLock) {
+            lastSeq = Math.max(lastSeq, startSeq);
+        }
+        flushedSeq = lastSeq;
+        writer = new Thread(this::writeLoop, "Journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+    
+    public long getLastSeq() {
+        synchronized (seqLock) {
+            return lastSeq;
+        }
+    }
+    
+    // Номер последней записи, сброшенной на диск
+    public long getFlushedSeq() {
+        synchronized (flushMonitor) {
+            return flushedSeq;
+        }
+    }
+    
+    // Номер первой записи, которую еще можно прочитать с диска (более ранние удалены
+    // вместе со сегментами, покрытыми снимком)
+    public long getFirstAvailableSeq() {
+        List<Path> segments = listSegments();
+        return segments.isEmpty() ? getFlushedSeq() + 1 : firstSeqOf(segments.get(0));
+    }
+    
+    // Слушатель получает записи каждой пачки в порядке номеров сразу после сброса на диск,
+    // в потоке записи журнала, поэтому не должен блокироваться
+    public void addFlushListener(Consumer<List<JournalRecord>> listener) {
+        flushListeners.add(listener);
+    }
+    
+    public void removeFlushListener(Consumer<List<JournalRecord>> listener) {
+        flushListeners.remove(listener);
+    }
+    
+    // Ставит запись в очередь на запись. Future завершается, когда запись сброшена на диск.
+    // Порядок записей в файле совпадает с порядком вызовов.
+    public CompletableFuture<Void> append(JournalRecord record) {
+        List<JournalRecord> records = new ArrayList<>(1);
+        records.add(record);
+        return appendAll(records);
+    }
+    
+    // Несколько записей, которые попадут на диск вместе (в одном сбросе)
+    public CompletableFuture<Void> appendAll(List<JournalRecord> records) {
+        IOException error = failure;
+        if (error != null) {
+            return CompletableFuture.failedFuture(error);
+        }
+        if (writer == null || closed) {
+            return CompletableFuture.failedFuture(new IOException("Журнал не открыт"));
+        }
+        // Номера назначаются в том же порядке, в каком записи встают в очередь
+        PendingWrite write;
+        synchronized (seqLock) {
+            long first = lastSeq + 1;
+            for (JournalRecord record : records) {
+                record.setSeq(++lastSeq);
+            }
+            write = new PendingWrite(records, first, lastSeq);
+            queue.offer(write);
+        }
+        return write.done;
+    }
+    
+    // Ожидание записи на диск всех записей до seq включительно
+    public boolean awaitFlushed(long seq) throws InterruptedException {
+        synchronized (flushMonitor) {
+            while (flushedSeq < seq && failure == null && !closed) {
+                flushMonitor.wait();
+            }
+            return flushedSeq >= seq;
+        }
+    }
+    
+    // Следующая пачка записей начнет новый сегмент (после снимка, чтобы старые
+    // сегменты можно было удалить)
+    public void roll() {
+        rollRequested = true;
+    }
+    
+    // Удаляет сегменты, все записи которых не новее coveredSeq (вошли в снимок)
+    public void compact(long coveredSeq) {
+        List<Path> segments = listSegments();
+        // Последний сегмент может быть открыт для записи, он не удаляется
+        for (int i = 0; i + 1 < segments.size(); i++) {
+            long nextFirstSeq = firstSeqOf(segments.get(i + 1));
+            if (nextFirstSeq - 1 > coveredSeq) {
+                break;
+            }
+            try {
+                Files.deleteIfExists(segments.get(i));
+            } catch (IOException e) {
+                logger.warn("Не удалось удалить сегмент журнала " + segments.get(i) + ": " + e.getMessage());
+            }
+        }
+    }
+    
+    // Групповая фиксация: все записи, накопившиеся за время предыдущего сброса,
+    // пишутся одной операцией и сбрасываются на диск одним вызовом force
+    private void writeLoop() {
+        List<PendingWrite> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, Config.JOURNAL_MAX_BATCH - 1);
+            
+            boolean stop = batch.get(batch.size() - 1) == CLOSE;
+            if (stop) {
+                batch.remove(batch.size() - 1);
+            }
+            if (!batch.isEmpty()) {
+                flush(batch);
+            }
+            batch.clear();
+            if (stop) {
+                return;
+            }
+        }
+    }
+    
+    private void flush(List<PendingWrite> batch) {
+        StringBuilder lines = new StringBuilder();
+        int records = 0;
+        for (PendingWrite write : batch) {
+            for (JournalRecord record : write.records) {
+                lines.append(gson.toJson(record)).append('\n');
+            }
+            records += write.records.size();
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+        long batchLastSeq = batch.get(batch.size() - 1).lastSeq;
+        
+        IOException error = failure;
+        if (error == null) {
+            long started = System.nanoTime();
+            int bytes = buffer.remaining();
+            try {
+                synchronized (this) {
+                    if (channel == null || rollRequested || segmentSize >= Config.JOURNAL_SEGMENT_SIZE) {
+                        openSegment(batch.get(0).firstSeq);
+                    }
+                    segmentSize += buffer.remaining();
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    channel.force(false);
+                }
+                metrics.recordJournalFlush(records, bytes, System.nanoTime() - started);
+            } catch (IOException e) {
+                // После сбоя записи данные в памяти могут опережать диск, поэтому
+                // все следующие мутации отклоняются до перезапуска сервера
+                logger.error("Ошибка записи в журнал: " + e.getMessage());
+                failure = e;
+                error = e;
+            }
+        }
+        synchronized (flushMonitor) {
+            if (error == null) {
+                flushedSeq = batchLastSeq;
+            }
+            flushMonitor.notifyAll();
+        }
+        if (error == null && !flushListeners.isEmpty()) {
+            List<JournalRecord> flushed = new ArrayList<>(records);
+            for (PendingWrite write : batch) {
+                flushed.addAll(write.records);
+            }
+            for (Consumer<List<JournalRecord>> listener : flushListeners) {
+                listener.accept(flushed);
+            }
+        }
+        for (PendingWrite write : batch) {
+            if (error == null) {
+                write.done.complete(null);
+            } else {
+                write.done.completeExceptionally(error);
+            }
+        }
+    }
+    
+    private void openSegment(long firstSeq) throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+        rollRequested = false;
+        Path segment = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstSeq, SEGMENT_SUFFIX));
+        // Сегмент с таким номером может остаться от сбоя только с оборванной неподтвержденной
+        // записью (иначе нумерация продолжилась бы дальше), поэтому он перезаписывается
+        channel = FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        segmentSize = 0;
+    }
+    
+    // Сегменты в порядке номеров (имена дополнены нулями, поэтому сортируются как строки)
+    private List<Path> listSegments() {
+        List<Path> segments = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return segments;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path segment : stream) {
+                segments.add(segment);
+            }
+        } catch (IOException e) {
+            logger.error("Ошибка чтения каталога журнала: " + e.getMessage());
+        }
+        segments.sort(null);
+        return segments;
+    }
+    
+    private static long firstSeqOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+    
+    // Дожидается записи уже поставленных в очередь записей и закрывает файл
+    public void close() {
+        closed = true;
+        Thread current = writer;
+        if (current != null) {
+            queue.offer(CLOSE);
+            try {
+                current.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // Записи, поставленные одновременно с закрытием
+        PendingWrite late;
+        while ((late = queue.poll()) != null) {
+            late.done.completeExceptionally(new IOException("Журнал закрыт"));
+        }
+        synchronized (flushMonitor) {
+            flushMonitor.notifyAll();
+        }
+        synchronized (this) {
+            if (channel == null) {
+                return;
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.error("Ошибка закрытия журнала: " + e.getMessage());
+            }
+            channel = null;
+        }
+    }
+    
+    private static class PendingWrite {
+        final List<JournalRecord> records;
+        final long firstSeq;
+        final long lastSeq;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        
+        PendingWrite(List<JournalRecord> records, long firstSeq, long lastSeq) {
+            this.records = records;
+            this.firstSeq = firstSeq;
+            this.lastSeq = lastSeq;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package server;
+
+import common.Transaction;
+
+// Запись журнала изменений: одна мутирующая операция BankService
+public class JournalRecord {
+    public enum Type {
+        REGISTER,
+        CREATE_ACCOUNT,
+        DELETE_ACCOUNT,
+        DEPOSIT,
+        WITHDRAW,
+        TRANSFER,
+        // Перевод между шардами: списание на шарде отправителя, затем зачисление на шарде
+        // получателя или возврат отправителю. Поля те же, что у TRANSFER; перевод
+        // определяется идентификатором исходящей транзакции.
+        TRANSFER_DEBIT,
+        TRANSFER_CREDIT,
+        TRANSFER_REFUND
+    }
+    
+    private long seq; // порядковый номер в журнале, назначается при постановке в очередь
+    private Type type;
+    private String login;
+    private String password; // хешированный пароль (только для REGISTER)
+    private String accountNumber;
+    private String targetAccount;
+    private String currency;
+    private long amount;
+    private long convertedAmount;
+    // Курсы валют счетов к базовой валюте (CurrencyConverter.RATE_SCALE), по которым выполнена
+    // конвертация (0 - без конвертации)
+    private long fromRate;
+    private long toRate;
+    private Transaction transaction;
+    private Transaction targetTransaction; // для TRANSFER_REFUND - транзакция возврата на исходный счет
+    
+    // Конструктор по умолчанию (нужен для Gson)
+    public JournalRecord() {
+    }
+    
+    private JournalRecord(Type type) {
+        this.type = type;
+    }
+    
+    public static JournalRecord register(String login, String hashedPassword) {
+        JournalRecord record = new JournalRecord(Type.REGISTER);
+        record.login = login;
+        record.password = hashedPassword;
+        return record;
+    }
+    
+    public static JournalRecord createAccount(String login, String accountNumber, String currency) {
+        JournalRecord record = new JournalRecord(Type.CREATE_ACCOUNT);
+        record.login = login;
+        record.accountNumber = accountNumber;
+        record.currency = currency;
+        return record;
+    }
+    
+    public static JournalRecord deleteAccount(String login, String accountNumber) {
+        JournalRecord record = new JournalRecord(Type.DELETE_ACCOUNT);
+        record.login = login;
+        record.accountNumber = accountNumber;
+        return record;
+    }
+    
+    public static JournalRecord deposit(String accountNumber, long amount, Transaction transaction) {
+        JournalRecord record = new JournalRecord(Type.DEPOSIT);
+        record.accountNumber = accountNumber;
+        record.amount = amount;
+        record.transaction = transaction;
+        return record;
+    }
+    
+    public static JournalRecord withdraw(String accountNumber, long amount, Transaction transaction) {
+        JournalRecord record = new JournalRecord(Type.WITHDRAW);
+        record.accountNumber = accountNumber;
+        record.amount = amount;
+        record.transaction = transaction;
+        return record;
+    }
+    
+    public static JournalRecord transfer(String fromAccount, String toAccount, long amount, long convertedAmount,
+                                         long fromRate, long toRate, Transaction outTransaction,
+                                         Transaction inTransaction) {
+        JournalRecord record = new JournalRecord(Type.TRANSFER);
+        record.accountNumber = fromAccount;
+        record.targetAccount = toAccount;
+        record.amount = amount;
+        record.convertedAmount = convertedAmount;
+        record.fromRate = fromRate;
+        record.toRate = toRate;
+        record.transaction = outTransaction;
+        record.targetTransaction = inTransaction;
+        return record;
+    }
+    
+    // Шаг перевода между шардами по записи TRANSFER или TRANSFER_DEBIT
+    public static JournalRecord transferStep(Type type, JournalRecord transfer) {
+        JournalRecord record = new JournalRecord(type);
+        record.accountNumber = transfer.accountNumber;
+        record.targetAccount = transfer.targetAccount;
+        record.amount = transfer.amount;
+        record.convertedAmount = transfer.convertedAmount;
+        record.fromRate = transfer.fromRate;
+        record.toRate = transfer.toRate;
+        record.transaction = transfer.transaction;
+        record.targetTransaction = transfer.targetTransaction;
+        return record;
+    }
+    
+    public static JournalRecord transferRefund(JournalRecord debit, Transaction refundTransaction) {
+        JournalRecord record = transferStep(Type.TRANSFER_REFUND, debit);
+        record.targetTransaction = refundTransaction;
+        return record;
+    }
+    
+    // Идентификатор перевода между шардами (общий для его шагов)
+    public String getTransferId() {
+        return transaction != null ? transaction.getId() : null;
+    }
+    
+    public long getSeq() { return seq; }
+    void setSeq(long seq) { this.seq = seq; }
+    public Type getType() { return type; }
+    public String getLogin() { return login; }
+    public String getPassword() { return password; }
+    public String getAccountNumber() { return accountNumber; }
+    public String getTargetAccount() { return targetAccount; }
+    public String getCurrency() { return currency; }
+    public long getAmount() { return amount; }
+    public long getConvertedAmount() { return convertedAmount; }
+    public long getFromRate() { return fromRate; }
+    public long getToRate() { return toRate; }
+    public Transaction getTransaction() { return transaction; }
+    public Transaction getTargetTransaction() { return targetTransaction; }
+}
@@ -0,0 +1,186 @@
+package server;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+// Последовательный журнал команд в кольцевом буфере (в духе Disruptor): потоки соединений
+// публикуют команды в заранее выделенные ячейки, единственный поток бизнес-логики выполняет
+// их строго в порядке номеров. Без выделения памяти и блокировок обходится только передача
+// команды: ячейки переиспользуются, узлов очереди и Future исполнителя нет. Сама команда
+// (BankService.stage) создает запись журнала и транзакции, берет stateLock на чтение и ставит
+// запись в очередь журнала под его seqLock. Запись на диск и fsync выполняет поток журнала,
+// ожидание сброса и ответ клиенту - поток соединения. Все данные принадлежат одному потоку,
+// поэтому это один шард с номером 0.
+public class LedgerRing implements MutationExecutor {
+    private static final int FREE = 0;
+    private static final int PUBLISHED = 1;
+    private static final int DONE = 2;
+    // Ожидание: сначала активное, затем с уступкой процессора, затем с парковкой потока
+    private static final int SPINS = 50;
+    private static final int YIELDS = 100;
+    
+    private final Slot[] slots;
+    private final int mask;
+    // Следующий номер для публикации и номер следующей выполняемой команды
+    private final AtomicLong claimed = new AtomicLong();
+    private volatile long consumed;
+    private final Thread consumer;
+    private volatile boolean consumerParked;
+    private volatile boolean running = true;
+    
+    // Ячейка буфера: команда с номером sequence, ее результат и ожидающий поток
+    private static final class Slot {
+        volatile long sequence;
+        volatile int status = FREE;
+        Supplier<?> task;
+        Object result;
+        Throwable error;
+        Thread waiter;
+    }
+    
+    public LedgerRing(int size, String name) {
+        int capacity = Integer.highestOneBit(Math.max(2, size - 1)) << 1;
+        this.slots = new Slot[capacity];
+        this.mask = capacity - 1;
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new Slot();
+            slots[i].sequence = i;
+        }
+        this.consumer = new Thread(this::run, name);
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+    
+    @Override
+    public int getShardCount() {
+        return 1;
+    }
+    
+    @Override
+    public int shardOf(String login) {
+        return 0;
+    }
+    
+    @Override
+    public <T> T call(int shard, Supplier<T> task) {
+        return execute(task);
+    }
+    
+    @Override
+    public <T> T callAll(int[] shards, Supplier<T> task) {
+        return execute(task);
+    }
+    
+    // Публикует команду и ждет ее выполнения. При заполненном буфере ждет свободной ячейки.
+    @SuppressWarnings("unchecked")
+    public <T> T execute(Supplier<T> task) {
+        if (!running) {
+            throw new RejectedExecutionException("Журнал команд остановлен");
+        }
+        long sequence = claimed.getAndIncrement();
+        Slot slot = slots[(int) sequence & mask];
+        for (int spins = 0; slot.sequence != sequence; spins++) {
+            backOff(spins);
+        }
+        
+        slot.task = task;
+        slot.waiter = Thread.currentThread();
+        slot.status = PUBLISHED;
+        if (consumerParked) {
+            consumerParked = false;
+            LockSupport.unpark(consumer);
+        }
+        
+        for (int spins = 0; slot.status != DONE; spins++) {
+            if (spins < SPINS + YIELDS) {
+                backOff(spins);
+            } else {
+                LockSupport.park(this);
+            }
+        }
+        Object result = slot.result;
+        Throwable error = slot.error;
+        slot.task = null;
+        slot.result = null;
+        slot.error = null;
+        slot.waiter = null;
+        slot.status = FREE;
+        slot.sequence = sequence + slots.length;
+        
+        if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        }
+        if (error instanceof Error) {
+            throw (Error) error;
+        }
+        return (T) result;
+    }
+    
+    // Поток бизнес-логики: команды по порядку номеров; ждет публикации следующей,
+    // даже если более поздние уже опубликованы
+    private void run() {
+        long next = 0;
+        while (true) {
+            Slot slot = slots[(int) next & mask];
+            int spins = 0;
+            while (slot.sequence != next || slot.status != PUBLISHED) {
+                if (!running && claimed.get() == next) {
+                    return;
+                }
+                if (spins < SPINS + YIELDS) {
+                    backOff(spins++);
+                } else {
+                    consumerParked = true;
+                    if (slot.sequence != next || slot.status != PUBLISHED) {
+                        LockSupport.park(this);
+                    }
+                    consumerParked = false;
+                }
+            }
+            
+            try {
+                slot.result = slot.task.get();
+            } catch (Throwable e) {
+                slot.error = e;
+            }
+            Thread waiter = slot.waiter;
+            slot.status = DONE;
+            LockSupport.unpark(waiter);
+            consumed = ++next;
+        }
+    }
+    
+    private static void backOff(int spins) {
+        if (spins < SPINS) {
+            Thread.onSpinWait();
+        } else if (spins < SPINS + YIELDS) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(1000);
+        }
+    }
+    
+    // Номер следующей выполняемой команды (выполнено команд с запуска)
+    public long getSequence() {
+        return consumed;
+    }
+    
+    @Override
+    public int getQueuedTasks() {
+        return (int) Math.max(0, claimed.get() - consumed);
+    }
+    
+    // Команды, опубликованные до остановки, выполняются
+    @Override
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(consumer);
+        try {
+            consumer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
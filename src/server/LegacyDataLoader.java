@@ -0,0 +1,154 @@
+package server;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import common.Account;
+import common.Money;
+import common.Transaction;
+import common.User;
+import utils.PasswordHasher;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+// Потоковое чтение JSON-файлов старого формата (users.json, accounts.json, transactions.json).
+// Записи разбираются по одной через JsonReader и сразу передаются получателю, без
+// промежуточного дерева и Map со всем содержимым файла. Миграции старого формата
+// (суммы в double, нехешированные пароли) выполняются при разборе записи.
+class LegacyDataLoader {
+    private static final Pattern PASSWORD_HASH = Pattern.compile("[0-9a-f]{64}");
+    
+    private interface EntryReader<T> {
+        T read(JsonReader reader) throws IOException;
+    }
+    
+    // {"login": {"login": ..., "password": ...}}; возвращает число пользователей
+    static int loadUsers(Path file, Consumer<User> consumer) throws IOException {
+        return load(file, false, LegacyDataLoader::readUser, (login, user) -> consumer.accept(user));
+    }
+    
+    // {"login": [счет, ...]}; владелец счета - ключ объекта
+    static int loadAccounts(Path file, BiConsumer<String, Account> consumer) throws IOException {
+        return load(file, true, LegacyDataLoader::readAccount, consumer);
+    }
+    
+    // {"login": [транзакция, ...]}
+    static int loadTransactions(Path file, BiConsumer<String, Transaction> consumer) throws IOException {
+        return load(file, true, LegacyDataLoader::readTransaction, consumer);
+    }
+    
+    private static <T> int load(Path file, boolean arrays, EntryReader<T> entryReader,
+                                BiConsumer<String, T> consumer) throws IOException {
+        int count = 0;
+        try (Reader input = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+             JsonReader reader = new JsonReader(input)) {
+            if (reader.peek() == JsonToken.NULL) {
+                return 0;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String login = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                } else if (arrays) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        consumer.accept(login, entryReader.read(reader));
+                        count++;
+                    }
+                    reader.endArray();
+                } else {
+                    consumer.accept(login, entryReader.read(reader));
+                    count++;
+                }
+            }
+            reader.endObject();
+        }
+        return count;
+    }
+    
+    private static User readUser(JsonReader reader) throws IOException {
+        String login = null;
+        String password = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "login" -> login = nextString(reader);
+                case "password" -> password = nextString(reader);
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        // Миграция паролей в хешированные (для пользователей старых версий)
+        if (password != null && !PASSWORD_HASH.matcher(password).matches()) {
+            password = PasswordHasher.hash(password);
+        }
+        return new User(login, password);
+    }
+    
+    private static Account readAccount(JsonReader reader) throws IOException {
+        String accountNumber = null;
+        String owner = null;
+        String currency = null;
+        Long balance = null;
+        Double legacyBalance = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "accountNumber" -> accountNumber = nextString(reader);
+                case "owner" -> owner = nextString(reader);
+                case "currency" -> currency = nextString(reader);
+                case "balanceMinor" -> balance = reader.nextLong();
+                // Старый формат: баланс в double (основные единицы)
+                case "balance" -> legacyBalance = reader.nextDouble();
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new Account(accountNumber, owner, minorUnits(balance, legacyBalance, currency), currency);
+    }
+    
+    private static Transaction readTransaction(JsonReader reader) throws IOException {
+        Transaction transaction = new Transaction();
+        Long amount = null;
+        Double legacyAmount = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "id" -> transaction.setId(nextString(reader));
+                case "accountNumber" -> transaction.setAccountNumber(nextString(reader));
+                case "type" -> transaction.setType(nextString(reader));
+                case "currency" -> transaction.setCurrency(nextString(reader));
+                case "timestamp" -> transaction.setTimestamp(nextString(reader));
+                case "description" -> transaction.setDescription(nextString(reader));
+                case "amountMinor" -> amount = reader.nextLong();
+                case "amount" -> legacyAmount = reader.nextDouble();
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        transaction.setAmount(minorUnits(amount, legacyAmount, transaction.getCurrency()));
+        return transaction;
+    }
+    
+    // Суммы старого формата (double, основные единицы) -> long (минимальные единицы)
+    private static long minorUnits(Long minor, Double legacyMajor, String currency) {
+        if (minor != null) {
+            return minor;
+        }
+        return legacyMajor != null ? Money.fromMajor(legacyMajor, currency) : 0L;
+    }
+    
+    private static String nextString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+}
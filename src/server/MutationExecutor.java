@@ -0,0 +1,25 @@
+package server;
+
+import java.util.function.Supplier;
+
+// Исполнитель изменений данных BankService: задачи одного пользователя выполняются
+// по очереди в одном потоке, поэтому его счета изменяются без блокировок.
+public interface MutationExecutor {
+    
+    int getShardCount();
+    
+    // Шард, которому принадлежит пользователь
+    int shardOf(String login);
+    
+    // Выполняет задачу в потоке шарда и ждет результата (исключение задачи пробрасывается)
+    <T> T call(int shard, Supplier<T> task);
+    
+    // Задача над данными нескольких шардов (номера по возрастанию, без повторов)
+    <T> T callAll(int[] shards, Supplier<T> task);
+    
+    // Задачи, ожидающие выполнения
+    int getQueuedTasks();
+    
+    // Дожидается выполнения уже принятых задач
+    void shutdown();
+}
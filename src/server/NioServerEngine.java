@@ -0,0 +1,445 @@
+package server;
+
+import common.BankOperation;
+import common.BankResponse;
+import common.BinaryCodec;
+import common.WireRequest;
+import utils.Config;
+import utils.Logger;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Один поток-селектор обслуживает все соединения двоичного протокола: читает кадры
+// в прямые буферы из пула и передает запросы ограниченному пулу рабочих потоков.
+// Запросы одного соединения выполняются по очереди, запросы разных - параллельно.
+// Соединения старого протокола (Java-сериализация) передаются блокирующему ClientHandler.
+// Соединение, у которого слишком много запросов без ответа или неотправленных ответов
+// (клиент не читает), не читается, пока очередь не разгрузится.
+public class NioServerEngine implements ServerEngine {
+    private final BankService bankService;
+    private final Logger logger;
+    private final ThreadPoolExecutor workers;
+    private final ExecutorService legacyExecutor;
+    private final BufferPool bufferPool;
+    private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<>();
+    private final Queue<Connection> pendingHandOffs = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger activeConnections = new AtomicInteger();
+    private volatile Selector selector;
+    private volatile boolean running;
+    
+    public NioServerEngine(BankService bankService, Logger logger, int workerThreads, int queueCapacity,
+                           BufferPool bufferPool) {
+        this.bankService = bankService;
+        this.logger = logger;
+        this.workers = new ThreadPoolExecutor(workerThreads, workerThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity));
+        this.legacyExecutor = new ThreadPoolExecutor(0, Config.NIO_LEGACY_THREADS, 60L, TimeUnit.SECONDS,
+                new SynchronousQueue<>());
+        this.bufferPool = bufferPool;
+    }
+    
+    // Соединение, обслуживаемое селектором. readBuffer, handshakeDone и readPaused доступны
+    // только потоку селектора.
+    private class Connection {
+        final SocketChannel channel;
+        final ClientSession session;
+        final Queue<WireRequest> requests = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+        // Запросы, принятые в очередь или выполняемые, и байты ответов в outbound
+        final AtomicInteger pendingRequests = new AtomicInteger();
+        final AtomicLong outboundBytes = new AtomicLong();
+        SelectionKey key;
+        ByteBuffer readBuffer;
+        boolean handshakeDone;
+        boolean readPaused;
+        byte[] legacyPrefix;
+        volatile boolean closeAfterWrite;
+        volatile boolean closed;
+        
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+            this.session = new ClientSession(bankService, logger);
+        }
+    }
+    
+    @Override
+    public void start(int port) throws IOException {
+        selector = Selector.open();
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(port));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            running = true;
+            logger.info("Сервер банка успешно запущен (NIO, рабочих потоков: " + workers.getMaximumPoolSize() + ")");
+            
+            while (running) {
+                selector.select();
+                processHandOffs();
+                flushPendingWrites();
+                
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept(server);
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            read(connection);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            write(connection);
+                        }
+                    } catch (IOException e) {
+                        logger.error("Ошибка обработки клиента: " + e.getMessage());
+                        close(connection);
+                    } catch (RuntimeException | StackOverflowError e) {
+                        // Ошибка разбора кадра одного клиента не должна останавливать селектор
+                        logger.error("Ошибка обработки клиента: " + e);
+                        close(connection);
+                    }
+                }
+            }
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection) {
+                    close((Connection) key.attachment());
+                }
+            }
+            selector.close();
+            workers.shutdown();
+            legacyExecutor.shutdown();
+        }
+    }
+    
+    @Override
+    public void stop() {
+        running = false;
+        Selector current = selector;
+        if (current != null) {
+            current.wakeup();
+        }
+    }
+    
+    @Override
+    public int getActiveConnections() {
+        return activeConnections.get();
+    }
+    
+    @Override
+    public int getQueuedRequests() {
+        return workers.getQueue().size();
+    }
+    
+    private void accept(ServerSocketChannel server) throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        Connection connection = new Connection(channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        activeConnections.incrementAndGet();
+        logger.info("Новое подключение: " + channel.socket().getInetAddress());
+    }
+    
+    private void read(Connection connection) throws IOException {
+        if (connection.readBuffer == null) {
+            connection.readBuffer = bufferPool.acquire();
+        }
+        int read = connection.channel.read(connection.readBuffer);
+        if (read < 0) {
+            close(connection);
+            return;
+        }
+        
+        ByteBuffer buffer = connection.readBuffer;
+        buffer.flip();
+        if (!connection.handshakeDone) {
+            handshake(connection);
+            if (connection.legacyPrefix != null) {
+                return;
+            }
+            if (!connection.handshakeDone) {
+                buffer.compact();
+                return;
+            }
+        }
+        readFrames(connection);
+    }
+    
+    // Разбор полученных кадров (буфер в режиме чтения). Если очередь соединения переполнена,
+    // чтение приостанавливается, а оставшиеся кадры ждут в буфере до разгрузки (write)
+    private void readFrames(Connection connection) throws IOException {
+        ByteBuffer buffer = connection.readBuffer;
+        while (buffer.remaining() >= 4) {
+            if (isBacklogged(connection)) {
+                connection.readPaused = true;
+                connection.key.interestOps(connection.key.interestOps() & ~SelectionKey.OP_READ);
+                break;
+            }
+            int length = buffer.getInt(buffer.position());
+            if (length < 0 || length > BinaryCodec.MAX_FRAME_SIZE) {
+                throw new IOException("Недопустимая длина кадра: " + length);
+            }
+            if (buffer.remaining() < 4 + length) {
+                if (4 + length > buffer.capacity() && buffer.remaining() == buffer.capacity()) {
+                    // Кадр больше буфера и буфер заполнен - временный буфер вдвое больше, но не больше
+                    // кадра. Буфер растет по мере прихода данных, а не по заявленной длине кадра
+                    ByteBuffer larger = ByteBuffer.allocate((int) Math.min(4L + length, 2L * buffer.capacity()));
+                    larger.put(buffer);
+                    larger.flip();
+                    bufferPool.release(buffer);
+                    buffer = larger;
+                    connection.readBuffer = larger;
+                }
+                break;
+            }
+            buffer.getInt();
+            ByteBuffer frame = buffer.slice();
+            frame.limit(length);
+            buffer.position(buffer.position() + length);
+            submit(connection, BinaryCodec.decodeRequest(new DataInputStream(new ByteBufferInputStream(frame))));
+        }
+        
+        if (buffer.hasRemaining()) {
+            buffer.compact();
+        } else {
+            bufferPool.release(buffer);
+            connection.readBuffer = null;
+        }
+    }
+    
+    // Приветствие двоичного протокола; при другом начале соединение уходит в блокирующий режим
+    private void handshake(Connection connection) throws IOException {
+        ByteBuffer buffer = connection.readBuffer;
+        int available = buffer.remaining();
+        for (int i = 0; i < Math.min(available, BinaryCodec.MAGIC.length); i++) {
+            if (buffer.get(buffer.position() + i) != BinaryCodec.MAGIC[i]) {
+                handOffLegacy(connection);
+                return;
+            }
+        }
+        if (available < BinaryCodec.MAGIC.length + 1) {
+            return;
+        }
+        buffer.position(buffer.position() + BinaryCodec.MAGIC.length);
+        int clientVersion = buffer.get();
+        ByteBuffer reply = ByteBuffer.allocate(BinaryCodec.MAGIC.length + 1);
+        reply.put(BinaryCodec.MAGIC).put((byte) Math.min(clientVersion, BinaryCodec.VERSION)).flip();
+        connection.outbound.add(reply);
+        connection.handshakeDone = true;
+        write(connection);
+    }
+    
+    private void handOffLegacy(Connection connection) {
+        ByteBuffer buffer = connection.readBuffer;
+        byte[] prefix = new byte[buffer.remaining()];
+        buffer.get(prefix);
+        bufferPool.release(buffer);
+        connection.readBuffer = null;
+        connection.legacyPrefix = prefix;
+        // Ключ снимается с регистрации при следующем select(), только после этого
+        // канал можно перевести в блокирующий режим
+        connection.key.cancel();
+        pendingHandOffs.add(connection);
+        selector.wakeup();
+    }
+    
+    private void processHandOffs() {
+        Connection connection;
+        while ((connection = pendingHandOffs.poll()) != null) {
+            try {
+                connection.channel.configureBlocking(true);
+                ClientHandler handler = new ClientHandler(connection.channel.socket(), bankService, logger,
+                        connection.legacyPrefix);
+                legacyExecutor.execute(() -> {
+                    try {
+                        handler.run();
+                    } finally {
+                        activeConnections.decrementAndGet();
+                    }
+                });
+            } catch (IOException e) {
+                logger.error("Ошибка перевода соединения в блокирующий режим: " + e.getMessage());
+                close(connection);
+            } catch (RejectedExecutionException e) {
+                logger.warn("Слишком много соединений старого протокола, соединение закрыто");
+                close(connection);
+            }
+        }
+    }
+    
+    private boolean isBacklogged(Connection connection) {
+        return connection.pendingRequests.get() >= Config.MAX_IN_FLIGHT_REQUESTS
+            || connection.outboundBytes.get() >= Config.NIO_MAX_OUTBOUND_BYTES;
+    }
+    
+    private void submit(Connection connection, WireRequest request) {
+        connection.pendingRequests.incrementAndGet();
+        connection.requests.add(request);
+        schedule(connection);
+    }
+    
+    private void schedule(Connection connection) {
+        if (!connection.scheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            workers.execute(() -> drain(connection));
+        } catch (RejectedExecutionException e) {
+            connection.scheduled.set(false);
+            WireRequest request;
+            while ((request = connection.requests.poll()) != null) {
+                connection.pendingRequests.decrementAndGet();
+                queueResponse(connection, request.getRequestId(), 
+                    new BankResponse(false, "Сервер перегружен. Повторите запрос позже"));
+            }
+        }
+    }
+    
+    // Выполняется рабочим потоком: последовательная обработка запросов одного соединения
+    private void drain(Connection connection) {
+        try {
+            WireRequest request;
+            while (!connection.closed && (request = connection.requests.poll()) != null) {
+                BankResponse response = connection.session.process(request.getOperation(), request.getPayload(),
+                    request.getIdempotencyKey());
+                // Счетчик уменьшается до постановки ответа: селектор, разбуженный ответом,
+                // должен увидеть разгрузку и возобновить чтение
+                connection.pendingRequests.decrementAndGet();
+                queueResponse(connection, request.getRequestId(), response);
+                if (request.getOperation() == BankOperation.LOGOUT) {
+                    connection.closeAfterWrite = true;
+                    connection.requests.clear();
+                }
+            }
+        } finally {
+            connection.scheduled.set(false);
+            if (!connection.requests.isEmpty() && !connection.closed) {
+                schedule(connection);
+            }
+        }
+    }
+    
+    private void queueResponse(Connection connection, int requestId, BankResponse response) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0);
+            BinaryCodec.encodeResponse(out, requestId, response);
+            ByteBuffer frame = ByteBuffer.wrap(bytes.toByteArray());
+            frame.putInt(0, frame.capacity() - 4);
+            connection.outboundBytes.addAndGet(frame.capacity());
+            connection.outbound.add(frame);
+        } catch (IOException e) {
+            logger.error("Ошибка кодирования ответа: " + e.getMessage());
+            connection.closeAfterWrite = true;
+        }
+        pendingWrites.add(connection);
+        selector.wakeup();
+    }
+    
+    private void flushPendingWrites() {
+        Connection connection;
+        while ((connection = pendingWrites.poll()) != null) {
+            if (connection.closed || !connection.key.isValid()) {
+                continue;
+            }
+            try {
+                write(connection);
+            } catch (IOException e) {
+                logger.error("Ошибка отправки ответа: " + e.getMessage());
+                close(connection);
+            } catch (RuntimeException | StackOverflowError e) {
+                // write() разбирает отложенные кадры после разгрузки очереди
+                logger.error("Ошибка обработки клиента: " + e);
+                close(connection);
+            }
+        }
+    }
+    
+    private void write(Connection connection) throws IOException {
+        ByteBuffer buffer;
+        while ((buffer = connection.outbound.peek()) != null) {
+            connection.channel.write(buffer);
+            if (buffer.hasRemaining()) {
+                break;
+            }
+            connection.outbound.poll();
+            connection.outboundBytes.addAndGet(-buffer.capacity());
+        }
+        if (buffer == null && connection.closeAfterWrite) {
+            close(connection);
+            return;
+        }
+        if (connection.readPaused && !isBacklogged(connection)) {
+            // Очередь разгрузилась: сначала кадры, уже лежащие в буфере, затем снова чтение
+            connection.readPaused = false;
+            if (connection.readBuffer != null) {
+                connection.readBuffer.flip();
+                readFrames(connection);
+            }
+        }
+        int ops = connection.readPaused ? 0 : SelectionKey.OP_READ;
+        connection.key.interestOps(connection.outbound.isEmpty() ? ops : ops | SelectionKey.OP_WRITE);
+    }
+    
+    private void close(Connection connection) {
+        if (connection.closed) {
+            return;
+        }
+        connection.closed = true;
+        connection.key.cancel();
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            logger.error("Ошибка закрытия соединения: " + e.getMessage());
+        }
+        if (connection.readBuffer != null) {
+            bufferPool.release(connection.readBuffer);
+            connection.readBuffer = null;
+        }
+        activeConnections.decrementAndGet();
+        logger.info("Клиент отключен: " + connection.session.getCurrentUser());
+    }
+    
+    // Чтение кадра прямо из ByteBuffer без копирования в массив
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+        
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+        
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+        
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package server;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import utils.Config;
+import utils.Logger;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// Реплика: получает поток записей журнала основного сервера (ReplicationServer) и
+// применяет их к своему BankService в одном потоке. Отставание считается по местному
+// времени получения кадров: 0, пока применены все записи, о которых сообщил основной
+// сервер, иначе - время с момента, когда реплика в последний раз догнала его. Если кадров
+// нет дольше двух интервалов сигнала, отставание - время с последнего кадра.
+//
+// Снимок основного сервера реплика загружает только при запуске (bootstrap), до приема
+// клиентов. Если во время работы реплика отстала настолько, что нужные записи удалены
+// из журнала основного сервера, репликация останавливается до перезапуска реплики.
+public class ReplicationClient {
+    private static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+    
+    private final String host;
+    private final int port;
+    private final Logger logger;
+    private final Gson gson = new Gson();
+    private volatile BankService bankService;
+    private Socket socket;
+    private DataInputStream in;
+    private Thread thread;
+    private volatile boolean running;
+    // Последний номер записи на диске основного сервера, время последнего кадра и время,
+    // когда реплика в последний раз применила все известные записи
+    private volatile long primarySeq;
+    private volatile long lastFrameAt = System.currentTimeMillis();
+    private volatile long syncedAt = System.currentTimeMillis();
+    
+    // address - host:port сервера репликации основного сервера
+    public ReplicationClient(String address, Logger logger) {
+        int separator = address.lastIndexOf(':');
+        if (separator <= 0) {
+            throw new IllegalArgumentException("Адрес основного сервера должен иметь вид host:port: " + address);
+        }
+        if (Config.REPLICATION_SECRET.isEmpty()) {
+            throw new IllegalArgumentException("Не задан секрет репликации (-Dbank.replication.secret)");
+        }
+        this.host = address.substring(0, separator);
+        this.port = Integer.parseInt(address.substring(separator + 1));
+        this.logger = logger;
+    }
+    
+    // Подключение при запуске реплики. Если основной сервер отдает снимок, данные реплики
+    // заменяются им и BankService создается заново. Возвращает BankService для работы.
+    public BankService bootstrap(BankService service) {
+        bankService = service;
+        try {
+            if (handshake() == ReplicationServer.MODE_SNAPSHOT) {
+                bankService = installSnapshot(service);
+            }
+        } catch (IOException e) {
+            logger.warn("Основной сервер " + host + ":" + port + " недоступен (" + e.getMessage()
+                + "), реплика работает на своих данных до подключения");
+            closeConnection();
+        }
+        bankService.follow(this);
+        return bankService;
+    }
+    
+    public synchronized void start() {
+        running = true;
+        thread = new Thread(this::run, "Replication-follower");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    // Останавливает применение записей (promote или остановка сервера); после возврата
+    // данные реплики больше не изменяются потоком репликации
+    public void stop() {
+        Thread current;
+        synchronized (this) {
+            running = false;
+            current = thread;
+            thread = null;
+        }
+        closeConnection();
+        if (current != null && current != Thread.currentThread()) {
+            current.interrupt();
+            try {
+                current.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    
+    public long getLagMillis() {
+        long now = System.currentTimeMillis();
+        if (bankService.getAppliedSeq() >= primarySeq) {
+            long silent = now - lastFrameAt;
+            return silent > 2 * Config.REPLICATION_HEARTBEAT_INTERVAL ? silent : 0;
+        }
+        return now - syncedAt;
+    }
+    
+    private void run() {
+        while (running) {
+            try {
+                if (in == null && handshake() == ReplicationServer.MODE_SNAPSHOT) {
+                    logger.error("Реплика отстала: нужные записи удалены из журнала основного сервера. "
+                        + "Репликация остановлена, требуется перезапуск реплики");
+                    running = false;
+                    break;
+                }
+                stream();
+            } catch (EOFException e) {
+                if (running) {
+                    logger.warn("Основной сервер закрыл соединение репликации");
+                }
+            } catch (IOException e) {
+                if (running) {
+                    logger.warn("Соединение с основным сервером потеряно: " + e.getMessage());
+                }
+            }
+            closeConnection();
+            try {
+                Thread.sleep(Config.REPLICATION_RETRY_INTERVAL);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        closeConnection();
+    }
+    
+    // Подключается, отвечает на вызов сервера по общему секрету и передает номер последней
+    // записи реплики; возвращает режим сервера
+    private byte handshake() throws IOException {
+        Socket connection = new Socket();
+        try {
+            connection.connect(new InetSocketAddress(host, port), Config.CONNECTION_TIMEOUT);
+            // Сигналы приходят каждый интервал: тишина дольше трех интервалов - разрыв
+            connection.setSoTimeout((int) (3 * Config.REPLICATION_HEARTBEAT_INTERVAL));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+            out.writeInt(ReplicationServer.MAGIC);
+            out.flush();
+            DataInputStream input = new DataInputStream(new BufferedInputStream(connection.getInputStream(), 64 * 1024));
+            byte[] nonce = new byte[ReplicationServer.NONCE_SIZE];
+            input.readFully(nonce);
+            out.write(ReplicationServer.sign(Config.REPLICATION_SECRET, nonce));
+            long lastSeq = bankService.getJournalSeq();
+            out.writeLong(lastSeq);
+            out.flush();
+            byte mode;
+            try {
+                mode = input.readByte();
+            } catch (EOFException e) {
+                throw new IOException("основной сервер отклонил подключение (проверьте секрет репликации)");
+            }
+            synchronized (this) {
+                socket = connection;
+                in = input;
+            }
+            logger.info("Реплика подключена к основному серверу " + host + ":" + port + " с записи " + lastSeq);
+            return mode;
+        } catch (IOException e) {
+            connection.close();
+            throw e;
+        }
+    }
+    
+    // Снимок принимается без ограничения времени чтения: основной сервер готовит его целиком.
+    // Данные реплики удаляются; если снимок не получен, реплика начинает с пустых данных.
+    private BankService installSnapshot(BankService service) throws IOException {
+        socket.setSoTimeout(0);
+        service.shutdown();
+        try {
+            for (String directory : new String[]{Config.JOURNAL_DIR, Config.SNAPSHOT_DIR, Config.HISTORY_DIR}) {
+                deleteFiles(Paths.get(directory));
+            }
+            // История пишется прямо в файлы HistoryStore, снимок сохраняется последним
+            HistoryStore history = new HistoryStore(Config.HISTORY_DIR, Config.HISTORY_SEGMENT_SIZE, logger);
+            try {
+                history.open(0, 0);
+                history.receive(in);
+                history.force();
+            } finally {
+                history.close();
+            }
+            SnapshotStore store = new SnapshotStore(Config.SNAPSHOT_DIR, Config.SNAPSHOTS_TO_KEEP, logger);
+            long seq = store.receive(in, in.readLong());
+            logger.info("Получен снимок данных основного сервера на запись " + seq);
+            socket.setSoTimeout((int) (3 * Config.REPLICATION_HEARTBEAT_INTERVAL));
+        } finally {
+            bankService = new BankService(logger, true);
+        }
+        return bankService;
+    }
+    
+    private static void deleteFiles(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                if (Files.isRegularFile(file)) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+    
+    private void stream() throws IOException {
+        DataInputStream in = this.in;
+        if (in == null) {
+            throw new IOException("соединение закрыто");
+        }
+        while (running) {
+            byte frame;
+            try {
+                frame = in.readByte();
+            } catch (SocketTimeoutException e) {
+                throw new IOException("нет сигналов от основного сервера");
+            }
+            long seq = in.readLong();
+            if (frame == ReplicationServer.FRAME_RECORD) {
+                int length = in.readInt();
+                if (length < 0 || length > MAX_RECORD_SIZE) {
+                    throw new IOException("недопустимая длина записи: " + length);
+                }
+                byte[] json = new byte[length];
+                in.readFully(json);
+                JournalRecord record;
+                try {
+                    record = gson.fromJson(new String(json, StandardCharsets.UTF_8), JournalRecord.class);
+                } catch (JsonParseException e) {
+                    throw new IOException("неверная запись журнала: " + e.getMessage());
+                }
+                if (!running) {
+                    break;
+                }
+                bankService.applyReplicated(record);
+            } else if (frame != ReplicationServer.FRAME_HEARTBEAT) {
+                throw new IOException("неизвестный кадр репликации: " + frame);
+            }
+            long now = System.currentTimeMillis();
+            primarySeq = seq;
+            lastFrameAt = now;
+            if (bankService.getAppliedSeq() >= seq) {
+                syncedAt = now;
+            }
+        }
+    }
+    
+    private synchronized void closeConnection() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Соединение уже закрыто
+            }
+        }
+        socket = null;
+        in = null;
+    }
+}
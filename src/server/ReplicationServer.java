@@ -0,0 +1,274 @@
+package server;
+
+import com.google.gson.Gson;
+import utils.Config;
+import utils.Logger;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+// Поток записей журнала для реплик. Реплика подключается и передает номер последней
+// примененной записи; сервер досылает недостающие записи из сегментов журнала на диске,
+// затем передает новые записи сразу после их сброса на диск. Если нужные записи уже
+// удалены вместе с сегментами, покрытыми снимком, реплика сначала получает снимок.
+// Реплика тоже отдает свой журнал (номера записей у нее те же), поэтому после
+// promote() ее реплики продолжают работу без перенастройки.
+//
+// Порт слушает только адрес Config.REPLICATION_BIND_ADDRESS. До передачи данных реплика
+// доказывает знание общего секрета (Config.REPLICATION_SECRET): сервер отправляет случайный
+// вызов, реплика отвечает HMAC-SHA256 от него; сам секрет по сети не передается.
+//
+// Протокол (DataOutputStream): реплика -> [MAGIC]; сервер -> [вызов, NONCE_SIZE байт];
+// реплика -> [HMAC вызова][lastSeq]; сервер -> MODE_STREAM или
+// MODE_SNAPSHOT [история HistoryStore.transferTo][длина][снимок], затем кадры FRAME_RECORD
+// [seq на диске у сервера][длина][JSON записи] и FRAME_HEARTBEAT [seq на диске у сервера],
+// если записей нет REPLICATION_HEARTBEAT_INTERVAL мс.
+public class ReplicationServer {
+    static final int MAGIC = 0x424E4B52; // "BNKR"
+    static final byte MODE_STREAM = 1;
+    static final byte MODE_SNAPSHOT = 2;
+    static final byte FRAME_RECORD = 1;
+    static final byte FRAME_HEARTBEAT = 2;
+    static final int NONCE_SIZE = 32;
+    
+    private final BankService bankService;
+    private final Journal journal;
+    private final Logger logger;
+    private final Gson gson = new Gson();
+    private final Set<Socket> followers = ConcurrentHashMap.newKeySet();
+    private final SecureRandom random = new SecureRandom();
+    private volatile ServerSocket serverSocket;
+    
+    public ReplicationServer(BankService bankService, Logger logger) {
+        this.bankService = bankService;
+        this.journal = bankService.getJournal();
+        this.logger = logger;
+    }
+    
+    public void start(int port) throws IOException {
+        if (Config.REPLICATION_SECRET.isEmpty()) {
+            throw new IOException("не задан секрет репликации (-Dbank.replication.secret)");
+        }
+        serverSocket = new ServerSocket(port, 50, InetAddress.getByName(Config.REPLICATION_BIND_ADDRESS));
+        Thread acceptor = new Thread(this::acceptLoop, "Replication-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        logger.info("Репликация журнала доступна на " + Config.REPLICATION_BIND_ADDRESS + ":" + port);
+    }
+    
+    private void acceptLoop() {
+        ServerSocket current = serverSocket;
+        while (current != null && !current.isClosed()) {
+            try {
+                Socket socket = current.accept();
+                Thread thread = new Thread(() -> serve(socket), "Replication-" + socket.getRemoteSocketAddress());
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                if (!current.isClosed()) {
+                    logger.error("Ошибка приема реплики: " + e.getMessage());
+                }
+            }
+        }
+    }
+    
+    public int getFollowerCount() {
+        return followers.size();
+    }
+    
+    // Записи после сброса на диск попадают в очередь реплики. Если реплика не успевает
+    // забирать записи, очередь переполняется и соединение закрывается: после переподключения
+    // реплика дочитает записи из сегментов журнала.
+    private static class FollowerQueue implements Consumer<List<JournalRecord>> {
+        final BlockingQueue<JournalRecord> records = new ArrayBlockingQueue<>(Config.REPLICATION_QUEUE_CAPACITY);
+        volatile boolean overflow;
+        
+        @Override
+        public void accept(List<JournalRecord> flushed) {
+            for (JournalRecord record : flushed) {
+                if (!records.offer(record)) {
+                    overflow = true;
+                    return;
+                }
+            }
+        }
+    }
+    
+    private void serve(Socket socket) {
+        String follower = String.valueOf(socket.getRemoteSocketAddress());
+        FollowerQueue queue = new FollowerQueue();
+        followers.add(socket);
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(Config.REPLICATION_AUTH_TIMEOUT);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+            if (in.readInt() != MAGIC) {
+                throw new IOException("неверный протокол репликации");
+            }
+            byte[] nonce = new byte[NONCE_SIZE];
+            random.nextBytes(nonce);
+            out.write(nonce);
+            out.flush();
+            byte[] proof = new byte[NONCE_SIZE];
+            in.readFully(proof);
+            if (!MessageDigest.isEqual(proof, sign(Config.REPLICATION_SECRET, nonce))) {
+                logger.warn("Реплика " + follower + " отклонена: неверный секрет репликации");
+                return;
+            }
+            long followerSeq = in.readLong();
+            // Очередь подключается до чтения журнала с диска: каждая запись окажется либо
+            // на диске в пределах прочитанного номера, либо в очереди (повторы пропускаются)
+            journal.addFlushListener(queue);
+            long sent;
+            if (followerSeq > journal.getFlushedSeq() || journal.getFirstAvailableSeq() > followerSeq + 1) {
+                logger.info("Реплика " + follower + " (запись " + followerSeq + ") получает снимок данных");
+                out.writeByte(MODE_SNAPSHOT);
+                sent = sendSnapshot(out);
+            } else {
+                out.writeByte(MODE_STREAM);
+                sent = followerSeq;
+            }
+            
+            long untilSeq = journal.getFlushedSeq();
+            sent = sendFromDisk(out, sent, untilSeq);
+            out.flush();
+            logger.info("Реплика " + follower + " подключена, передано записей из журнала до " + sent);
+            stream(queue, out, sent);
+        } catch (EOFException | SocketException e) {
+            logger.info("Реплика " + follower + " отключена");
+        } catch (IOException e) {
+            logger.warn("Репликация на " + follower + " прервана: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            journal.removeFlushListener(queue);
+            followers.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+    
+    // Сначала занятая часть файлов истории, на которую ссылается снимок, затем сам снимок:
+    // реплика сохраняет снимок последним, поэтому прерванная загрузка не оставит снимка без
+    // истории. Снимок пишется во временный файл, чтобы реплика получила его длину заранее.
+    private long sendSnapshot(DataOutputStream out) throws IOException {
+        Path file = Files.createTempFile(Paths.get(Config.SNAPSHOT_DIR), "replica-", ".tmp");
+        try {
+            SnapshotStore.Snapshot snapshot = bankService.exportSnapshot(file);
+            bankService.getHistoryStore().transferTo(out, snapshot.historyBlocks, snapshot.historyTextLength);
+            out.writeLong(Files.size(file));
+            Files.copy(file, out);
+            return snapshot.getLastSeq();
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+    
+    // Записи afterSeq + 1 .. untilSeq из сегментов журнала; возвращает номер последней переданной
+    private long sendFromDisk(DataOutputStream out, long afterSeq, long untilSeq) throws IOException {
+        long[] sent = {afterSeq};
+        IOException[] error = new IOException[1];
+        journal.read(afterSeq, untilSeq, record -> {
+            if (error[0] != null) {
+                return;
+            }
+            try {
+                sendRecord(out, record, sent[0], untilSeq);
+                sent[0] = record.getSeq();
+            } catch (IOException e) {
+                error[0] = e;
+            }
+        });
+        if (error[0] != null) {
+            throw error[0];
+        }
+        if (sent[0] < untilSeq) {
+            throw new IOException("записи журнала после " + sent[0] + " недоступны");
+        }
+        return sent[0];
+    }
+    
+    private void stream(FollowerQueue queue, DataOutputStream out, long sent)
+            throws IOException, InterruptedException {
+        while (true) {
+            JournalRecord record = queue.records.poll(Config.REPLICATION_HEARTBEAT_INTERVAL, TimeUnit.MILLISECONDS);
+            if (queue.overflow) {
+                throw new IOException("реплика не успевает получать записи");
+            }
+            if (record == null) {
+                out.writeByte(FRAME_HEARTBEAT);
+                out.writeLong(journal.getFlushedSeq());
+                out.flush();
+                continue;
+            }
+            long primarySeq = journal.getFlushedSeq();
+            do {
+                if (record.getSeq() > sent) {
+                    sendRecord(out, record, sent, primarySeq);
+                    sent = record.getSeq();
+                }
+            } while ((record = queue.records.poll()) != null);
+            out.flush();
+        }
+    }
+    
+    // Ответ на вызов сервера: HMAC-SHA256 по общему секрету (NONCE_SIZE байт)
+    static byte[] sign(String secret, byte[] nonce) throws IOException {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+            return mac.doFinal(nonce);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("HMAC недоступен: " + e.getMessage(), e);
+        }
+    }
+    
+    private void sendRecord(DataOutputStream out, JournalRecord record, long previousSeq, long primarySeq)
+            throws IOException {
+        if (record.getSeq() != previousSeq + 1) {
+            throw new IOException("пропуск в журнале: после записи " + previousSeq + " идет " + record.getSeq());
+        }
+        byte[] json = gson.toJson(record).getBytes(StandardCharsets.UTF_8);
+        out.writeByte(FRAME_RECORD);
+        out.writeLong(primarySeq);
+        out.writeInt(json.length);
+        out.write(json);
+    }
+    
+    public void stop() {
+        ServerSocket current = serverSocket;
+        serverSocket = null;
+        if (current != null) {
+            closeQuietly(current);
+        }
+        for (Socket socket : followers) {
+            closeQuietly(socket);
+        }
+    }
+    
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Соединение уже закрыто
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package server;
+
+import java.io.IOException;
+
+// Способ обслуживания клиентских соединений. Все движки используют общий BankService.
+public interface ServerEngine {
+    
+    // Принимает соединения на порту до вызова stop()
+    void start(int port) throws IOException;
+    
+    void stop();
+    
+    // Число открытых клиентских соединений
+    int getActiveConnections();
+    
+    // Число запросов, ожидающих свободного рабочего потока
+    int getQueuedRequests();
+}
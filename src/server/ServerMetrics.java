@@ -0,0 +1,176 @@
+package server;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import common.BankOperation;
+import utils.LatencyHistogram;
+import utils.Logger;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// Метрики сервера: по каждой операции - число запросов, неуспешных ответов и гистограмма
+// задержек обработки; сброс журнала на диск - время и записанные байты; снимки данных.
+// Запись - LongAdder и LatencyHistogram без блокировок (несколько атомарных инкрементов
+// на запрос). Мгновенные значения (соединения, очередь запросов, сеансы) снимаются при
+// чтении через зарегистрированные функции. Читаются операцией STATS и периодически
+// записываются в файл в формате JSON.
+public class ServerMetrics {
+    private static final BankOperation[] OPERATIONS = BankOperation.values();
+    
+    private final long startedAt = System.currentTimeMillis();
+    private final LongAdder[] requests = new LongAdder[OPERATIONS.length];
+    private final LongAdder[] errors = new LongAdder[OPERATIONS.length];
+    private final LatencyHistogram[] latencies = new LatencyHistogram[OPERATIONS.length];
+    private final LongAdder journalFlushes = new LongAdder();
+    private final LongAdder journalRecords = new LongAdder();
+    private final LongAdder journalBytes = new LongAdder();
+    private final LatencyHistogram journalFlushTime = new LatencyHistogram();
+    private final LatencyHistogram snapshotTime = new LatencyHistogram();
+    private final Map<String, LongSupplier> gauges = new LinkedHashMap<>();
+    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    private ScheduledExecutorService dumpScheduler;
+    
+    public ServerMetrics() {
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            requests[i] = new LongAdder();
+            errors[i] = new LongAdder();
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+    
+    // Обработанный запрос: success - успешен ли ответ, nanos - время обработки на сервере
+    public void recordOperation(BankOperation operation, boolean success, long nanos) {
+        int index = operation.ordinal();
+        requests[index].increment();
+        if (!success) {
+            errors[index].increment();
+        }
+        latencies[index].record(nanos);
+    }
+    
+    // Один сброс журнала на диск (запись и fsync)
+    public void recordJournalFlush(int records, long bytes, long nanos) {
+        journalFlushes.increment();
+        journalRecords.add(records);
+        journalBytes.add(bytes);
+        journalFlushTime.record(nanos);
+    }
+    
+    public void recordSnapshot(long nanos) {
+        snapshotTime.record(nanos);
+    }
+    
+    // Мгновенное значение, которое вычисляется при каждом чтении метрик
+    public synchronized void registerGauge(String name, LongSupplier supplier) {
+        gauges.put(name, supplier);
+    }
+    
+    public long getRequests(BankOperation operation) {
+        return requests[operation.ordinal()].sum();
+    }
+    
+    public long getErrors(BankOperation operation) {
+        return errors[operation.ordinal()].sum();
+    }
+    
+    public LatencyHistogram getLatency(BankOperation operation) {
+        return latencies[operation.ordinal()];
+    }
+    
+    public synchronized JsonObject toJson() {
+        JsonObject root = new JsonObject();
+        root.addProperty("timestamp", LocalDateTime.now().toString());
+        root.addProperty("uptimeMs", System.currentTimeMillis() - startedAt);
+        for (Map.Entry<String, LongSupplier> gauge : gauges.entrySet()) {
+            root.addProperty(gauge.getKey(), gauge.getValue().getAsLong());
+        }
+        
+        // Только операции, которые уже выполнялись
+        JsonObject operations = new JsonObject();
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            long count = requests[i].sum();
+            if (count == 0) {
+                continue;
+            }
+            JsonObject operation = histogramJson(latencies[i]);
+            operation.addProperty("count", count);
+            operation.addProperty("errors", errors[i].sum());
+            operations.add(OPERATIONS[i].name(), operation);
+        }
+        root.add("operations", operations);
+        
+        JsonObject journal = histogramJson(journalFlushTime);
+        journal.addProperty("flushes", journalFlushes.sum());
+        journal.addProperty("records", journalRecords.sum());
+        journal.addProperty("bytesWritten", journalBytes.sum());
+        root.add("journal", journal);
+        
+        JsonObject snapshots = histogramJson(snapshotTime);
+        snapshots.addProperty("count", snapshotTime.getCount());
+        root.add("snapshots", snapshots);
+        return root;
+    }
+    
+    public String toJsonString() {
+        return gson.toJson(toJson());
+    }
+    
+    // Времена в миллисекундах
+    private static JsonObject histogramJson(LatencyHistogram histogram) {
+        JsonObject json = new JsonObject();
+        json.addProperty("meanMs", histogram.getMean() / 1e6);
+        json.addProperty("p50Ms", histogram.getPercentile(50) / 1e6);
+        json.addProperty("p99Ms", histogram.getPercentile(99) / 1e6);
+        json.addProperty("p999Ms", histogram.getPercentile(99.9) / 1e6);
+        json.addProperty("maxMs", histogram.getMax() / 1e6);
+        return json;
+    }
+    
+    // Периодическая запись метрик в файл (временный файл и атомарная подмена)
+    public synchronized void startDump(Path file, long intervalMillis, Logger logger) {
+        dumpScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ServerMetrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumpScheduler.scheduleWithFixedDelay(() -> dump(file, logger), intervalMillis, intervalMillis,
+            TimeUnit.MILLISECONDS);
+    }
+    
+    // Останавливает периодическую запись; последние значения записываются в файл
+    public void stopDump(Path file, Logger logger) {
+        ScheduledExecutorService scheduler;
+        synchronized (this) {
+            scheduler = dumpScheduler;
+            dumpScheduler = null;
+        }
+        if (scheduler != null) {
+            scheduler.shutdown();
+            dump(file, logger);
+        }
+    }
+    
+    private void dump(Path file, Logger logger) {
+        try {
+            Path parent = file.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path temp = parent.resolve(file.getFileName() + ".tmp");
+            Files.write(temp, toJsonString().getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Не удалось записать метрики: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package server;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Сеансы пользователей по токенам. LOGIN открывает сеанс и возвращает клиенту токен,
+// RESUME привязывает к сеансу новое соединение без проверки пароля - это один поиск
+// в ConcurrentHashMap вместо хеширования. Срок действия продлевается при использовании;
+// просроченные сеансы удаляются при поиске и периодическим проходом при открытии новых.
+// Сеансы хранятся только в памяти: после перезапуска сервера нужен новый вход.
+public class SessionManager {
+    private static final int TOKEN_BYTES = 32;
+    
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final long ttl;
+    private final long sweepInterval;
+    private final AtomicLong nextSweep;
+    
+    public static class Session {
+        private final String token;
+        private final String login;
+        private volatile long expiresAt;
+        
+        Session(String token, String login, long expiresAt) {
+            this.token = token;
+            this.login = login;
+            this.expiresAt = expiresAt;
+        }
+        
+        public String getToken() { return token; }
+        public String getLogin() { return login; }
+        public long getExpiresAt() { return expiresAt; }
+    }
+    
+    public SessionManager(long ttl, long sweepInterval) {
+        this.ttl = ttl;
+        this.sweepInterval = sweepInterval;
+        this.nextSweep = new AtomicLong(System.currentTimeMillis() + sweepInterval);
+    }
+    
+    public Session open(String login) {
+        long now = System.currentTimeMillis();
+        sweepIfDue(now);
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        Session session = new Session(token, login, now + ttl);
+        sessions.put(token, session);
+        return session;
+    }
+    
+    // Сеанс с продленным сроком или null, если токен неизвестен или срок истек
+    public Session resume(String token) {
+        Session session = sessions.get(token);
+        if (session == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if (session.expiresAt <= now) {
+            sessions.remove(token, session);
+            return null;
+        }
+        session.expiresAt = now + ttl;
+        return session;
+    }
+    
+    // Продление при активности соединения; запись не чаще раза в половину срока
+    public void touch(Session session) {
+        long now = System.currentTimeMillis();
+        if (session.expiresAt - now < ttl / 2) {
+            session.expiresAt = now + ttl;
+        }
+    }
+    
+    public void close(Session session) {
+        sessions.remove(session.token, session);
+    }
+    
+    public int size() {
+        return sessions.size();
+    }
+    
+    // Проход по таблице выполняет только один поток, получивший очередь
+    private void sweepIfDue(long now) {
+        long due = nextSweep.get();
+        if (now >= due && nextSweep.compareAndSet(due, now + sweepInterval)) {
+            sessions.values().removeIf(session -> session.expiresAt <= now);
+        }
+    }
+}
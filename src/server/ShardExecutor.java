@@ -0,0 +1,125 @@
+package server;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Шарды BankService: пользователь по хешу логина принадлежит одному из shardCount шардов,
+// и все изменения его данных (счета, балансы) выполняет единственный поток этого шарда.
+// Внутри шарда блокировки не нужны: задачи выполняются строго по очереди. Операции
+// разных шардов идут параллельно. Задача шарда не должна ждать другой шард.
+public class ShardExecutor implements MutationExecutor {
+    private final ThreadPoolExecutor[] executors;
+    
+    public ShardExecutor(int shardCount, String name) {
+        this.executors = new ThreadPoolExecutor[Math.max(1, shardCount)];
+        for (int i = 0; i < executors.length; i++) {
+            String threadName = name + "-" + i;
+            executors[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, threadName);
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        }
+    }
+    
+    @Override
+    public int getShardCount() {
+        return executors.length;
+    }
+    
+    @Override
+    public int shardOf(String login) {
+        int hash = login != null ? login.hashCode() : 0;
+        return ((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % executors.length;
+    }
+    
+    // Выполняет задачу в потоке шарда и ждет результата (исключение задачи пробрасывается)
+    @Override
+    public <T> T call(int shard, Supplier<T> task) {
+        try {
+            return CompletableFuture.supplyAsync(task, executors[shard]).join();
+        } catch (CompletionException e) {
+            throw rethrow(e.getCause());
+        }
+    }
+    
+    // Задача над данными нескольких шардов (shards - по возрастанию, без повторов): потоки
+    // шардов останавливаются на время задачи, и она выполняется в вызывающем потоке.
+    // Шарды занимаются по возрастанию номера, поэтому встречные задачи не блокируют друг друга.
+    @Override
+    public <T> T callAll(int[] shards, Supplier<T> task) {
+        if (shards.length == 1) {
+            return call(shards[0], task);
+        }
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            for (int shard : shards) {
+                CountDownLatch parked = new CountDownLatch(1);
+                executors[shard].execute(() -> {
+                    parked.countDown();
+                    awaitUninterruptibly(release);
+                });
+                awaitUninterruptibly(parked);
+            }
+            return task.get();
+        } finally {
+            release.countDown();
+        }
+    }
+    
+    // Задачи, ожидающие выполнения во всех шардах
+    @Override
+    public int getQueuedTasks() {
+        int queued = 0;
+        for (ThreadPoolExecutor executor : executors) {
+            queued += executor.getQueue().size();
+        }
+        return queued;
+    }
+    
+    // Дожидается выполнения уже принятых задач
+    @Override
+    public void shutdown() {
+        for (ThreadPoolExecutor executor : executors) {
+            executor.shutdown();
+        }
+        try {
+            for (ThreadPoolExecutor executor : executors) {
+                executor.awaitTermination(5, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private static RuntimeException rethrow(Throwable cause) {
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        throw new IllegalStateException(cause);
+    }
+}
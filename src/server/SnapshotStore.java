@@ -0,0 +1,321 @@
+package server;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import common.Account;
+import common.User;
+import utils.Logger;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+// Снимки данных на момент записи журнала с номером lastSeq в двоичном формате:
+// [MAGIC][версия][lastSeq][пользователи][счета][история][переводы][CRC32 всего предыдущего].
+// Сами записи истории хранятся в HistoryStore, в снимок входят только блоки каждого
+// счета и размер занятой части HistoryStore.
+// Переводы - списанные, но еще не зачисленные переводы между шардами (записи
+// TRANSFER_DEBIT в JSON, как в журнале).
+// Реплика получает обычный снимок вместе с занятой частью файлов HistoryStore.
+// Файлы snapshot-<lastSeq>.bin; при старте берется последний снимок с верной
+// контрольной суммой, хранятся только последние keep снимков.
+public class SnapshotStore {
+    private static final int MAGIC = 0x424E4B53; // "BNKS"
+    private static final int FORMAT_VERSION = 3;
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".bin";
+    private static final int MAX_STRING_LENGTH = 16 * 1024 * 1024;
+    private static final Gson gson = new Gson();
+    
+    private final Path directory;
+    private final int keep;
+    private final Logger logger;
+    
+    // Содержимое снимка
+    public static class Snapshot {
+        final long lastSeq;
+        final List<User> users = new ArrayList<>();
+        final List<Account> accounts = new ArrayList<>();
+        final List<HistoryEntry> histories = new ArrayList<>();
+        final List<JournalRecord> pendingTransfers = new ArrayList<>();
+        int historyBlocks;
+        long historyTextLength;
+        
+        Snapshot(long lastSeq) {
+            this.lastSeq = lastSeq;
+        }
+        
+        public long getLastSeq() { return lastSeq; }
+    }
+    
+    static class HistoryEntry {
+        final String accountNumber;
+        final String owner;
+        final int count;
+        final int[] blocks;
+        final long lastId;
+        final boolean ordered;
+        
+        HistoryEntry(String accountNumber, String owner, int count, int[] blocks, long lastId, boolean ordered) {
+            this.accountNumber = accountNumber;
+            this.owner = owner;
+            this.count = count;
+            this.blocks = blocks;
+            this.lastId = lastId;
+            this.ordered = ordered;
+        }
+    }
+    
+    public SnapshotStore(String directory, int keep, Logger logger) {
+        this.directory = Paths.get(directory);
+        this.keep = Math.max(1, keep);
+        this.logger = logger;
+    }
+    
+    // Последний неповрежденный снимок или null
+    public Snapshot loadLatest() {
+        List<Path> files = listSnapshots();
+        for (int i = files.size() - 1; i >= 0; i--) {
+            try {
+                return read(files.get(i));
+            } catch (IOException e) {
+                logger.error("Снимок " + files.get(i).getFileName() + " поврежден: " + e.getMessage());
+            }
+        }
+        return null;
+    }
+    
+    // Записывает снимок (временный файл, fsync, атомарная подмена) и удаляет старые.
+    // Возвращает номер записи журнала, покрытой самым старым из оставшихся снимков.
+    public long write(Snapshot snapshot) throws IOException {
+        Files.createDirectories(directory);
+        Path target = directory.resolve(String.format("%s%020d%s", PREFIX, snapshot.lastSeq, SUFFIX));
+        Path temp = directory.resolve(target.getFileName() + ".tmp");
+        
+        try (FileOutputStream file = new FileOutputStream(temp.toFile())) {
+            writeTo(file, snapshot);
+            file.getFD().sync();
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return removeOld();
+    }
+    
+    // Снимок для реплики в файл file (без хранения среди снимков этого сервера)
+    public void export(Snapshot snapshot, Path file) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file.toFile())) {
+            writeTo(out, snapshot);
+        }
+    }
+    
+    // Снимок, полученный репликой от основного сервера (length байт из in), сохраняется
+    // как обычный файл снимка и проверяется чтением. Возвращает номер записи журнала снимка.
+    public long receive(InputStream in, long length) throws IOException {
+        Files.createDirectories(directory);
+        Path temp = directory.resolve(PREFIX + "received" + SUFFIX + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temp.toFile())) {
+            byte[] buffer = new byte[64 * 1024];
+            long remaining = length;
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    throw new EOFException("снимок получен не полностью");
+                }
+                file.write(buffer, 0, read);
+                remaining -= read;
+            }
+            file.getFD().sync();
+        }
+        long lastSeq = read(temp).lastSeq;
+        Path target = directory.resolve(String.format("%s%020d%s", PREFIX, lastSeq, SUFFIX));
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return lastSeq;
+    }
+    
+    private static void writeTo(OutputStream file, Snapshot snapshot) throws IOException {
+        CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(file, 64 * 1024), new CRC32());
+        DataOutputStream out = new DataOutputStream(checked);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeLong(snapshot.lastSeq);
+        
+        out.writeInt(snapshot.users.size());
+        for (User user : snapshot.users) {
+            writeString(out, user.getLogin());
+            writeString(out, user.getPassword());
+        }
+        
+        out.writeInt(snapshot.accounts.size());
+        for (Account account : snapshot.accounts) {
+            writeString(out, account.getAccountNumber());
+            writeString(out, account.getOwner());
+            out.writeLong(account.getBalance());
+            writeString(out, account.getCurrency());
+        }
+        
+        out.writeInt(snapshot.historyBlocks);
+        out.writeLong(snapshot.historyTextLength);
+        out.writeInt(snapshot.histories.size());
+        for (HistoryEntry entry : snapshot.histories) {
+            writeString(out, entry.accountNumber);
+            writeString(out, entry.owner);
+            out.writeInt(entry.count);
+            out.writeLong(entry.lastId);
+            out.writeBoolean(entry.ordered);
+            out.writeInt(entry.blocks.length);
+            for (int block : entry.blocks) {
+                out.writeInt(block);
+            }
+        }
+        
+        out.writeInt(snapshot.pendingTransfers.size());
+        for (JournalRecord debit : snapshot.pendingTransfers) {
+            writeString(out, gson.toJson(debit));
+        }
+        
+        // Контрольная сумма не входит в саму себя
+        out.flush();
+        new DataOutputStream(file).writeLong(checked.getChecksum().getValue());
+    }
+    
+    private Snapshot read(Path file) throws IOException {
+        try (InputStream raw = new BufferedInputStream(Files.newInputStream(file), 64 * 1024)) {
+            CheckedInputStream checked = new CheckedInputStream(raw, new CRC32());
+            DataInputStream in = new DataInputStream(checked);
+            if (in.readInt() != MAGIC) {
+                throw new IOException("неверный формат файла");
+            }
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("неизвестная версия формата " + version);
+            }
+            Snapshot snapshot = new Snapshot(in.readLong());
+            
+            int userCount = readCount(in);
+            for (int i = 0; i < userCount; i++) {
+                snapshot.users.add(new User(readString(in), readString(in)));
+            }
+            
+            int accountCount = readCount(in);
+            for (int i = 0; i < accountCount; i++) {
+                snapshot.accounts.add(new Account(readString(in), readString(in), in.readLong(), readString(in)));
+            }
+            
+            snapshot.historyBlocks = readCount(in);
+            snapshot.historyTextLength = in.readLong();
+            int historyCount = readCount(in);
+            for (int i = 0; i < historyCount; i++) {
+                String accountNumber = readString(in);
+                String owner = readString(in);
+                int count = readCount(in);
+                long lastId = in.readLong();
+                boolean ordered = in.readBoolean();
+                int blockCount = readCount(in);
+                if (blockCount > count / HistoryStore.BLOCK_RECORDS + 1) {
+                    throw new IOException("недопустимое число блоков истории: " + blockCount);
+                }
+                int[] blocks = new int[blockCount];
+                for (int j = 0; j < blocks.length; j++) {
+                    blocks[j] = in.readInt();
+                }
+                snapshot.histories.add(new HistoryEntry(accountNumber, owner, count, blocks, lastId, ordered));
+            }
+            
+            int transferCount = readCount(in);
+            for (int i = 0; i < transferCount; i++) {
+                JournalRecord debit;
+                try {
+                    debit = gson.fromJson(readString(in), JournalRecord.class);
+                } catch (JsonParseException e) {
+                    debit = null;
+                }
+                if (debit == null || debit.getType() != JournalRecord.Type.TRANSFER_DEBIT) {
+                    throw new IOException("неверная запись незавершенного перевода");
+                }
+                snapshot.pendingTransfers.add(debit);
+            }
+            
+            long expected = checked.getChecksum().getValue();
+            if (new DataInputStream(raw).readLong() != expected) {
+                throw new IOException("неверная контрольная сумма");
+            }
+            return snapshot;
+        } catch (EOFException e) {
+            throw new IOException("файл обрезан");
+        }
+    }
+    
+    // Удаляет снимки сверх keep последних
+    private long removeOld() {
+        List<Path> files = listSnapshots();
+        for (int i = 0; i < files.size() - keep; i++) {
+            try {
+                Files.deleteIfExists(files.get(i));
+            } catch (IOException e) {
+                logger.warn("Не удалось удалить снимок " + files.get(i).getFileName() + ": " + e.getMessage());
+            }
+        }
+        int oldest = Math.max(0, files.size() - keep);
+        return files.isEmpty() ? 0 : seqOf(files.get(oldest));
+    }
+    
+    private List<Path> listSnapshots() {
+        List<Path> files = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return files;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        } catch (IOException e) {
+            logger.error("Ошибка чтения каталога снимков: " + e.getMessage());
+        }
+        // Номера дополнены нулями, поэтому имена сортируются как строки
+        files.sort(null);
+        return files;
+    }
+    
+    private static long seqOf(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+    
+    private static int readCount(DataInput in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("недопустимый размер: " + count);
+        }
+        return count;
+    }
+    
+    static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    
+    static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > MAX_STRING_LENGTH) {
+            throw new IOException("недопустимая длина строки: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
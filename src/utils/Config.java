@@ -1,13 +1,83 @@
 package utils;
 
+import java.util.Arrays;
+import java.util.Set;
+import java.util.stream.Collectors;
+
 public class Config {
     public static final int SERVER_PORT = 12345;
     public static final String SERVER_HOST = "localhost";
-    public static final String USER_DATA_FILE = "data/users.json";
-    public static final String ACCOUNT_DATA_FILE = "data/accounts.json";
-    public static final String TRANSACTION_DATA_FILE = "data/transactions.json";
+    // Каталог данных сервера (бенчмарки и нагрузочные тесты запускают сервер на временном каталоге)
+    public static final String DATA_DIR = System.getProperty("bank.data.dir", "data");
+    public static final String USER_DATA_FILE = DATA_DIR + "/users.json";
+    public static final String ACCOUNT_DATA_FILE = DATA_DIR + "/accounts.json";
+    public static final String TRANSACTION_DATA_FILE = DATA_DIR + "/transactions.json";
+    public static final String JOURNAL_DIR = DATA_DIR + "/journal";
+    public static final String SNAPSHOT_DIR = DATA_DIR + "/snapshots";
+    public static final String HISTORY_DIR = DATA_DIR + "/history"; // история операций (файлы, отображаемые в память)
+    public static final String RATES_FILE = DATA_DIR + "/rates.properties"; // курсы валют к RUB, перечитываются при изменении
+    public static final long RATES_RELOAD_INTERVAL = 5000; // мс между проверками файла курсов
+    public static final long HISTORY_SEGMENT_SIZE = 64 * 1024 * 1024; // размер файла истории
+    public static final long JOURNAL_SEGMENT_SIZE = 64 * 1024 * 1024; // размер сегмента журнала
+    public static final long SNAPSHOT_INTERVAL = 60000; // мс между снимками данных
+    public static final int SNAPSHOTS_TO_KEEP = 2;
+    public static final int JOURNAL_MAX_BATCH = 4096; // записей журнала в одном сбросе на диск
     public static final String SERVER_LOG_FILE = "logs/server.log";
     public static final String CLIENT_LOG_FILE = "logs/client.log";
+    public static final String METRICS_FILE = "logs/metrics.json"; // периодическая выгрузка метрик сервера
+    public static final long METRICS_DUMP_INTERVAL = 10000; // мс между выгрузками метрик
+    // Пользователи, которым доступны операции STATS и PROMOTE (логины через запятую).
+    // По умолчанию администраторов нет: логин из списка может зарегистрировать любой,
+    // поэтому список задается явно для заранее созданных учетных записей.
+    public static final Set<String> ADMIN_USERS = Arrays.stream(System.getProperty("bank.admin.users", "").split(","))
+        .map(String::trim).filter(login -> !login.isEmpty()).collect(Collectors.toUnmodifiableSet());
+    public static final String LOG_LEVEL = System.getProperty("bank.log.level", "INFO"); // DEBUG, INFO, WARN, ERROR
+    public static final int LOG_QUEUE_CAPACITY = 65536; // записей в очереди на запись
+    public static final long LOG_MAX_FILE_SIZE = 10 * 1024 * 1024; // размер файла до ротации
+    public static final int LOG_MAX_ARCHIVES = 10; // хранимых сжатых частей лога
+    // Протокол клиента: "binary" (BinaryCodec) или "object" (Java-сериализация)
+    public static final String WIRE_PROTOCOL = System.getProperty("bank.protocol", "binary");
+    // Движок соединений сервера: threads, virtual или nio
+    public static final String SERVER_ENGINE = System.getProperty("bank.engine", "threads");
+    public static final int NIO_WORKER_THREADS = Runtime.getRuntime().availableProcessors() * 2;
+    public static final int NIO_QUEUE_CAPACITY = 10000;
+    public static final int NIO_BUFFER_SIZE = 16 * 1024;
+    public static final int NIO_MAX_POOLED_BUFFERS = 1024;
+    // Ответы соединения, ожидающие отправки: сверх этого объема сервер перестает читать
+    // новые запросы соединения, пока клиент не заберет ответы
+    public static final int NIO_MAX_OUTBOUND_BYTES = 1024 * 1024;
+    // Потоки для соединений старого протокола (Java-сериализация) в режиме nio
+    public static final int NIO_LEGACY_THREADS = 256;
+    // Запросов одного соединения без ответа: предел клиента и сервера (nio)
+    public static final int MAX_IN_FLIGHT_REQUESTS = 1024;
+    public static final int ACCOUNTS_CACHE_TTL = 1000; // мс без обращения к серверу за списком счетов
     public static final int CONNECTION_TIMEOUT = 30000; // 30 секунд
-    public static final int OPERATION_TIMEOUT = 10000; // 10 секунд
+    public static final int HISTORY_PAGE_SIZE = 20;
+    // Шарды BankService: у каждого свой поток, изменяющий данные его пользователей
+    public static final int SHARD_COUNT = Integer.getInteger("bank.shards", Runtime.getRuntime().availableProcessors());
+    // Исполнитель изменений: shards (ShardExecutor) или ring - один поток бизнес-логики
+    // с кольцевым буфером команд (LedgerRing) на LEDGER_RING_SIZE ячеек
+    public static final String MUTATION_ENGINE = System.getProperty("bank.ledger", "shards");
+    public static final int LEDGER_RING_SIZE = 4096;
+    public static final int MAX_BATCH_SIZE = 10000; // операций в одном пакете BATCH
+    public static final int OPERATION_TIMEOUT = 5000; // 5 секунд; повтор безопасен благодаря ключам идемпотентности
+    public static final long IDEMPOTENCY_TTL = 10 * 60 * 1000; // срок хранения ответа для повторов запроса
+    public static final int IDEMPOTENCY_MAX_KEYS = 100000; // ответов в кэше повторов
+    public static final long SESSION_TTL = 30 * 60 * 1000; // срок сеанса без активности (токен для RESUME)
+    public static final long SESSION_SWEEP_INTERVAL = 60000; // мс между удалениями просроченных сеансов
+    // Репликация: основной сервер отдает поток записей журнала репликам на REPLICATION_PORT
+    // (по умолчанию 0 - отключено); реплика запускается с -Dbank.follow=host:port основного сервера.
+    // Порт слушает только REPLICATION_BIND_ADDRESS (по умолчанию loopback), реплика доказывает
+    // знание общего секрета REPLICATION_SECRET; без секрета репликация не запускается.
+    public static final int REPLICATION_PORT = Integer.getInteger("bank.replication.port", 0);
+    public static final String REPLICATION_BIND_ADDRESS = System.getProperty("bank.replication.bind", "127.0.0.1");
+    public static final String REPLICATION_SECRET = System.getProperty("bank.replication.secret", "");
+    public static final int REPLICATION_AUTH_TIMEOUT = 10000; // мс на рукопожатие реплики
+    public static final String REPLICATION_FOLLOW = System.getProperty("bank.follow");
+    public static final long REPLICATION_HEARTBEAT_INTERVAL = 1000; // мс между сигналами при отсутствии записей
+    public static final int REPLICATION_QUEUE_CAPACITY = 100000; // записей в очереди одной реплики
+    public static final long REPLICATION_RETRY_INTERVAL = 2000; // мс между попытками подключения к основному серверу
+    // Реплики для чтения на стороне клиента (host:port через запятую) и допустимое отставание
+    public static final String REPLICA_ADDRESSES = System.getProperty("bank.replicas", "");
+    public static final long REPLICA_MAX_LAG = Long.getLong("bank.replica.max.lag", 1000);
 }
\ No newline at end of file
@@ -1,50 +1,257 @@
 package utils;
 
-import java.util.HashMap;
+import common.Money;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
+// Курсы валют. Валюты регистрируются во время работы и получают постоянные порядковые
+// номера; курсы хранятся в неизменяемом снимке (Rates) с готовой матрицей кросс-курсов
+// по номерам валют. Обновление курсов строит новый снимок и атомарно подменяет ссылку,
+// поэтому конвертация никогда не ждет обновления и внутри одного снимка согласована.
 public class CurrencyConverter {
     
-    private static final Map<String, Double> exchangeRates = new HashMap<>();
+    // Курсы к базовой валюте (RUB) в миллионных долях: 1 USD = 100.000000 RUB
+    public static final long RATE_SCALE = 1_000_000L;
+    public static final String BASE_CURRENCY = "RUB";
+    
+    // Номера валют только добавляются, поэтому номер из любого снимка остается верным
+    private static final Map<String, Integer> ordinals = new ConcurrentHashMap<>();
+    private static final List<String> codes = new ArrayList<>();
+    private static final AtomicReference<Rates> current = new AtomicReference<>();
     
     static {
-        exchangeRates.put("RUB", 1.0);
-        exchangeRates.put("USD", 100.0);  // 1 USD = 100 RUB
-        exchangeRates.put("EUR", 110.0);  // 1 EUR = 110 RUB
+        Map<String, Long> defaults = new LinkedHashMap<>();
+        defaults.put("RUB", 1L * RATE_SCALE);
+        defaults.put("USD", 100L * RATE_SCALE);  // 1 USD = 100 RUB
+        defaults.put("EUR", 110L * RATE_SCALE);  // 1 EUR = 110 RUB
+        update(defaults);
     }
     
-    public static double convert(double amount, String fromCurrency, String toCurrency) {
-        if (fromCurrency.equals(toCurrency)) {
-            return amount;
+    // Неизменяемый набор курсов с номером версии. Номер считается заново при каждом запуске
+    // (для метрик и лога), поэтому в журнал операций пишутся сами курсы (getBaseRate).
+    // Для пары валют хранится дробь rateFrom * 10^digitsTo / (rateTo * 10^digitsFrom),
+    // сокращенная на НОД.
+    public static final class Rates {
+        private final long version;
+        private final String[] currencies;
+        private final long[] baseRates; // 0 - курса нет, валюта не поддерживается
+        private final long[] numerators;
+        private final long[] denominators;
+        
+        private Rates(long version, String[] currencies, long[] baseRates) {
+            int size = currencies.length;
+            this.version = version;
+            this.currencies = currencies;
+            this.baseRates = baseRates;
+            this.numerators = new long[size * size];
+            this.denominators = new long[size * size];
+            for (int from = 0; from < size; from++) {
+                for (int to = 0; to < size; to++) {
+                    if (baseRates[from] == 0 || baseRates[to] == 0) {
+                        continue;
+                    }
+                    long numerator = baseRates[from] * Money.unitScale(currencies[to]);
+                    long denominator = baseRates[to] * Money.unitScale(currencies[from]);
+                    long gcd = BigInteger.valueOf(numerator).gcd(BigInteger.valueOf(denominator)).longValue();
+                    numerators[from * size + to] = numerator / gcd;
+                    denominators[from * size + to] = denominator / gcd;
+                }
+            }
+        }
+        
+        public long getVersion() {
+            return version;
+        }
+        
+        // Номер валюты или -1, если в этом снимке ее нет
+        public int ordinalOf(String currency) {
+            Integer ordinal = currency != null ? ordinals.get(currency) : null;
+            return ordinal != null && ordinal < currencies.length ? ordinal : -1;
+        }
+        
+        public boolean isSupported(String currency) {
+            return getBaseRate(currency) != 0;
+        }
+        
+        // Курс к базовой валюте в RATE_SCALE, 0 - валюта не поддерживается
+        public long getBaseRate(String currency) {
+            int ordinal = ordinalOf(currency);
+            return ordinal >= 0 ? baseRates[ordinal] : 0;
+        }
+        
+        // Валюты с курсом, в порядке регистрации
+        public List<String> getCurrencies() {
+            List<String> supported = new ArrayList<>();
+            for (int i = 0; i < currencies.length; i++) {
+                if (baseRates[i] != 0) {
+                    supported.add(currencies[i]);
+                }
+            }
+            return supported;
+        }
+        
+        // Конвертация суммы в минимальных единицах с округлением до ближайшей
+        // минимальной единицы целевой валюты (половина - к четному)
+        public long convert(long amount, String fromCurrency, String toCurrency) {
+            if (fromCurrency.equals(toCurrency)) {
+                return amount;
+            }
+            return convert(amount, ordinalOf(fromCurrency), ordinalOf(toCurrency));
         }
         
-        // Конвертируем в базовую валюту (RUB), затем в целевую
-        double amountInRUB = amount * exchangeRates.getOrDefault(fromCurrency, 1.0);
-        double rateToTarget = exchangeRates.getOrDefault(toCurrency, 1.0);
+        public long convert(long amount, int from, int to) {
+            if (from == to) {
+                return amount;
+            }
+            if (from < 0 || to < 0 || baseRates[from] == 0 || baseRates[to] == 0) {
+                throw new IllegalArgumentException("Валюта не поддерживается");
+            }
+            int index = from * currencies.length + to;
+            return divideRounded(amount, numerators[index], denominators[index]);
+        }
         
-        return amountInRUB / rateToTarget;
+        // Сколько единиц целевой валюты за 1 единицу исходной, только для отображения
+        public double getExchangeRate(String fromCurrency, String toCurrency) {
+            if (fromCurrency.equals(toCurrency)) {
+                return 1.0;
+            }
+            int from = ordinalOf(fromCurrency);
+            int to = ordinalOf(toCurrency);
+            if (from < 0 || to < 0 || baseRates[from] == 0 || baseRates[to] == 0) {
+                return 1.0;
+            }
+            return (double) baseRates[from] / baseRates[to];
+        }
+    }
+    
+    // Текущий снимок курсов: проверка валют, конвертация и номер версии из одного снимка
+    public static Rates rates() {
+        return current.get();
+    }
+    
+    // Номер валюты; новая валюта получает следующий номер (курса у нее пока нет)
+    public static int registerCurrency(String currency) {
+        Integer ordinal = ordinals.get(currency);
+        if (ordinal != null) {
+            return ordinal;
+        }
+        synchronized (codes) {
+            return ordinals.computeIfAbsent(currency, key -> {
+                codes.add(key);
+                return codes.size() - 1;
+            });
+        }
     }
     
+    // Новый набор курсов к базовой валюте (в RATE_SCALE); валюты без курса перестают
+    // поддерживаться. Снимки строятся по очереди, читатели видят старый или новый целиком.
+    public static synchronized Rates update(Map<String, Long> ratesToBase) {
+        for (String currency : ratesToBase.keySet()) {
+            registerCurrency(currency);
+        }
+        String[] currencies;
+        synchronized (codes) {
+            currencies = codes.toArray(new String[0]);
+        }
+        long[] baseRates = new long[currencies.length];
+        for (Map.Entry<String, Long> rate : ratesToBase.entrySet()) {
+            if (rate.getValue() <= 0) {
+                throw new IllegalArgumentException("Курс должен быть положительным: " + rate.getKey());
+            }
+            baseRates[ordinals.get(rate.getKey())] = rate.getValue();
+        }
+        Rates previous = current.get();
+        Rates next = new Rates(previous != null ? previous.version + 1 : 1, currencies, baseRates);
+        current.set(next);
+        return next;
+    }
+    
+    // Файл курсов: строки "USD=100.25" (сколько базовой валюты за единицу), # - комментарий.
+    // Базовая валюта добавляется с курсом 1, если ее нет в файле.
+    public static Map<String, Long> readRates(Path file) throws IOException {
+        Map<String, Long> rates = new LinkedHashMap<>();
+        rates.put(BASE_CURRENCY, RATE_SCALE);
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                int separator = line.indexOf('=');
+                String currency = separator > 0 ? line.substring(0, separator).trim().toUpperCase() : "";
+                if (!currency.matches("[A-Z]{3}")) {
+                    throw new IOException("Строка " + lineNumber + ": ожидается КОД=курс");
+                }
+                try {
+                    long rate = new BigDecimal(line.substring(separator + 1).trim())
+                            .movePointRight(6).setScale(0, RoundingMode.HALF_EVEN).longValueExact();
+                    if (rate <= 0) {
+                        throw new IOException("Строка " + lineNumber + ": курс должен быть положительным");
+                    }
+                    rates.put(currency, rate);
+                } catch (NumberFormatException | ArithmeticException e) {
+                    throw new IOException("Строка " + lineNumber + ": неверный курс");
+                }
+            }
+        }
+        return rates;
+    }
+    
+    public static long convert(long amount, String fromCurrency, String toCurrency) {
+        return rates().convert(amount, fromCurrency, toCurrency);
+    }
+    
+    static long divideRounded(long amount, long numeratorRate, long denominator) {
+        long high = Math.multiplyHigh(amount, numeratorRate);
+        long numerator = amount * numeratorRate;
+        if ((high != 0 || numerator < 0) && (high != -1 || numerator >= 0)) {
+            // Переполнение long - редкий путь для очень больших сумм
+            BigInteger[] qr = BigInteger.valueOf(amount).multiply(BigInteger.valueOf(numeratorRate))
+                    .divideAndRemainder(BigInteger.valueOf(denominator));
+            long quotient = qr[0].longValueExact();
+            return roundHalfEven(quotient, qr[1].abs().shiftLeft(1).compareTo(BigInteger.valueOf(denominator)),
+                    qr[1].signum());
+        }
+        long quotient = numerator / denominator;
+        long remainder = numerator % denominator;
+        return roundHalfEven(quotient, Long.compare(Math.abs(remainder) * 2, denominator), Long.signum(remainder));
+    }
+    
+    private static long roundHalfEven(long quotient, int halfComparison, int sign) {
+        if (halfComparison > 0 || (halfComparison == 0 && (quotient & 1) != 0)) {
+            return Math.addExact(quotient, sign);
+        }
+        return quotient;
+    }
+     
      //Получает курс обмена между двумя валютами
      //@param fromCurrency исходная валюта
      //@param toCurrency целевая валюта
-     //return курс обмена (сколько единиц целевой валюты за 1 единицу исходной)
-     
+     //return курс обмена (сколько единиц целевой валюты за 1 единицу исходной), только для отображения
+    
     public static double getExchangeRate(String fromCurrency, String toCurrency) {
-        if (fromCurrency.equals(toCurrency)) {
-            return 1.0;
-        }
-        
-        double rateFrom = exchangeRates.getOrDefault(fromCurrency, 1.0);
-        double rateTo = exchangeRates.getOrDefault(toCurrency, 1.0);
-        
-        return rateFrom / rateTo;
+        return rates().getExchangeRate(fromCurrency, toCurrency);
     }
     
     //Проверяет, поддерживается ли валюта
     
     public static boolean isCurrencySupported(String currency) {
-        return exchangeRates.containsKey(currency);
+        return rates().isSupported(currency);
     }
     
     //Получает форматированную строку курса обмена
@@ -53,4 +260,3 @@ public class CurrencyConverter {
         return String.format("1 %s = %.4f %s", fromCurrency, rate, toCurrency);
     }
 }
-
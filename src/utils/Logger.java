@@ -1,36 +1,311 @@
 package utils;
 
-import java.io.FileWriter;
-import java.io.IOException;
-import java.io.PrintWriter;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
 
+// Асинхронный логгер: вызывающий поток только проверяет уровень и кладет запись
+// в ограниченную неблокирующую очередь. Форматирование, вывод в консоль и запись
+// в файл выполняет один фоновый поток на файл, который держит файл открытым и
+// ротирует его по размеру со сжатием старых частей в gzip.
 public class Logger {
-    private String logFile;
-    private String name;
+    public enum Level {
+        DEBUG, INFO, WARN, ERROR
+    }
+    
+    // Один поток записи на файл (логгеры с одним файлом используют общую очередь)
+    private static final Map<String, LogWriter> writers = new ConcurrentHashMap<>();
+    private static final Level threshold = parseLevel(Config.LOG_LEVEL);
+    
+    private final String name;
+    private final LogWriter writer;
     
     public Logger(String name, String logFile) {
         this.name = name;
-        this.logFile = logFile;
+        this.writer = writers.computeIfAbsent(logFile, LogWriter::new);
     }
     
     public void log(String level, String message) {
-        String timestamp = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date());
-        String logMessage = String.format("[%s] %s [%s] %s", timestamp, level, name, message);
-        
-        // Вывод в консоль
-        System.out.println(logMessage);
+        Level parsed = parseLevel(level);
+        if (isEnabled(parsed)) {
+            writer.enqueue(new LogRecord(System.currentTimeMillis(), parsed, name, message));
+        }
+    }
+    
+    private void log(Level level, String message) {
+        if (isEnabled(level)) {
+            writer.enqueue(new LogRecord(System.currentTimeMillis(), level, name, message));
+        }
+    }
+    
+    private void log(Level level, Supplier<String> message) {
+        if (isEnabled(level)) {
+            writer.enqueue(new LogRecord(System.currentTimeMillis(), level, name, message.get()));
+        }
+    }
+    
+    public boolean isEnabled(Level level) {
+        return level.compareTo(threshold) >= 0;
+    }
+    
+    public boolean isDebugEnabled() { return isEnabled(Level.DEBUG); }
+    public boolean isInfoEnabled() { return isEnabled(Level.INFO); }
+    
+    public void debug(String message) { log(Level.DEBUG, message); }
+    public void info(String message) { log(Level.INFO, message); }
+    public void error(String message) { log(Level.ERROR, message); }
+    public void warn(String message) { log(Level.WARN, message); }
+    
+    // Сообщение строится, только если уровень включен
+    public void debug(Supplier<String> message) { log(Level.DEBUG, message); }
+    public void info(Supplier<String> message) { log(Level.INFO, message); }
+    public void error(Supplier<String> message) { log(Level.ERROR, message); }
+    public void warn(Supplier<String> message) { log(Level.WARN, message); }
+    
+    // Дожидается записи всех принятых сообщений (например, перед завершением программы)
+    public void flush() {
+        writer.flush();
+    }
+    
+    private static Level parseLevel(String level) {
+        try {
+            return Level.valueOf(level.trim().toUpperCase());
+        } catch (IllegalArgumentException | NullPointerException e) {
+            return Level.INFO;
+        }
+    }
+    
+    private static class LogRecord {
+        final long time;
+        final Level level;
+        final String name;
+        final String message;
         
-        // Запись в файл
-        try (PrintWriter out = new PrintWriter(new FileWriter(logFile, true))) {
-            out.println(logMessage);
-        } catch (IOException e) {
-            System.err.println("Ошибка записи в лог: " + e.getMessage());
+        LogRecord(long time, Level level, String name, String message) {
+            this.time = time;
+            this.level = level;
+            this.name = name;
+            this.message = message;
         }
     }
     
-    public void info(String message) { log("INFO", message); }
-    public void error(String message) { log("ERROR", message); }
-    public void warn(String message) { log("WARN", message); }
-}
\ No newline at end of file
+    // Очередь и поток записи одного файла
+    private static class LogWriter implements Runnable {
+        private static final DateTimeFormatter TIMESTAMP_FORMAT =
+                DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+        private static final DateTimeFormatter ARCHIVE_FORMAT =
+                DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS").withZone(ZoneId.systemDefault());
+        
+        // Сброс в консоль и на диск не реже чем раз в BATCH_SIZE записей
+        private static final int BATCH_SIZE = 1024;
+        
+        private final Path file;
+        private final ConcurrentLinkedQueue<LogRecord> queue = new ConcurrentLinkedQueue<>();
+        // Размер очереди отдельно: ConcurrentLinkedQueue.size() проходит весь список
+        private final AtomicInteger queued = new AtomicInteger();
+        private final AtomicLong dropped = new AtomicLong();
+        // Число записей, принятых в очередь и уже сброшенных в консоль и файл (для flush)
+        private final AtomicLong accepted = new AtomicLong();
+        private volatile long written;
+        // Записи, переданные в буфер, но, возможно, еще не сброшенные (только поток записи)
+        private long buffered;
+        private volatile boolean idle;
+        private final Thread thread;
+        
+        private Writer out;
+        private CountingOutputStream counter;
+        private long cachedSecond = -1;
+        private String cachedTimestamp;
+        
+        LogWriter(String fileName) {
+            this.file = Paths.get(fileName);
+            this.thread = new Thread(this, "Logger-" + file.getFileName());
+            thread.setDaemon(true);
+            thread.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(this::flush));
+        }
+        
+        void enqueue(LogRecord record) {
+            if (queued.incrementAndGet() > Config.LOG_QUEUE_CAPACITY) {
+                // Очередь переполнена: запись отбрасывается, вызывающий поток не ждет диска
+                queued.decrementAndGet();
+                dropped.incrementAndGet();
+                return;
+            }
+            accepted.incrementAndGet();
+            queue.offer(record);
+            if (idle) {
+                LockSupport.unpark(thread);
+            }
+        }
+        
+        void flush() {
+            long target = accepted.get();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (written < target && System.nanoTime() < deadline && thread.isAlive()) {
+                LockSupport.unpark(thread);
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            }
+        }
+        
+        @Override
+        public void run() {
+            List<String> console = new ArrayList<>();
+            while (true) {
+                LogRecord record = queue.poll();
+                if (record == null) {
+                    flushBatch(console);
+                    idle = true;
+                    // Повторная проверка после выставления флага, чтобы не пропустить unpark
+                    if (queue.isEmpty()) {
+                        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+                    }
+                    idle = false;
+                    continue;
+                }
+                queued.decrementAndGet();
+                long lost = dropped.getAndSet(0);
+                if (lost > 0) {
+                    write(format(new LogRecord(record.time, Level.WARN, "Logger",
+                            "Очередь лога переполнена, пропущено записей: " + lost)), console);
+                }
+                write(format(record), console);
+                buffered++;
+                if (console.size() >= BATCH_SIZE) {
+                    flushBatch(console);
+                }
+            }
+        }
+        
+        private String format(LogRecord record) {
+            long second = record.time / 1000;
+            if (second != cachedSecond) {
+                cachedSecond = second;
+                cachedTimestamp = TIMESTAMP_FORMAT.format(Instant.ofEpochMilli(record.time));
+            }
+            return "[" + cachedTimestamp + "] " + record.level + " [" + record.name + "] " + record.message;
+        }
+        
+        private void write(String line, List<String> console) {
+            console.add(line);
+            try {
+                if (out == null) {
+                    open();
+                }
+                out.write(line);
+                out.write(System.lineSeparator());
+                // Счетчик отстает на размер буфера, для ротации этой точности достаточно
+                if (counter.count >= Config.LOG_MAX_FILE_SIZE) {
+                    rotate();
+                }
+            } catch (IOException e) {
+                System.err.println("Ошибка записи в лог: " + e.getMessage());
+                closeQuietly();
+            }
+        }
+        
+        // Вывод накопленной пачки в консоль и сброс буфера файла; только после этого
+        // записи пачки считаются записанными для flush()
+        private void flushBatch(List<String> console) {
+            for (String line : console) {
+                System.out.println(line);
+            }
+            console.clear();
+            if (out != null) {
+                try {
+                    out.flush();
+                } catch (IOException e) {
+                    System.err.println("Ошибка записи в лог: " + e.getMessage());
+                    closeQuietly();
+                }
+            }
+            written = buffered;
+        }
+        
+        private void open() throws IOException {
+            Path parent = file.getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            counter = new CountingOutputStream(new FileOutputStream(file.toFile(), true), Files.size(file));
+            out = new BufferedWriter(new OutputStreamWriter(counter, StandardCharsets.UTF_8), 64 * 1024);
+        }
+        
+        // Текущий файл сжимается в <имя>.<время>.gz, хранится не больше LOG_MAX_ARCHIVES архивов
+        private void rotate() throws IOException {
+            out.close();
+            out = null;
+            Path rotated = file.resolveSibling(file.getFileName() + "." + ARCHIVE_FORMAT.format(Instant.now()));
+            Files.move(file, rotated, StandardCopyOption.REPLACE_EXISTING);
+            Path archive = rotated.resolveSibling(rotated.getFileName() + ".gz");
+            try (InputStream in = Files.newInputStream(rotated);
+                 OutputStream gzip = new GZIPOutputStream(Files.newOutputStream(archive))) {
+                in.transferTo(gzip);
+            }
+            Files.delete(rotated);
+            removeOldArchives();
+            open();
+        }
+        
+        private void removeOldArchives() throws IOException {
+            String prefix = file.getFileName() + ".";
+            List<Path> archives = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(file.toAbsolutePath().getParent(), prefix + "*.gz")) {
+                for (Path archive : stream) {
+                    archives.add(archive);
+                }
+            }
+            // Имена архивов упорядочены по времени создания
+            archives.sort(null);
+            for (int i = 0; i < archives.size() - Config.LOG_MAX_ARCHIVES; i++) {
+                Files.deleteIfExists(archives.get(i));
+            }
+        }
+        
+        private static class CountingOutputStream extends FilterOutputStream {
+            long count;
+            
+            CountingOutputStream(OutputStream out, long initialCount) {
+                super(out);
+                this.count = initialCount;
+            }
+            
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                count++;
+            }
+            
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                count += len;
+            }
+        }
+        
+        private void closeQuietly() {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                    // файл будет открыт заново при следующей записи
+                }
+                out = null;
+            }
+        }
+    }
+}